@@ -0,0 +1,33 @@
+package org.baseagent.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks and writes the results as JMH JSON, so that runs against two versions of
+ * BaseAgent can be diffed.
+ *
+ * Usage: BenchmarkMain [result file] [benchmark regex]
+ */
+public class BenchmarkMain {
+	/** The seed every benchmark builds its model from, so that runs measure the same work */
+	public static final long SEED = 42;
+
+	public static void main(String[] args) throws RunnerException {
+		String resultFile = (args.length > 0) ? args[0] : "benchmark-results.json";
+		String include = (args.length > 1) ? args[1] : BenchmarkMain.class.getPackage().getName() + ".*Benchmark";
+
+		Options options = new OptionsBuilder()
+				.include(include)
+				.warmupIterations(3)
+				.measurementIterations(5)
+				.forks(1)
+				.resultFormat(ResultFormatType.JSON)
+				.result(resultFile)
+				.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,49 @@
+package org.baseagent.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.baseagent.foundations.Application3;
+import org.baseagent.foundations.Scenario;
+import org.baseagent.sim.Simulation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time for the first STEPS steps of the bit-packed Game of Life, by grid size, from a fresh grid every
+ * iteration
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(batchSize = BitLifeBenchmark.STEPS)
+@Measurement(batchSize = BitLifeBenchmark.STEPS)
+public class BitLifeBenchmark {
+	/** The steps measured from each fresh build */
+	public static final int STEPS = 200;
+
+	@Param({ "100", "1000", "10000" })
+	public int size;
+
+	private Simulation simulation;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		Scenario scenario = Application3.bitsScenario(size, size);
+		scenario.setSeed(BenchmarkMain.SEED);
+		simulation = scenario.build();
+	}
+
+	@Benchmark
+	public void step() {
+		simulation.step();
+	}
+}
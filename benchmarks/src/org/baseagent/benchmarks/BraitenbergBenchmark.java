@@ -0,0 +1,69 @@
+package org.baseagent.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.baseagent.Beacon;
+import org.baseagent.embodied.EmbodiedAgent;
+import org.baseagent.embodied.sensors.MaxSignalSensor;
+import org.baseagent.experiments.BeaconIndex;
+import org.baseagent.experiments.BraitenbergExampleApp;
+import org.baseagent.experiments.DirectionalMaxSignalSensor;
+import org.baseagent.experiments.SignalField;
+import org.baseagent.experiments.SignalFieldSensor;
+import org.baseagent.grid.Grid;
+import org.baseagent.grid.GridLayer.GridLayerUpdateOption;
+import org.baseagent.sim.Simulation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Cost of one Braitenberg light sensor reading as the number of lights grows: scanning every light, using a BeaconIndex, or reading a SignalField */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BraitenbergBenchmark {
+	@Param({ "1", "100", "1000", "10000" })
+	public int beacons;
+
+	@Param({ "scan", "index", "field" })
+	public String lookup;
+
+	private EmbodiedAgent vehicle;
+	private MaxSignalSensor sensor;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Simulation simulation = new Simulation();
+		Grid grid = new Grid(600, 400);
+		simulation.setUniverse(grid);
+		grid.createGridLayer("lights", GridLayerUpdateOption.NO_SWITCH);
+
+		Random random = new Random(42);
+		BeaconIndex index = new BeaconIndex(600, 400, 8);
+		SignalField field = new SignalField("lights", 600, 400);
+		for (int i=0; i < beacons; i++) {
+			Beacon light = BraitenbergExampleApp.createLight(random.nextInt(600), random.nextInt(400));
+			simulation.add(light);
+			index.add(light, "lights", BraitenbergExampleApp.LIGHT_REACH);
+			field.add(light, BraitenbergExampleApp.LIGHT_REACH, BraitenbergExampleApp::lightFalloff);
+		}
+		vehicle = BraitenbergExampleApp.createVehicle(simulation, 300, 200, (BeaconIndex)null);
+		switch (lookup) {
+		case "index" : sensor = new DirectionalMaxSignalSensor("lights", 0.0, index); break;
+		case "field" : sensor = new SignalFieldSensor(field, 0.0); break;
+		default : sensor = new DirectionalMaxSignalSensor("lights", 0.0); break;
+		}
+	}
+
+	@Benchmark
+	public void sense() {
+		sensor.sense(vehicle);
+	}
+}
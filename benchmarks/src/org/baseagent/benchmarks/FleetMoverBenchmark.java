@@ -0,0 +1,56 @@
+package org.baseagent.benchmarks;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.baseagent.examples.worldmap.FleetMover;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time for the first STEPS FleetMover steps of the same looping waypoint fleet as MoveBehaviorBenchmark, by fleet
+ * size, on one thread or all cores, built afresh every iteration
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(batchSize = FleetMoverBenchmark.STEPS)
+@Measurement(batchSize = FleetMoverBenchmark.STEPS)
+public class FleetMoverBenchmark {
+	/** The steps measured from each fresh build */
+	public static final int STEPS = 100;
+
+	@Param({ "10000", "1000000" })
+	public int agents;
+
+	@Param({ "false", "true" })
+	public boolean parallel;
+
+	private FleetMover fleet;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		fleet = new FleetMover();
+		if (parallel) fleet.setPool(ForkJoinPool.commonPool());
+		for (int i=0; i < agents; i++) {
+			double lat = -5.0 + (i % 100) * 0.1;
+			double lon = -160.0 + (i / 100 % 100) * 0.05;
+			int path = fleet.addPath(new double[] { lat, lat }, new double[] { lon, lon + 5.0 }, true);
+			fleet.addMover(path, 0.2, null);
+		}
+	}
+
+	@Benchmark
+	public void step() {
+		fleet.advance();
+	}
+}
@@ -0,0 +1,51 @@
+package org.baseagent.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.baseagent.foundations.InfectionSim;
+import org.baseagent.foundations.Scenario;
+import org.baseagent.sim.Simulation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time for the first STEPS steps of InfectionSim (wandering, collisions and the disease state machine) as the
+ * population grows. Every iteration builds the model afresh from the same seed, so each measures the same
+ * outbreak, from the first infections through incubation and recovery.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(batchSize = InfectionBenchmark.STEPS)
+@Measurement(batchSize = InfectionBenchmark.STEPS)
+public class InfectionBenchmark {
+	/** The steps measured from each fresh build */
+	public static final int STEPS = 1000;
+
+	@Param({ "100", "1000", "10000" })
+	public int population;
+
+	private Simulation simulation;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		// One percent of the population starts out infected
+		Scenario scenario = InfectionSim.scenario(population, Math.max(1, population / 100));
+		scenario.setSeed(BenchmarkMain.SEED);
+		simulation = scenario.build();
+	}
+
+	@Benchmark
+	public void step() {
+		simulation.step();
+	}
+}
@@ -0,0 +1,53 @@
+package org.baseagent.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.baseagent.foundations.Application3;
+import org.baseagent.foundations.Application3.PatchMode;
+import org.baseagent.foundations.Scenario;
+import org.baseagent.sim.Simulation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time for the first STEPS steps of the Application3 Game of Life patch, by grid size and patch mode. Every
+ * iteration builds the grid afresh, so each mode is measured on the same generations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(batchSize = LifeBenchmark.STEPS)
+@Measurement(batchSize = LifeBenchmark.STEPS)
+public class LifeBenchmark {
+	/** The steps measured from each fresh build */
+	public static final int STEPS = 200;
+
+	@Param({ "100", "500", "1000" })
+	public int size;
+
+	@Param({ "SEQUENTIAL", "PARALLEL", "ACTIVE" })
+	public PatchMode mode;
+
+	private Simulation simulation;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		Scenario scenario = Application3.scenario(size, size, mode);
+		scenario.setSeed(BenchmarkMain.SEED);
+		simulation = scenario.build();
+	}
+
+	@Benchmark
+	public void step() {
+		simulation.step();
+	}
+}
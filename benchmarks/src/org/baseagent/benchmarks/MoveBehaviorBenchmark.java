@@ -0,0 +1,64 @@
+package org.baseagent.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.baseagent.behaviors.map.MoveBehavior;
+import org.baseagent.sim.Simulation;
+import org.baseagent.worldmap.WorldMap;
+import org.baseagent.worldmap.WorldMapAgent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time for the first STEPS simulation steps of a fleet of WorldMapAgents looping over waypoints with MoveBehavior,
+ * as in WorldMapDemoApp, built afresh every iteration
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(batchSize = MoveBehaviorBenchmark.STEPS)
+@Measurement(batchSize = MoveBehaviorBenchmark.STEPS)
+public class MoveBehaviorBenchmark {
+	/** The steps measured from each fresh build */
+	public static final int STEPS = 100;
+
+	@Param({ "2", "1000", "10000" })
+	public int agents;
+
+	private Simulation simulation;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		simulation = new Simulation();
+		simulation.setUniverse(new WorldMap(8, 6));
+
+		for (int i=0; i < agents; i++) {
+			// Spread the agents over the same patch of the Pacific the demo uses
+			double lat = -5.0 + (i % 100) * 0.1;
+			double lon = -160.0 + (i / 100 % 100) * 0.05;
+			WorldMapAgent agent = new WorldMapAgent();
+			agent.setLatLon(lat, lon);
+			simulation.add(agent);
+
+			MoveBehavior move = new MoveBehavior(0.2); // degrees per step
+			move.addWaypoint(lat, lon);
+			move.addWaypoint(lat, lon + 5.0);
+			move.setLoop(true);
+			agent.addBehavior(move);
+		}
+	}
+
+	@Benchmark
+	public void step() {
+		simulation.step();
+	}
+}
@@ -0,0 +1,45 @@
+package org.baseagent.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.baseagent.foundations.Scenario;
+import org.baseagent.foundations.Vants;
+import org.baseagent.sim.Simulation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time for the first STEPS steps of the Vants scenario on its 300x300 grid, built afresh from the same seed
+ * every iteration
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(batchSize = VantsBenchmark.STEPS)
+@Measurement(batchSize = VantsBenchmark.STEPS)
+public class VantsBenchmark {
+	/** The steps measured from each fresh build */
+	public static final int STEPS = 10000;
+
+	private Simulation simulation;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		Scenario scenario = Vants.scenario();
+		scenario.setSeed(BenchmarkMain.SEED);
+		simulation = scenario.build();
+	}
+
+	@Benchmark
+	public void step() {
+		simulation.step();
+	}
+}
@@ -0,0 +1,64 @@
+package org.baseagent.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.baseagent.Beacon;
+import org.baseagent.experiments.BraitenbergExampleApp;
+import org.baseagent.experiments.SignalField;
+import org.baseagent.experiments.VehicleSwarm;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time for the first STEPS steps of a swarm of Braitenberg vehicles running their compiled BodyPlan among 100
+ * lights, by swarm size, on one thread or all cores. Every iteration places the lights and vehicles afresh from
+ * the same seed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(batchSize = VehicleSwarmBenchmark.STEPS)
+@Measurement(batchSize = VehicleSwarmBenchmark.STEPS)
+public class VehicleSwarmBenchmark {
+	/** The steps measured from each fresh build */
+	public static final int STEPS = 100;
+
+	@Param({ "1000", "10000", "100000" })
+	public int vehicles;
+
+	@Param({ "false", "true" })
+	public boolean parallel;
+
+	private VehicleSwarm swarm;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		Random random = new Random(BenchmarkMain.SEED);
+		SignalField field = new SignalField("lights", 600, 400);
+		for (int i=0; i < 100; i++) {
+			Beacon light = BraitenbergExampleApp.createLight(random.nextInt(600), random.nextInt(400));
+			field.add(light, BraitenbergExampleApp.LIGHT_REACH, BraitenbergExampleApp::lightFalloff);
+		}
+		swarm = new VehicleSwarm(BraitenbergExampleApp.createPlan(field).compile(), 600, 400);
+		if (parallel) swarm.setPool(ForkJoinPool.commonPool());
+		for (int i=0; i < vehicles; i++) {
+			swarm.addVehicle(random.nextDouble() * 600, random.nextDouble() * 400, null);
+		}
+	}
+
+	@Benchmark
+	public void step() {
+		swarm.advance();
+	}
+}
@@ -0,0 +1,161 @@
+package org.baseagent.examples.worldmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A network of places compiled into compressed sparse row form: the edges leaving node i are
+ * targets[offsets[i]] to targets[offsets[i + 1] - 1], with their weights alongside. Nodes are
+ * numbered from 0 and carry a latitude and longitude, so edge weights default to great-circle
+ * kilometers and A* can use a haversine heuristic. Build one with a {@link Builder}.
+ *
+ * The shape is fixed once built, but edge weights can change, and an edge can be closed by
+ * setting its weight to infinity. Listeners hear about every change, which is how a RouteTable
+ * invalidates only the routes the change can affect.
+ */
+public class CompactNetwork {
+    /** Told whenever an edge's weight changes */
+    public interface EdgeListener {
+        void edgeChanged(int from, int to, double oldWeight, double newWeight);
+    }
+
+    private final double[] lat;
+    private final double[] lon;
+    private final int[] offsets;
+    private final int[] targets;
+    private final double[] weights;
+    private final List<EdgeListener> listeners = new ArrayList<>();
+
+    /** Collects nodes and edges, in any order, for compiling into a CompactNetwork */
+    public static class Builder {
+        private double[] lat = new double[16];
+        private double[] lon = new double[16];
+        private int nodes;
+        private int[] from = new int[16];
+        private int[] to = new int[16];
+        private double[] weight = new double[16];
+        private int edges;
+
+        /** Adds a node and returns its number */
+        public int addNode(double nodeLat, double nodeLon) {
+            if (nodes == lat.length) {
+                lat = Arrays.copyOf(lat, nodes * 2);
+                lon = Arrays.copyOf(lon, nodes * 2);
+            }
+            lat[nodes] = nodeLat;
+            lon[nodes] = nodeLon;
+            return nodes++;
+        }
+
+        /** Adds a one-way edge weighted by the great-circle distance between its ends, in kilometers */
+        public Builder addEdge(int edgeFrom, int edgeTo) {
+            return addEdge(edgeFrom, edgeTo, GreatCircle.distanceKm(lat[edgeFrom], lon[edgeFrom], lat[edgeTo], lon[edgeTo]));
+        }
+
+        public Builder addEdge(int edgeFrom, int edgeTo, double edgeWeight) {
+            if ((edgeFrom < 0) || (edgeTo < 0) || (edgeFrom >= nodes) || (edgeTo >= nodes)) throw new IllegalArgumentException("No such node in edge " + edgeFrom + " -> " + edgeTo);
+            if (edges == from.length) {
+                from = Arrays.copyOf(from, edges * 2);
+                to = Arrays.copyOf(to, edges * 2);
+                weight = Arrays.copyOf(weight, edges * 2);
+            }
+            from[edges] = edgeFrom;
+            to[edges] = edgeTo;
+            weight[edges] = edgeWeight;
+            edges++;
+            return this;
+        }
+
+        /** Adds an edge each way, weighted by great-circle distance */
+        public Builder addLink(int a, int b) {
+            addEdge(a, b);
+            return addEdge(b, a);
+        }
+
+        public CompactNetwork build() {
+            // Counting sort of the edges by source node
+            int[] offsets = new int[nodes + 1];
+            for (int i=0; i < edges; i++) {
+                offsets[from[i] + 1]++;
+            }
+            for (int i=0; i < nodes; i++) {
+                offsets[i + 1] += offsets[i];
+            }
+            int[] next = Arrays.copyOf(offsets, nodes);
+            int[] targets = new int[edges];
+            double[] weights = new double[edges];
+            for (int i=0; i < edges; i++) {
+                int slot = next[from[i]]++;
+                targets[slot] = to[i];
+                weights[slot] = weight[i];
+            }
+            return new CompactNetwork(Arrays.copyOf(lat, nodes), Arrays.copyOf(lon, nodes), offsets, targets, weights);
+        }
+    }
+
+    private CompactNetwork(double[] lat, double[] lon, int[] offsets, int[] targets, double[] weights) {
+        this.lat = lat;
+        this.lon = lon;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+    }
+
+    public int getNodeCount() {
+        return lat.length;
+    }
+
+    public int getEdgeCount() {
+        return targets.length;
+    }
+
+    public double getLat(int node) {
+        return lat[node];
+    }
+
+    public double getLon(int node) {
+        return lon[node];
+    }
+
+    /** The index of the first edge leaving node; the edges leaving it run up to getFirstEdge(node + 1) */
+    public int getFirstEdge(int node) {
+        return offsets[node];
+    }
+
+    public int getTarget(int edge) {
+        return targets[edge];
+    }
+
+    public double getWeight(int edge) {
+        return weights[edge];
+    }
+
+    /** The edge from one node to another, or -1 if there is none */
+    public int findEdge(int from, int to) {
+        for (int e=offsets[from]; e < offsets[from + 1]; e++) {
+            if (targets[e] == to) return e;
+        }
+        return -1;
+    }
+
+    /** Changes the weight of the edge from one node to another; infinity closes it */
+    public void setWeight(int from, int to, double weight) {
+        int edge = findEdge(from, to);
+        if (edge < 0) throw new IllegalArgumentException("No edge " + from + " -> " + to);
+        double old = weights[edge];
+        if (old == weight) return;
+        weights[edge] = weight;
+        for (EdgeListener listener : listeners) {
+            listener.edgeChanged(from, to, old, weight);
+        }
+    }
+
+    public void addEdgeListener(EdgeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeEdgeListener(EdgeListener listener) {
+        listeners.remove(listener);
+    }
+}
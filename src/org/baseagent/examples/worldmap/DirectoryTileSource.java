@@ -0,0 +1,29 @@
+package org.baseagent.examples.worldmap;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Serves tiles from a local directory laid out as z/x/y.png or z/x/y.jpg, as produced by most tile
+ * downloaders, for use on networks that cannot reach a tile server.
+ */
+public class DirectoryTileSource implements TileSource {
+    private static final String[] EXTENSIONS = {".png", ".jpg", ".jpeg"};
+
+    private final Path directory;
+
+    public DirectoryTileSource(Path directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public byte[] fetch(TileKey key) throws IOException {
+        Path column = directory.resolve(Integer.toString(key.getZ())).resolve(Integer.toString(key.getX()));
+        for (String extension : EXTENSIONS) {
+            Path file = column.resolve(key.getY() + extension);
+            if (Files.isRegularFile(file)) return Files.readAllBytes(file);
+        }
+        return null;
+    }
+}
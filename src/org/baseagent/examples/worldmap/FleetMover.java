@@ -0,0 +1,200 @@
+package org.baseagent.examples.worldmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.baseagent.Agent;
+import org.baseagent.foundations.RowBands;
+import org.baseagent.sim.Simulation;
+import org.baseagent.worldmap.WorldMapAgent;
+
+/**
+ * Moves a whole fleet along waypoint paths in one loop over primitive arrays, instead of one
+ * MoveBehavior per agent. Each path is compiled once into segments (start, unit direction, length
+ * and distance from the path's start), and a mover is just a path, a speed and a distance along it,
+ * so a step is an add, a compare and a multiply-add per mover, with nothing allocated. Movers can be
+ * split across a fork-join pool.
+ *
+ * Like MoveBehavior, speeds are in degrees per step and movement is straight in latitude and
+ * longitude; a looping path returns from its last waypoint to its first. Positions are written back
+ * to the movers' WorldMapAgents (and a GeoQuadtree, if one is set) in bulk, every step or every few.
+ *
+ * Add the FleetMover to the Simulation in place of the agents' MoveBehaviors.
+ */
+public class FleetMover extends Agent {
+    // Segments of every path, end to end
+    private double[] segmentLat = new double[16];
+    private double[] segmentLon = new double[16];
+    private double[] segmentDirLat = new double[16];
+    private double[] segmentDirLon = new double[16];
+    private double[] segmentStart = new double[16];
+    private int segments;
+
+    // Paths, as ranges of segments
+    private int[] pathFirst = new int[4];
+    private int[] pathLast = new int[4];
+    private double[] pathLength = new double[4];
+    private boolean[] pathLoops = new boolean[4];
+    private int paths;
+
+    // Movers
+    private int[] moverPath = new int[16];
+    private int[] moverSegment = new int[16];
+    private double[] moverDistance = new double[16];
+    private double[] moverSpeed = new double[16];
+    private double[] lat = new double[16];
+    private double[] lon = new double[16];
+    private final List<WorldMapAgent> agents = new ArrayList<>();
+    private int movers;
+
+    private ForkJoinPool pool;
+    private GeoQuadtree<WorldMapAgent> index;
+    private int writeBackEvery = 1;
+    private long steps;
+
+    /** Compiles waypoints into a path and returns its id; at least one waypoint is needed */
+    public int addPath(double[] lats, double[] lons, boolean loop) {
+        if ((lats.length == 0) || (lats.length != lons.length)) throw new IllegalArgumentException("A path needs as many latitudes as longitudes, and at least one of each");
+        int count = Math.max(1, loop ? lats.length : lats.length - 1);
+        ensureSegments(segments + count);
+        if (paths == pathFirst.length) {
+            int capacity = paths * 2;
+            pathFirst = Arrays.copyOf(pathFirst, capacity);
+            pathLast = Arrays.copyOf(pathLast, capacity);
+            pathLength = Arrays.copyOf(pathLength, capacity);
+            pathLoops = Arrays.copyOf(pathLoops, capacity);
+        }
+
+        pathFirst[paths] = segments;
+        double distance = 0.0;
+        for (int i=0; i < count; i++) {
+            int from = i % lats.length;
+            int to = (i + 1) % lats.length;
+            double dLat = lats[to] - lats[from];
+            double dLon = lons[to] - lons[from];
+            double length = Math.sqrt(dLat * dLat + dLon * dLon);
+            segmentLat[segments] = lats[from];
+            segmentLon[segments] = lons[from];
+            segmentDirLat[segments] = (length > 0.0) ? dLat / length : 0.0;
+            segmentDirLon[segments] = (length > 0.0) ? dLon / length : 0.0;
+            segmentStart[segments] = distance;
+            distance += length;
+            segments++;
+        }
+        pathLast[paths] = segments - 1;
+        pathLength[paths] = distance;
+        pathLoops[paths] = loop;
+        return paths++;
+    }
+
+    /**
+     * Adds a mover at the start of a path, moving speed degrees per step, and returns its id. The
+     * agent, which may be null, is moved to the mover's position on each write back.
+     */
+    public int addMover(int path, double speed, WorldMapAgent agent) {
+        if (movers == moverPath.length) {
+            int capacity = movers * 2;
+            moverPath = Arrays.copyOf(moverPath, capacity);
+            moverSegment = Arrays.copyOf(moverSegment, capacity);
+            moverDistance = Arrays.copyOf(moverDistance, capacity);
+            moverSpeed = Arrays.copyOf(moverSpeed, capacity);
+            lat = Arrays.copyOf(lat, capacity);
+            lon = Arrays.copyOf(lon, capacity);
+        }
+        int segment = pathFirst[path];
+        moverPath[movers] = path;
+        moverSegment[movers] = segment;
+        moverDistance[movers] = 0.0;
+        moverSpeed[movers] = speed;
+        lat[movers] = segmentLat[segment];
+        lon[movers] = segmentLon[segment];
+        agents.add(agent);
+        return movers++;
+    }
+
+    /** Splits each step's movers across the pool; null (the default) steps them on the calling thread */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /** Keeps the index in step with the movers' agents on every write back */
+    public void setIndex(GeoQuadtree<WorldMapAgent> index) {
+        this.index = index;
+    }
+
+    /** Writes positions back to the agents only every so many steps, for example once per frame */
+    public void setWriteBackEvery(int steps) {
+        this.writeBackEvery = Math.max(1, steps);
+    }
+
+    @Override
+    public void step(Simulation simulation) {
+        advance();
+        if (++steps % writeBackEvery == 0) writeBack();
+    }
+
+    /** Moves every mover one step along its path */
+    public void advance() {
+        RowBands.run(pool, movers, this::advance);
+    }
+
+    private void advance(int from, int to) {
+        for (int i=from; i < to; i++) {
+            int path = moverPath[i];
+            double length = pathLength[path];
+            double distance = moverDistance[i] + moverSpeed[i];
+            int segment = moverSegment[i];
+            if (distance >= length) {
+                if (pathLoops[path] && (length > 0.0)) {
+                    distance -= length * Math.floor(distance / length);
+                    segment = pathFirst[path];
+                } else {
+                    distance = length;
+                }
+            }
+            int last = pathLast[path];
+            while ((segment < last) && (segmentStart[segment + 1] <= distance)) {
+                segment++;
+            }
+            double along = distance - segmentStart[segment];
+            moverDistance[i] = distance;
+            moverSegment[i] = segment;
+            lat[i] = segmentLat[segment] + segmentDirLat[segment] * along;
+            lon[i] = segmentLon[segment] + segmentDirLon[segment] * along;
+        }
+    }
+
+    /** Moves every mover's agent, and its entry in the index, to the mover's position */
+    public void writeBack() {
+        for (int i=0; i < movers; i++) {
+            WorldMapAgent agent = agents.get(i);
+            if (agent == null) continue;
+            agent.setLatLon(lat[i], lon[i]);
+            if (index != null) index.put(agent, lat[i], lon[i]);
+        }
+    }
+
+    public int size() {
+        return movers;
+    }
+
+    public double getLat(int mover) {
+        return lat[mover];
+    }
+
+    public double getLon(int mover) {
+        return lon[mover];
+    }
+
+    private void ensureSegments(int capacity) {
+        if (capacity <= segmentLat.length) return;
+        capacity = Math.max(capacity, segmentLat.length * 2);
+        segmentLat = Arrays.copyOf(segmentLat, capacity);
+        segmentLon = Arrays.copyOf(segmentLon, capacity);
+        segmentDirLat = Arrays.copyOf(segmentDirLat, capacity);
+        segmentDirLon = Arrays.copyOf(segmentDirLon, capacity);
+        segmentStart = Arrays.copyOf(segmentStart, capacity);
+    }
+}
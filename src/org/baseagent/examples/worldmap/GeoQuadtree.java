@@ -0,0 +1,216 @@
+package org.baseagent.examples.worldmap;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A point quadtree over latitude and longitude, for finding the things (agents, assets) near a point
+ * or inside a box without looking at all of them. A node splits into four once it holds more than a
+ * few items, so a query only descends into the nodes that overlap it, and visits few items that it
+ * then has to reject.
+ *
+ * Call {@link #put} whenever an item moves. An item that stays inside its node's bounds is updated in
+ * place; only one that crosses into another node is moved. Boxes may cross the antimeridian. Not
+ * thread safe.
+ */
+public class GeoQuadtree<T> {
+    private static final int CAPACITY = 16;
+    private static final int MAX_DEPTH = 24;
+
+    private final Node root = new Node(-90.0, -180.0, 90.0, 180.0, 0);
+    private final Map<T, Entry<T>> entries = new IdentityHashMap<>();
+
+    private static class Entry<T> {
+        final T item;
+        double lat;
+        double lon;
+        GeoQuadtree<T>.Node node;
+
+        Entry(T item) {
+            this.item = item;
+        }
+    }
+
+    private class Node {
+        final double minLat;
+        final double minLon;
+        final double maxLat;
+        final double maxLon;
+        final int depth;
+        List<Entry<T>> items = new ArrayList<>();
+        Node[] children;
+
+        Node(double minLat, double minLon, double maxLat, double maxLon, int depth) {
+            this.minLat = minLat;
+            this.minLon = minLon;
+            this.maxLat = maxLat;
+            this.maxLon = maxLon;
+            this.depth = depth;
+        }
+
+        boolean contains(double lat, double lon) {
+            return (lat >= minLat) && (lon >= minLon) && ((lat < maxLat) || (maxLat == 90.0)) && ((lon < maxLon) || (maxLon == 180.0));
+        }
+
+        boolean overlaps(double boxMinLat, double boxMinLon, double boxMaxLat, double boxMaxLon) {
+            return (boxMinLat <= maxLat) && (boxMaxLat >= minLat) && (boxMinLon <= maxLon) && (boxMaxLon >= minLon);
+        }
+
+        void insert(Entry<T> entry) {
+            Node node = this;
+            while (node.children != null) {
+                node = node.childFor(entry.lat, entry.lon);
+            }
+            node.items.add(entry);
+            entry.node = node;
+            if ((node.items.size() > CAPACITY) && (node.depth < MAX_DEPTH)) node.split();
+        }
+
+        Node childFor(double lat, double lon) {
+            double midLat = (minLat + maxLat) / 2;
+            double midLon = (minLon + maxLon) / 2;
+            return children[((lat >= midLat) ? 2 : 0) + ((lon >= midLon) ? 1 : 0)];
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        void split() {
+            double midLat = (minLat + maxLat) / 2;
+            double midLon = (minLon + maxLon) / 2;
+            children = (Node[])new GeoQuadtree.Node[4];
+            children[0] = new Node(minLat, minLon, midLat, midLon, depth + 1);
+            children[1] = new Node(minLat, midLon, midLat, maxLon, depth + 1);
+            children[2] = new Node(midLat, minLon, maxLat, midLon, depth + 1);
+            children[3] = new Node(midLat, midLon, maxLat, maxLon, depth + 1);
+            List<Entry<T>> moving = items;
+            items = null;
+            for (Entry<T> entry : moving) {
+                insert(entry);
+            }
+        }
+
+        void visit(double boxMinLat, double boxMinLon, double boxMaxLat, double boxMaxLon, Consumer<Entry<T>> visitor) {
+            if (!overlaps(boxMinLat, boxMinLon, boxMaxLat, boxMaxLon)) return;
+            if (children != null) {
+                for (Node child : children) {
+                    child.visit(boxMinLat, boxMinLon, boxMaxLat, boxMaxLon, visitor);
+                }
+                return;
+            }
+            for (int i=0; i < items.size(); i++) {
+                Entry<T> entry = items.get(i);
+                if ((entry.lat >= boxMinLat) && (entry.lat <= boxMaxLat) && (entry.lon >= boxMinLon) && (entry.lon <= boxMaxLon)) visitor.accept(entry);
+            }
+        }
+    }
+
+    /** Adds the item at a position, or moves it there if it is already in the tree */
+    public void put(T item, double lat, double lon) {
+        lat = Math.max(-90.0, Math.min(90.0, lat));
+        lon = normalizeLon(lon);
+        Entry<T> entry = entries.get(item);
+        if (entry == null) {
+            entry = new Entry<>(item);
+            entries.put(item, entry);
+        } else if (entry.node.contains(lat, lon)) {
+            entry.lat = lat;
+            entry.lon = lon;
+            return;
+        } else {
+            entry.node.items.remove(entry);
+        }
+        entry.lat = lat;
+        entry.lon = lon;
+        root.insert(entry);
+    }
+
+    public void remove(T item) {
+        Entry<T> entry = entries.remove(item);
+        if (entry != null) entry.node.items.remove(entry);
+    }
+
+    public boolean contains(T item) {
+        return entries.containsKey(item);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Visits every item inside a box. If minLon is greater than maxLon, the box crosses the
+     * antimeridian and runs east from minLon to maxLon.
+     */
+    public void forEachInBox(double minLat, double minLon, double maxLat, double maxLon, Consumer<T> visitor) {
+        visitBox(minLat, minLon, maxLat, maxLon, entry -> visitor.accept(entry.item));
+    }
+
+    private void visitBox(double minLat, double minLon, double maxLat, double maxLon, Consumer<Entry<T>> visitor) {
+        minLon = normalizeLon(minLon);
+        maxLon = normalizeLon(maxLon);
+        if (minLon <= maxLon) {
+            root.visit(minLat, minLon, maxLat, maxLon, visitor);
+        } else {
+            root.visit(minLat, minLon, maxLat, 180.0, visitor);
+            root.visit(minLat, -180.0, maxLat, maxLon, visitor);
+        }
+    }
+
+    public List<T> inBox(double minLat, double minLon, double maxLat, double maxLon) {
+        List<T> found = new ArrayList<>();
+        forEachInBox(minLat, minLon, maxLat, maxLon, found::add);
+        return found;
+    }
+
+    /** Visits every item within radiusKm of a point, by great-circle distance */
+    public void forEachWithin(double lat, double lon, double radiusKm, Consumer<T> visitor) {
+        double latDelta = Math.toDegrees(radiusKm / GreatCircle.EARTH_RADIUS_KM);
+        double minLat = lat - latDelta;
+        double maxLat = lat + latDelta;
+        Consumer<Entry<T>> filter = entry -> {
+            if (GreatCircle.distanceKm(lat, lon, entry.lat, entry.lon) <= radiusKm) visitor.accept(entry.item);
+        };
+        if ((minLat <= -90.0) || (maxLat >= 90.0) || (latDelta >= 90.0)) {
+            // The circle takes in a pole, so every longitude
+            root.visit(Math.max(-90.0, minLat), -180.0, Math.min(90.0, maxLat), 180.0, filter);
+            return;
+        }
+        double lonDelta = Math.toDegrees(Math.asin(Math.min(1.0, Math.sin(radiusKm / GreatCircle.EARTH_RADIUS_KM) / Math.cos(Math.toRadians(lat)))));
+        if (lonDelta >= 180.0) {
+            root.visit(minLat, -180.0, maxLat, 180.0, filter);
+        } else {
+            visitBox(minLat, lon - lonDelta, maxLat, lon + lonDelta, filter);
+        }
+    }
+
+    public List<T> within(double lat, double lon, double radiusKm) {
+        List<T> found = new ArrayList<>();
+        forEachWithin(lat, lon, radiusKm, found::add);
+        return found;
+    }
+
+    /**
+     * Visits every item inside a Web Mercator view: centered on lat, lon at a slippy zoom level, and
+     * width x height pixels of 256-pixel tiles. This is the viewport culling query for a map canvas.
+     */
+    public void forEachInView(double lat, double lon, int zoom, double width, double height, Consumer<T> visitor) {
+        double centerX = TileKey.tileX(lon, zoom);
+        double centerY = TileKey.tileY(lat, zoom);
+        double halfWidth = width / 256.0 / 2;
+        double halfHeight = height / 256.0 / 2;
+        double north = TileKey.latOf(centerY - halfHeight, zoom);
+        double south = TileKey.latOf(centerY + halfHeight, zoom);
+        if (2 * halfWidth >= (1 << zoom)) {
+            forEachInBox(south, -180.0, north, 180.0, visitor);
+        } else {
+            forEachInBox(south, TileKey.lonOf(centerX - halfWidth, zoom), north, TileKey.lonOf(centerX + halfWidth, zoom), visitor);
+        }
+    }
+
+    private static double normalizeLon(double lon) {
+        if ((lon >= -180.0) && (lon <= 180.0)) return lon;
+        return ((lon + 180.0) % 360.0 + 360.0) % 360.0 - 180.0;
+    }
+}
@@ -0,0 +1,55 @@
+package org.baseagent.examples.worldmap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Fetches tiles from a tile server by filling {z}, {x} and {y} into a URL template.
+ */
+public class HttpTileSource implements TileSource {
+    /** Esri World Imagery, which numbers rows before columns */
+    public static final String ESRI_WORLD_IMAGERY = "https://server.arcgisonline.com/ArcGIS/rest/services/World_Imagery/MapServer/tile/{z}/{y}/{x}";
+
+    private final String template;
+    private int connectTimeoutMillis = 5000;
+    private int readTimeoutMillis = 10000;
+
+    public HttpTileSource(String template) {
+        this.template = template;
+    }
+
+    public void setTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    public String urlOf(TileKey key) {
+        return template.replace("{z}", Integer.toString(key.getZ())).replace("{x}", Integer.toString(key.getX())).replace("{y}", Integer.toString(key.getY()));
+    }
+
+    @Override
+    public byte[] fetch(TileKey key) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection)new URL(urlOf(key)).openConnection();
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        connection.setRequestProperty("User-Agent", "BaseAgent");
+        try {
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_FOUND) return null;
+            if (status != HttpURLConnection.HTTP_OK) throw new IOException("Tile " + key + ": HTTP " + status);
+            try (InputStream in = connection.getInputStream()) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(32 * 1024);
+                byte[] buffer = new byte[8192];
+                for (int n; (n = in.read(buffer)) > 0; ) {
+                    out.write(buffer, 0, n);
+                }
+                return out.toByteArray();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
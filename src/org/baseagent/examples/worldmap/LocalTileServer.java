@@ -0,0 +1,129 @@
+package org.baseagent.examples.worldmap;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A tile server on localhost, serving /z/x/y from any TileSource after an optional delay that
+ * stands in for network latency. It counts the requests and bytes it serves, which makes it a
+ * repeatable stand-in for a real tile server when measuring tile loading. Pointed at a TileCache,
+ * it also serves cached or offline tiles to anything that loads tiles by URL.
+ *
+ * Run it on its own to compare a pan across the map with and without prefetching:
+ * LocalTileServer [latencyMillis]
+ */
+public class LocalTileServer {
+    private final HttpServer server;
+    private final TileSource source;
+    private final int latencyMillis;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong bytesServed = new AtomicLong();
+
+    /** Starts serving on a free port */
+    public LocalTileServer(TileSource source, int latencyMillis) throws IOException {
+        this.source = source;
+        this.latencyMillis = latencyMillis;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::serve);
+        server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "local-tile-server");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+    }
+
+    /** The URL template for this server, for an HttpTileSource */
+    public String getUrlTemplate() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/{z}/{x}/{y}";
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getBytesServed() {
+        return bytesServed.get();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        try {
+            requests.incrementAndGet();
+            String[] parts = exchange.getRequestURI().getPath().split("/");
+            byte[] bytes = null;
+            if (parts.length == 4) {
+                TileKey key = new TileKey(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), Integer.parseInt(parts[3]));
+                if (key.isValid()) {
+                    if (latencyMillis > 0) Thread.sleep(latencyMillis);
+                    bytes = source.fetch(key);
+                }
+            }
+            if (bytes == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+            bytesServed.addAndGet(bytes.length);
+        } catch (NumberFormatException e) {
+            exchange.sendResponseHeaders(400, -1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exchange.sendResponseHeaders(503, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /** Stand-in tiles of a fixed size, different for every tile */
+    public static TileSource syntheticTiles(int size) {
+        return key -> {
+            byte[] bytes = new byte[size];
+            new Random(key.hashCode()).nextBytes(bytes);
+            return bytes;
+        };
+    }
+
+    public static void main(String[] args) throws Exception {
+        int latencyMillis = (args.length > 0) ? Integer.parseInt(args[0]) : 50;
+        LocalTileServer server = new LocalTileServer(syntheticTiles(20000), latencyMillis);
+        try {
+            for (boolean prefetch : new boolean[] {false, true}) {
+                TileScheduler scheduler = new TileScheduler(new HttpTileSource(server.getUrlTemplate()), 4, (key, bytes) -> {});
+                scheduler.setPrefetch(prefetch);
+                long fullViewports = 0;
+                long totalNanos = 0;
+                // Pan east across zoom 6 at two tiles a second, one viewport update per 60 Hz frame
+                for (int frame=0; frame < 600; frame++) {
+                    scheduler.setViewportTiles(10.0 + frame * (2.0 / 60.0), 20.0, 6, 4.0, 3.0);
+                    Thread.sleep(1000 / 60);
+                    long time = scheduler.getLastTimeToFullViewport();
+                    if (time >= 0) {
+                        fullViewports++;
+                        totalNanos += time;
+                    }
+                }
+                scheduler.shutdown();
+                System.out.printf("prefetch %-5s: viewport full after %d of 600 frames, mean time to full %.1f ms, %d tiles, %d bytes fetched, %d cancelled%n",
+                    prefetch, fullViewports, (fullViewports > 0) ? totalNanos / 1e6 / fullViewports : Double.NaN, scheduler.getRequested(), scheduler.getBytesLoaded(), scheduler.getCancelled());
+            }
+        } finally {
+            server.stop();
+        }
+    }
+}
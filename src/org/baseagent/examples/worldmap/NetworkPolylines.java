@@ -0,0 +1,336 @@
+package org.baseagent.examples.worldmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.Paint;
+
+/**
+ * Draws the links of a CompactNetwork on a slippy map as great-circle polylines, projecting them only
+ * once per zoom level. Each link is traced along its great circle once, in latitude and longitude;
+ * the first time a zoom level is drawn, every link is projected to world pixels at that level and
+ * simplified to within half a pixel, with its bounding box kept alongside. Panning and repainting
+ * then only shift the cached points by the view's origin, skip the links whose boxes are off screen,
+ * and stroke one path per style.
+ *
+ * A link is the edge between two nodes, drawn once however many directions it runs in. Longitudes
+ * along a link are kept continuous, so a link across the antimeridian runs off the east or west edge
+ * of the world rather than across it. Drawing is meant for the JavaFX thread; not thread safe.
+ *
+ * This is an opt-in alternative to the library's MapNetworkRenderer, which WorldMapNetworkExampleApp
+ * still draws with. Registering it on a WorldMapCanvas needs the library's map layer renderer
+ * interface, so it is left to the caller to hand drawCenteredOn the view's center and zoom.
+ */
+public class NetworkPolylines {
+    private static final int TILE_SIZE = 256;
+    private static final double TOLERANCE_PIXELS = 0.5;
+    private static final double DEGREES_PER_POINT = 1.0;
+    private static final int LEVELS_KEPT = 4;
+
+    private final CompactNetwork network;
+    private final int[] linkFroms;
+    private final int[] linkEdges;
+    private final int[] traceStarts;
+    private final double[] traceLats;
+    private final double[] traceLons;
+    private final byte[] linkStyles;
+    private final List<Paint> strokes = new ArrayList<>();
+    private final List<Double> lineWidths = new ArrayList<>();
+    private final Map<Integer, Level> levels = new LinkedHashMap<Integer, Level>(LEVELS_KEPT, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Level> eldest) {
+            return size() > LEVELS_KEPT;
+        }
+    };
+
+    private int[] visible = new int[0];
+    private long projections;
+    private long linksDrawn;
+    private long pointsDrawn;
+
+    /**
+     * The links projected and simplified for one zoom level, in world pixels. These are doubles: the
+     * world is 2^(zoom + 8) pixels wide, and a float would round them to several pixels past zoom 16.
+     */
+    private static class Level {
+        final int[] starts;
+        final double[] xs;
+        final double[] ys;
+        final double[] minX;
+        final double[] minY;
+        final double[] maxX;
+        final double[] maxY;
+
+        Level(int links, int points) {
+            this.starts = new int[links + 1];
+            this.xs = new double[points];
+            this.ys = new double[points];
+            this.minX = new double[links];
+            this.minY = new double[links];
+            this.maxX = new double[links];
+            this.maxY = new double[links];
+        }
+    }
+
+    public NetworkPolylines(CompactNetwork network) {
+        this.network = network;
+        addStyle(Color.YELLOW, 2.0);
+
+        // One link per edge, skipping an edge whose reverse is drawn already
+        int[] froms = new int[network.getEdgeCount()];
+        int[] edges = new int[network.getEdgeCount()];
+        int links = 0;
+        for (int from=0; from < network.getNodeCount(); from++) {
+            for (int e=network.getFirstEdge(from); e < network.getFirstEdge(from + 1); e++) {
+                int to = network.getTarget(e);
+                if ((to < from) && (network.findEdge(to, from) >= 0)) continue;
+                froms[links] = from;
+                edges[links++] = e;
+            }
+        }
+        this.linkFroms = Arrays.copyOf(froms, links);
+        this.linkEdges = Arrays.copyOf(edges, links);
+        this.linkStyles = new byte[links];
+
+        // Trace every link along its great circle, one point per degree of arc
+        this.traceStarts = new int[links + 1];
+        int points = 0;
+        for (int i=0; i < links; i++) {
+            traceStarts[i] = points;
+            points += tracePoints(i);
+        }
+        traceStarts[links] = points;
+        this.traceLats = new double[points];
+        this.traceLons = new double[points];
+        for (int i=0; i < links; i++) {
+            trace(i);
+        }
+    }
+
+    /** Adds a way of drawing links and returns its number; style 0, two-pixel yellow lines, is every link's to begin with */
+    public int addStyle(Paint stroke, double lineWidth) {
+        if (strokes.size() > Byte.MAX_VALUE) throw new IllegalStateException("Too many styles");
+        strokes.add(stroke);
+        lineWidths.add(lineWidth);
+        return strokes.size() - 1;
+    }
+
+    /** Draws the link between two nodes in a style */
+    public void setStyle(int from, int to, int style) {
+        if ((style < 0) || (style >= strokes.size())) throw new IllegalArgumentException("No style " + style);
+        int edge = network.findEdge(from, to);
+        int reverse = network.findEdge(to, from);
+        boolean found = false;
+        for (int i=0; i < linkEdges.length; i++) {
+            if ((linkEdges[i] == edge) || (linkEdges[i] == reverse)) {
+                linkStyles[i] = (byte)style;
+                found = true;
+            }
+        }
+        if (!found) throw new IllegalArgumentException("No link " + from + " - " + to);
+    }
+
+    public int getLinkCount() {
+        return linkEdges.length;
+    }
+
+    /**
+     * Draws the links that cross a view of width x height pixels whose top left corner is at world
+     * pixel (originX, originY) at a zoom level: a tile column times 256, as in TileKey.tileX
+     */
+    public void draw(GraphicsContext gc, int zoom, double originX, double originY, double width, double height) {
+        Level level = levels.get(zoom);
+        if (level == null) {
+            level = project(zoom);
+            levels.put(zoom, level);
+        }
+
+        int count = 0;
+        if (visible.length < linkEdges.length) visible = new int[linkEdges.length];
+        double left = originX;
+        double top = originY;
+        double right = originX + width;
+        double bottom = originY + height;
+        for (int i=0; i < linkEdges.length; i++) {
+            if ((level.maxX[i] < left) || (level.minX[i] > right) || (level.maxY[i] < top) || (level.minY[i] > bottom)) continue;
+            visible[count++] = i;
+        }
+        linksDrawn = count;
+
+        long points = 0;
+        for (int style=0; style < strokes.size(); style++) {
+            boolean any = false;
+            for (int v=0; v < count; v++) {
+                int i = visible[v];
+                if (linkStyles[i] != style) continue;
+                if (!any) {
+                    gc.beginPath();
+                    any = true;
+                }
+                int start = level.starts[i];
+                int end = level.starts[i + 1];
+                gc.moveTo(level.xs[start] - originX, level.ys[start] - originY);
+                for (int p=start + 1; p < end; p++) {
+                    gc.lineTo(level.xs[p] - originX, level.ys[p] - originY);
+                }
+                points += end - start;
+            }
+            if (any) {
+                gc.setStroke(strokes.get(style));
+                gc.setLineWidth(lineWidths.get(style));
+                gc.stroke();
+            }
+        }
+        pointsDrawn = points;
+    }
+
+    /** The same, for a view centered on lat, lon */
+    public void drawCenteredOn(GraphicsContext gc, double lat, double lon, int zoom, double width, double height) {
+        draw(gc, zoom, TileKey.tileX(lon, zoom) * TILE_SIZE - width / 2, TileKey.tileY(lat, zoom) * TILE_SIZE - height / 2, width, height);
+    }
+
+    /** How many times a zoom level has been projected; panning and repainting should leave it alone */
+    public long getProjections() {
+        return projections;
+    }
+
+    /** The links, and the points along them, stroked by the last draw */
+    public long getLinksDrawn() {
+        return linksDrawn;
+    }
+
+    public long getPointsDrawn() {
+        return pointsDrawn;
+    }
+
+    private int tracePoints(int link) {
+        int from = linkFroms[link];
+        int to = network.getTarget(linkEdges[link]);
+        double arc = Math.toDegrees(GreatCircle.distanceKm(network.getLat(from), network.getLon(from), network.getLat(to), network.getLon(to)) / GreatCircle.EARTH_RADIUS_KM);
+        return Math.max(2, (int)Math.ceil(arc / DEGREES_PER_POINT) + 1);
+    }
+
+    // Interpolates between unit vectors along the great circle, keeping longitude continuous
+    private void trace(int link) {
+        int from = linkFroms[link];
+        int to = network.getTarget(linkEdges[link]);
+        double lat1 = Math.toRadians(network.getLat(from));
+        double lon1 = Math.toRadians(network.getLon(from));
+        double lat2 = Math.toRadians(network.getLat(to));
+        double lon2 = Math.toRadians(network.getLon(to));
+        double x1 = Math.cos(lat1) * Math.cos(lon1), y1 = Math.cos(lat1) * Math.sin(lon1), z1 = Math.sin(lat1);
+        double x2 = Math.cos(lat2) * Math.cos(lon2), y2 = Math.cos(lat2) * Math.sin(lon2), z2 = Math.sin(lat2);
+        double angle = Math.acos(Math.max(-1.0, Math.min(1.0, x1 * x2 + y1 * y2 + z1 * z2)));
+
+        int start = traceStarts[link];
+        int n = traceStarts[link + 1] - start;
+        double previousLon = network.getLon(from);
+        for (int p=0; p < n; p++) {
+            double t = (double)p / (n - 1);
+            double a, b;
+            if (angle < 1e-9) {
+                a = 1.0 - t;
+                b = t;
+            } else {
+                a = Math.sin((1.0 - t) * angle) / Math.sin(angle);
+                b = Math.sin(t * angle) / Math.sin(angle);
+            }
+            double x = a * x1 + b * x2, y = a * y1 + b * y2, z = a * z1 + b * z2;
+            double lat = Math.toDegrees(Math.atan2(z, Math.sqrt(x * x + y * y)));
+            double lon = Math.toDegrees(Math.atan2(y, x));
+            lon += 360.0 * Math.rint((previousLon - lon) / 360.0);
+            traceLats[start + p] = lat;
+            traceLons[start + p] = lon;
+            previousLon = lon;
+        }
+    }
+
+    private Level project(int zoom) {
+        projections++;
+        int links = linkEdges.length;
+        double[] px = new double[traceLats.length];
+        double[] py = new double[traceLats.length];
+        boolean[] keep = new boolean[traceLats.length];
+        int kept = 0;
+        for (int i=0; i < links; i++) {
+            int start = traceStarts[i];
+            int end = traceStarts[i + 1];
+            for (int p=start; p < end; p++) {
+                px[p] = TileKey.tileX(traceLons[p], zoom) * TILE_SIZE;
+                py[p] = TileKey.tileY(traceLats[p], zoom) * TILE_SIZE;
+            }
+            keep[start] = true;
+            keep[end - 1] = true;
+            simplify(px, py, keep, start, end - 1);
+            for (int p=start; p < end; p++) {
+                if (keep[p]) kept++;
+            }
+        }
+
+        Level level = new Level(links, kept);
+        int out = 0;
+        for (int i=0; i < links; i++) {
+            level.starts[i] = out;
+            double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+            for (int p=traceStarts[i]; p < traceStarts[i + 1]; p++) {
+                if (!keep[p]) continue;
+                double x = px[p];
+                double y = py[p];
+                level.xs[out] = x;
+                level.ys[out] = y;
+                out++;
+                minX = Math.min(minX, x);
+                minY = Math.min(minY, y);
+                maxX = Math.max(maxX, x);
+                maxY = Math.max(maxY, y);
+            }
+            level.minX[i] = minX;
+            level.minY[i] = minY;
+            level.maxX[i] = maxX;
+            level.maxY[i] = maxY;
+        }
+        level.starts[links] = out;
+        return level;
+    }
+
+    // Douglas-Peucker between two kept points, with an explicit stack so long links cannot overflow it
+    private static void simplify(double[] px, double[] py, boolean[] keep, int first, int last) {
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = first;
+        stack[top++] = last;
+        while (top > 0) {
+            int b = stack[--top];
+            int a = stack[--top];
+            double dx = px[b] - px[a];
+            double dy = py[b] - py[a];
+            double length = Math.sqrt(dx * dx + dy * dy);
+            double farthest = 0.0;
+            int index = -1;
+            for (int p=a + 1; p < b; p++) {
+                double distance = (length == 0.0) ? Math.hypot(px[p] - px[a], py[p] - py[a]) : Math.abs(dy * (px[p] - px[a]) - dx * (py[p] - py[a])) / length;
+                if (distance > farthest) {
+                    farthest = distance;
+                    index = p;
+                }
+            }
+            if (farthest <= TOLERANCE_PIXELS) {
+                Arrays.fill(keep, a + 1, b, false);
+                continue;
+            }
+            keep[index] = true;
+            if (top + 4 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+            stack[top++] = a;
+            stack[top++] = index;
+            stack[top++] = index;
+            stack[top++] = b;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package org.baseagent.examples.worldmap;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.baseagent.foundations.CellChanges;
+import org.baseagent.foundations.CellSet;
+import org.baseagent.grid.GridLayer;
+
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+/**
+ * Draws a GridLayer spread over a latitude and longitude box, as WorldMapGridLayer does, from images
+ * rasterized once per slippy tile instead of projecting every cell corner on every draw. A tile is
+ * rendered the first time it is drawn at its zoom level: each pixel column and row is mapped back to
+ * a cell column and row once, and each pixel then costs a palette lookup, as in PaletteGridCanvas.
+ * Tiles are kept, least recently drawn first out, so panning over rendered tiles costs one image
+ * draw per tile whatever the number of cells.
+ *
+ * When cells change, give the pyramid a CellChanges the simulation marks; each draw takes the changes,
+ * sorts the changed cells into the tiles they cover at each zoom level kept, and re-renders only those
+ * tiles. Cells smaller than a pixel are sampled at the pixel's center. Call on the JavaFX thread; not
+ * thread safe. *
+ * The pyramid is opt-in: WorldMapDemoApp draws its minerals with GridOverlayRenderer. To use it,
+ * register a map layer renderer that passes the view's center and zoom to drawCenteredOn.
+ */
+public class OverlayTilePyramid {
+    private static final int TILE_SIZE = 256;
+
+    private final GridLayer layer;
+    private final int columns;
+    private final int rows;
+    private final double topLat;
+    private final double leftLon;
+    private final double bottomLat;
+    private final double rightLon;
+    private final Map<Object, Integer> palette = new HashMap<>();
+    private final int[] pixels = new int[TILE_SIZE * TILE_SIZE];
+    private final int[] columnOf = new int[TILE_SIZE];
+    private final int[] rowOf = new int[TILE_SIZE];
+    // Per zoom level, the tile column of each cell column's left edge (and the right edge of the last),
+    // and the tile row of each cell row's top edge (and the bottom edge of the last)
+    private final Map<Integer, int[][]> edges = new HashMap<>();
+    private int otherArgb = toArgb(Color.TRANSPARENT);
+    private int maxTiles = 256;
+    private CellChanges changes;
+    private long rendered;
+
+    private final Map<TileKey, Tile> tiles = new LinkedHashMap<TileKey, Tile>(64, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<TileKey, Tile> eldest) {
+            return size() > maxTiles;
+        }
+    };
+
+    private static class Tile {
+        final WritableImage image = new WritableImage(TILE_SIZE, TILE_SIZE);
+        boolean stale;
+    }
+
+    /** An overlay of columns x rows cells whose outer edges lie on the given latitudes and longitudes */
+    public OverlayTilePyramid(GridLayer layer, int columns, int rows, double topLat, double leftLon, double bottomLat, double rightLon) {
+        this.layer = layer;
+        this.columns = columns;
+        this.rows = rows;
+        this.topLat = topLat;
+        this.leftLon = leftLon;
+        this.bottomLat = bottomLat;
+        this.rightLon = rightLon;
+    }
+
+    /** Cells holding value are drawn in color; kept tiles are re-rendered */
+    public void setColor(Object value, Color color) {
+        palette.put(value, toArgb(color));
+        invalidateAll();
+    }
+
+    /** Cells holding a value not in the palette, or null, are drawn in color */
+    public void setOtherColor(Color color) {
+        otherArgb = toArgb(color);
+        invalidateAll();
+    }
+
+    /** How many rendered tiles to keep, at 256 KB each; 256 by default */
+    public void setMaxTiles(int maxTiles) {
+        this.maxTiles = maxTiles;
+        Iterator<TileKey> eldest = tiles.keySet().iterator();
+        while (tiles.size() > maxTiles) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /** The changes to take before each draw, from a CellChanges the size of the layer; null if the layer never changes */
+    public void setChanges(CellChanges changes) {
+        this.changes = changes;
+    }
+
+    /** Re-renders every kept tile when it is next drawn */
+    public void invalidateAll() {
+        for (Tile tile : tiles.values()) {
+            tile.stale = true;
+        }
+    }
+
+    /** Re-renders the kept tiles covering a cell when they are next drawn */
+    public void invalidate(int column, int row) {
+        for (Map.Entry<TileKey, Tile> entry : tiles.entrySet()) {
+            TileKey key = entry.getKey();
+            int[][] edge = edgesAt(key.getZ());
+            if ((key.getX() >= edge[0][column]) && (key.getX() <= edge[0][column + 1]) && (key.getY() >= edge[1][row]) && (key.getY() <= edge[1][row + 1])) entry.getValue().stale = true;
+        }
+    }
+
+    /**
+     * Draws the overlay on a view of width x height pixels whose top left corner is at world pixel
+     * (originX, originY) at a zoom level: a tile column times 256, as in TileKey.tileX
+     */
+    public void draw(GraphicsContext gc, int zoom, double originX, double originY, double width, double height) {
+        takeChanges();
+        int n = 1 << zoom;
+        int firstX = (int)Math.floor(Math.max(originX / TILE_SIZE, TileKey.tileX(leftLon, zoom)));
+        int lastX = (int)Math.floor(Math.min((originX + width) / TILE_SIZE, TileKey.tileX(rightLon, zoom)));
+        int firstY = (int)Math.floor(Math.max(originY / TILE_SIZE, TileKey.tileY(topLat, zoom)));
+        int lastY = (int)Math.floor(Math.min((originY + height) / TILE_SIZE, TileKey.tileY(bottomLat, zoom)));
+        gc.setImageSmoothing(false);
+        for (int y=Math.max(0, firstY); y <= Math.min(n - 1, lastY); y++) {
+            for (int x=firstX; x <= lastX; x++) {
+                TileKey key = new TileKey(zoom, x, y);
+                gc.drawImage(getTile(key), x * TILE_SIZE - originX, y * TILE_SIZE - originY);
+            }
+        }
+    }
+
+    /** The same, for a view centered on lat, lon */
+    public void drawCenteredOn(GraphicsContext gc, double lat, double lon, int zoom, double width, double height) {
+        draw(gc, zoom, TileKey.tileX(lon, zoom) * TILE_SIZE - width / 2, TileKey.tileY(lat, zoom) * TILE_SIZE - height / 2, width, height);
+    }
+
+    public int getTileCount() {
+        return tiles.size();
+    }
+
+    /** How many tiles have been rasterized; drawing tiles already rendered leaves it alone */
+    public long getTilesRendered() {
+        return rendered;
+    }
+
+    private void takeChanges() {
+        if (changes == null) return;
+        CellSet changed = changes.take();
+        if (changed == null) {
+            invalidateAll();
+            return;
+        }
+        if ((changed.size() == 0) || tiles.isEmpty()) return;
+
+        // Each changed cell is sorted into the tiles it covers once per zoom level kept, then each kept tile is looked up once
+        Map<Integer, Set<Long>> covered = new HashMap<>();
+        for (TileKey key : tiles.keySet()) {
+            covered.put(key.getZ(), null);
+        }
+        for (Map.Entry<Integer, Set<Long>> level : covered.entrySet()) {
+            int[][] edge = edgesAt(level.getKey());
+            Set<Long> keys = new HashSet<>();
+            // Changed cells come in index order, so neighbors mostly fall in the tile just added
+            long last = Long.MIN_VALUE;
+            for (int i=0; i < changed.size(); i++) {
+                int index = changed.getIndex(i);
+                int column = index % columns;
+                int row = index / columns;
+                for (int y=edge[1][row]; y <= edge[1][row + 1]; y++) {
+                    for (int x=edge[0][column]; x <= edge[0][column + 1]; x++) {
+                        long tile = tileIndex(x, y);
+                        if (tile != last) keys.add(tile);
+                        last = tile;
+                    }
+                }
+            }
+            level.setValue(keys);
+        }
+        for (Map.Entry<TileKey, Tile> entry : tiles.entrySet()) {
+            TileKey key = entry.getKey();
+            if (covered.get(key.getZ()).contains(tileIndex(key.getX(), key.getY()))) entry.getValue().stale = true;
+        }
+    }
+
+    private static long tileIndex(int x, int y) {
+        return ((long)x << 32) | (y & 0xffffffffL);
+    }
+
+    private int[][] edgesAt(int zoom) {
+        int[][] edge = edges.get(zoom);
+        if (edge == null) {
+            edge = new int[][] { new int[columns + 1], new int[rows + 1] };
+            for (int c=0; c <= columns; c++) {
+                edge[0][c] = (int)Math.floor(TileKey.tileX(lonOfColumn(c), zoom));
+            }
+            for (int r=0; r <= rows; r++) {
+                edge[1][r] = (int)Math.floor(TileKey.tileY(latOfRow(r), zoom));
+            }
+            edges.put(zoom, edge);
+        }
+        return edge;
+    }
+
+    private WritableImage getTile(TileKey key) {
+        Tile tile = tiles.get(key);
+        if (tile == null) {
+            tile = new Tile();
+            render(key, tile.image);
+            tiles.put(key, tile);
+        } else if (tile.stale) {
+            render(key, tile.image);
+        }
+        tile.stale = false;
+        return tile.image;
+    }
+
+    private void render(TileKey key, WritableImage image) {
+        rendered++;
+        int z = key.getZ();
+        // Cells are equal steps of latitude and longitude, so columns depend only on x and rows only on y
+        for (int p=0; p < TILE_SIZE; p++) {
+            double lon = TileKey.lonOf(key.getX() + (p + 0.5) / TILE_SIZE, z);
+            double lat = TileKey.latOf(key.getY() + (p + 0.5) / TILE_SIZE, z);
+            columnOf[p] = (int)Math.floor((lon - leftLon) / (rightLon - leftLon) * columns);
+            rowOf[p] = (int)Math.floor((topLat - lat) / (topLat - bottomLat) * rows);
+        }
+
+        int transparent = toArgb(Color.TRANSPARENT);
+        for (int y=0; y < TILE_SIZE; y++) {
+            int row = rowOf[y];
+            int offset = y * TILE_SIZE;
+            if ((row < 0) || (row >= rows)) {
+                Arrays.fill(pixels, offset, offset + TILE_SIZE, transparent);
+                continue;
+            }
+            int lastColumn = Integer.MIN_VALUE;
+            int lastArgb = transparent;
+            for (int x=0; x < TILE_SIZE; x++) {
+                int column = columnOf[x];
+                if (column != lastColumn) {
+                    lastColumn = column;
+                    if ((column < 0) || (column >= columns)) {
+                        lastArgb = transparent;
+                    } else {
+                        Object value = layer.get(column, row);
+                        Integer argb = (value != null) ? palette.get(value) : null;
+                        lastArgb = (argb != null) ? argb : otherArgb;
+                    }
+                }
+                pixels[offset + x] = lastArgb;
+            }
+        }
+        image.getPixelWriter().setPixels(0, 0, TILE_SIZE, TILE_SIZE, PixelFormat.getIntArgbInstance(), pixels, 0, TILE_SIZE);
+    }
+
+    private double lonOfColumn(int column) {
+        return leftLon + (rightLon - leftLon) * column / columns;
+    }
+
+    private double latOfRow(int row) {
+        return topLat - (topLat - bottomLat) * row / rows;
+    }
+
+    private static int toArgb(Color color) {
+        return ((int)Math.round(color.getOpacity() * 255) << 24)
+            | ((int)Math.round(color.getRed() * 255) << 16)
+            | ((int)Math.round(color.getGreen() * 255) << 8)
+            | (int)Math.round(color.getBlue() * 255);
+    }
+}
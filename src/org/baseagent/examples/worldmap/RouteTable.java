@@ -0,0 +1,112 @@
+package org.baseagent.examples.worldmap;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches shortest path trees over a CompactNetwork, one per source node, so that any number of
+ * agents leaving the same places are routed from one search per source. Up to a fixed number of
+ * trees are kept, least recently used first out.
+ *
+ * When an edge weight changes, only the trees the change can affect are dropped: for a heavier or
+ * closed edge, the trees that route through it; for a lighter one, the trees in which it now offers
+ * a shorter way to its target. Every other tree is still exact and stays. Dropped trees are rebuilt
+ * on the next query from their source.
+ */
+public class RouteTable implements CompactNetwork.EdgeListener {
+    private final CompactNetwork network;
+    private final Router router;
+    private final int maxTrees;
+    private final LinkedHashMap<Integer, Tree> trees = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long hits;
+    private long searches;
+    private long invalidated;
+
+    private static class Tree {
+        final double[] distance;
+        final int[] previous;
+
+        Tree(int nodes) {
+            this.distance = new double[nodes];
+            this.previous = new int[nodes];
+        }
+    }
+
+    /** A table keeping the trees of up to maxTrees sources, which listens to the network for edge changes */
+    public RouteTable(CompactNetwork network, int maxTrees) {
+        this.network = network;
+        this.router = new Router(network);
+        this.maxTrees = Math.max(1, maxTrees);
+        network.addEdgeListener(this);
+    }
+
+    /** The nodes on a shortest route from source to target, both included, or null if there is none */
+    public int[] route(int source, int target) {
+        return Router.route(tree(source).previous, source, target);
+    }
+
+    /** The length of a shortest route from source to target; infinity if there is none */
+    public double distance(int source, int target) {
+        return tree(source).distance[target];
+    }
+
+    private Tree tree(int source) {
+        Tree tree = trees.get(source);
+        if (tree != null) {
+            hits++;
+            return tree;
+        }
+        searches++;
+        tree = new Tree(network.getNodeCount());
+        router.shortestPathTree(source, tree.distance, tree.previous);
+        trees.put(source, tree);
+        if (trees.size() > maxTrees) {
+            Iterator<Integer> eldest = trees.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+        return tree;
+    }
+
+    @Override
+    public void edgeChanged(int from, int to, double oldWeight, double newWeight) {
+        for (Iterator<Map.Entry<Integer, Tree>> i = trees.entrySet().iterator(); i.hasNext(); ) {
+            Tree tree = i.next().getValue();
+            boolean affected;
+            if (newWeight > oldWeight) {
+                // Only routes through the edge get longer
+                affected = (tree.previous[to] == from);
+            } else {
+                // The edge may now be a shortcut to its target, and so to everything beyond
+                affected = (tree.distance[from] + newWeight < tree.distance[to]);
+            }
+            if (affected) {
+                i.remove();
+                invalidated++;
+            }
+        }
+    }
+
+    /** Stops listening to the network and forgets every tree */
+    public void close() {
+        network.removeEdgeListener(this);
+        trees.clear();
+    }
+
+    /** Queries answered from a cached tree */
+    public long getHits() {
+        return hits;
+    }
+
+    /** Shortest path trees computed */
+    public long getSearches() {
+        return searches;
+    }
+
+    /** Trees dropped because an edge change could affect them */
+    public long getInvalidated() {
+        return invalidated;
+    }
+}
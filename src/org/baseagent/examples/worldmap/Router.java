@@ -0,0 +1,170 @@
+package org.baseagent.examples.worldmap;
+
+import java.util.Arrays;
+
+/**
+ * Shortest paths over a CompactNetwork, by Dijkstra's algorithm or by A* with a great-circle
+ * heuristic. The per-node arrays are allocated once and reset lazily with a search stamp, so a
+ * query costs only the nodes it reaches, however large the network. A Router is not thread safe;
+ * give each thread its own.
+ *
+ * A* is exact as long as no edge weighs less than the great-circle distance between its ends in
+ * kilometers, which holds for the default weights and for any weight raised from them.
+ */
+public class Router {
+    private final CompactNetwork network;
+    private final double[] distance;
+    private final int[] previous;
+    private final int[] reachedIn;
+    private final boolean[] settled;
+    private int search;
+    private int settledCount;
+
+    // A binary min-heap of (key, node), with stale entries skipped as they come off
+    private double[] heapKeys = new double[64];
+    private int[] heapNodes = new int[64];
+    private int heapSize;
+
+    public Router(CompactNetwork network) {
+        this.network = network;
+        int nodes = network.getNodeCount();
+        this.distance = new double[nodes];
+        this.previous = new int[nodes];
+        this.reachedIn = new int[nodes];
+        this.settled = new boolean[nodes];
+    }
+
+    /** The nodes on a shortest route from source to target, both included, or null if there is none */
+    public int[] dijkstra(int source, int target) {
+        search(source, target, false);
+        return routeTo(source, target);
+    }
+
+    /** The same route as {@link #dijkstra}, found by settling fewer nodes */
+    public int[] aStar(int source, int target) {
+        search(source, target, true);
+        return routeTo(source, target);
+    }
+
+    /**
+     * Fills distances and previous with the shortest path tree from source: the distance to every
+     * node (infinity if unreachable) and the node before it on its route (-1 for the source and
+     * unreachable nodes).
+     */
+    public void shortestPathTree(int source, double[] distances, int[] previousNodes) {
+        search(source, -1, false);
+        for (int i=0; i < distances.length; i++) {
+            boolean reached = (reachedIn[i] == search);
+            distances[i] = reached ? distance[i] : Double.POSITIVE_INFINITY;
+            previousNodes[i] = reached ? previous[i] : -1;
+        }
+    }
+
+    /** Nodes settled by the last search */
+    public int getSettledCount() {
+        return settledCount;
+    }
+
+    /** The route from source to target through a tree of previous nodes, or null if target is unreachable */
+    public static int[] route(int[] previousNodes, int source, int target) {
+        int length = 1;
+        for (int node=target; node != source; node=previousNodes[node]) {
+            if (previousNodes[node] < 0) return null;
+            length++;
+        }
+        int[] route = new int[length];
+        int node = target;
+        for (int i=length - 1; i >= 0; i--) {
+            route[i] = node;
+            node = (i > 0) ? previousNodes[node] : node;
+        }
+        return route;
+    }
+
+    private void search(int source, int target, boolean heuristic) {
+        if (++search == 0) {
+            // The stamp wrapped around; start the stamps over
+            Arrays.fill(reachedIn, 0);
+            search = 1;
+        }
+        settledCount = 0;
+        heapSize = 0;
+        reach(source, 0.0, -1);
+        push(source, estimate(source, target, heuristic));
+
+        while (heapSize > 0) {
+            int node = heapNodes[0];
+            double key = heapKeys[0];
+            pop();
+            if (settled[node] || (key > distance[node] + estimate(node, target, heuristic))) continue;
+            settled[node] = true;
+            settledCount++;
+            if (node == target) return;
+
+            for (int e=network.getFirstEdge(node), end=network.getFirstEdge(node + 1); e < end; e++) {
+                double weight = network.getWeight(e);
+                if (weight == Double.POSITIVE_INFINITY) continue;
+                int next = network.getTarget(e);
+                double candidate = distance[node] + weight;
+                if ((reachedIn[next] != search) || (candidate < distance[next])) {
+                    reach(next, candidate, node);
+                    push(next, candidate + estimate(next, target, heuristic));
+                }
+            }
+        }
+    }
+
+    private void reach(int node, double nodeDistance, int from) {
+        if (reachedIn[node] != search) {
+            reachedIn[node] = search;
+            settled[node] = false;
+        }
+        distance[node] = nodeDistance;
+        previous[node] = from;
+    }
+
+    private double estimate(int node, int target, boolean heuristic) {
+        if (!heuristic || (target < 0)) return 0.0;
+        return GreatCircle.distanceKm(network.getLat(node), network.getLon(node), network.getLat(target), network.getLon(target));
+    }
+
+    private int[] routeTo(int source, int target) {
+        if ((reachedIn[target] != search) || !settled[target]) return null;
+        return route(previous, source, target);
+    }
+
+    private void push(int node, double key) {
+        if (heapSize == heapKeys.length) {
+            heapKeys = Arrays.copyOf(heapKeys, heapSize * 2);
+            heapNodes = Arrays.copyOf(heapNodes, heapSize * 2);
+        }
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heapKeys[parent] <= key) break;
+            heapKeys[i] = heapKeys[parent];
+            heapNodes[i] = heapNodes[parent];
+            i = parent;
+        }
+        heapKeys[i] = key;
+        heapNodes[i] = node;
+    }
+
+    private void pop() {
+        heapSize--;
+        double key = heapKeys[heapSize];
+        int node = heapNodes[heapSize];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) break;
+            if ((child + 1 < heapSize) && (heapKeys[child + 1] < heapKeys[child])) child++;
+            if (heapKeys[child] >= key) break;
+            heapKeys[i] = heapKeys[child];
+            heapNodes[i] = heapNodes[child];
+            i = child;
+        }
+        heapKeys[i] = key;
+        heapNodes[i] = node;
+    }
+}
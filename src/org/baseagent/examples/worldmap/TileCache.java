@@ -0,0 +1,259 @@
+package org.baseagent.examples.worldmap;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import javafx.scene.image.Image;
+
+/**
+ * A two-tier tile cache. Decoded images are kept in memory, least recently used first out, within a
+ * byte budget; encoded tiles are kept on disk under directory/z/x/y.tile, also within a byte budget
+ * and also evicted least recently used first. The disk tier survives restarts, so a view seen before
+ * is served without touching the network.
+ *
+ * A miss in both tiers goes to the local source (a tile directory, say) and then to the remote
+ * source. In offline mode the remote source is never asked, and a tile found nowhere else is
+ * simply missing. All methods may be called from any thread, such as a map's tile loaders.
+ */
+public class TileCache implements TileSource {
+    private static final String SUFFIX = ".tile";
+
+    private final Path directory;
+    private final long diskBudget;
+    private final long memoryBudget;
+    private final TileSource remote;
+    private TileSource local;
+    private volatile boolean offline;
+
+    // Both maps are in access order, so the first entry is the least recently used
+    private final LinkedHashMap<TileKey, Image> memory = new LinkedHashMap<>(256, 0.75f, true);
+    private final LinkedHashMap<TileKey, Long> disk = new LinkedHashMap<>(1024, 0.75f, true);
+    private long memoryBytes;
+    private long diskBytes;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong fetches = new AtomicLong();
+    private final AtomicLong bytesFetched = new AtomicLong();
+
+    /**
+     * A cache keeping up to diskBudget bytes of tiles in directory and memoryBudget bytes of decoded
+     * images, fetching misses from remote, which may be null. Tiles already in directory are indexed,
+     * oldest first, and trimmed to the budget.
+     */
+    public TileCache(Path directory, long diskBudget, long memoryBudget, TileSource remote) throws IOException {
+        this.directory = directory;
+        this.diskBudget = diskBudget;
+        this.memoryBudget = memoryBudget;
+        this.remote = remote;
+        Files.createDirectories(directory);
+        loadIndex();
+    }
+
+    /** A source asked before the remote one, and the only one asked when offline */
+    public void setLocalSource(TileSource local) {
+        this.local = local;
+    }
+
+    /** When offline, tiles come only from memory, disk and the local source */
+    public void setOffline(boolean offline) {
+        this.offline = offline;
+    }
+
+    public boolean isOffline() {
+        return offline;
+    }
+
+    /** The decoded tile, or null if no tier or source has it */
+    public Image getImage(TileKey key) throws IOException {
+        synchronized (memory) {
+            Image image = memory.get(key);
+            if (image != null) {
+                memoryHits.incrementAndGet();
+                return image;
+            }
+        }
+        byte[] bytes = fetch(key);
+        if (bytes == null) return null;
+        Image image = new Image(new ByteArrayInputStream(bytes));
+        if (image.isError()) return null;
+        remember(key, image);
+        return image;
+    }
+
+    /** The encoded tile from disk or, failing that, from the sources, which is then stored on disk */
+    @Override
+    public byte[] fetch(TileKey key) throws IOException {
+        byte[] bytes = readDisk(key);
+        if (bytes != null) {
+            diskHits.incrementAndGet();
+            return bytes;
+        }
+        if (local != null) bytes = local.fetch(key);
+        if ((bytes == null) && !offline && (remote != null)) {
+            bytes = remote.fetch(key);
+            if (bytes != null) {
+                fetches.incrementAndGet();
+                bytesFetched.addAndGet(bytes.length);
+            }
+        }
+        if (bytes != null) writeDisk(key, bytes);
+        return bytes;
+    }
+
+    /** Whether the tile can be served without asking any source */
+    public boolean contains(TileKey key) {
+        synchronized (memory) {
+            if (memory.containsKey(key)) return true;
+        }
+        synchronized (disk) {
+            return disk.containsKey(key);
+        }
+    }
+
+    private void remember(TileKey key, Image image) {
+        long bytes = (long)image.getWidth() * (long)image.getHeight() * 4L;
+        synchronized (memory) {
+            Image previous = memory.put(key, image);
+            if (previous != null) memoryBytes -= (long)previous.getWidth() * (long)previous.getHeight() * 4L;
+            memoryBytes += bytes;
+            Iterator<Map.Entry<TileKey, Image>> eldest = memory.entrySet().iterator();
+            while ((memoryBytes > memoryBudget) && eldest.hasNext()) {
+                Image evicted = eldest.next().getValue();
+                memoryBytes -= (long)evicted.getWidth() * (long)evicted.getHeight() * 4L;
+                eldest.remove();
+            }
+        }
+    }
+
+    private byte[] readDisk(TileKey key) throws IOException {
+        synchronized (disk) {
+            if (disk.get(key) == null) return null;
+        }
+        Path file = fileOf(key);
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            // The modification time is the access time, so the order survives a restart
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return bytes;
+        } catch (NoSuchFileException e) {
+            // Evicted by another thread since the index was checked
+            return null;
+        }
+    }
+
+    private void writeDisk(TileKey key, byte[] bytes) throws IOException {
+        if (bytes.length > diskBudget) return;
+        Path file = fileOf(key);
+        Files.createDirectories(file.getParent());
+        Path temp = Files.createTempFile(file.getParent(), key.getY() + "-", ".part");
+        Files.write(temp, bytes);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        List<TileKey> evicted = new ArrayList<>();
+        synchronized (disk) {
+            Long previous = disk.put(key, (long)bytes.length);
+            if (previous != null) diskBytes -= previous;
+            diskBytes += bytes.length;
+            Iterator<Map.Entry<TileKey, Long>> eldest = disk.entrySet().iterator();
+            while ((diskBytes > diskBudget) && eldest.hasNext()) {
+                Map.Entry<TileKey, Long> entry = eldest.next();
+                diskBytes -= entry.getValue();
+                evicted.add(entry.getKey());
+                eldest.remove();
+            }
+        }
+        for (TileKey old : evicted) {
+            Files.deleteIfExists(fileOf(old));
+        }
+    }
+
+    private void loadIndex() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(directory, 3)) {
+            walk.filter(p -> p.getFileName().toString().endsWith(SUFFIX) && Files.isRegularFile(p)).forEach(files::add);
+        }
+        files.sort((a, b) -> lastModified(a).compareTo(lastModified(b)));
+        for (Path file : files) {
+            TileKey key = keyOf(file);
+            if (key == null) continue;
+            long size = Files.size(file);
+            disk.put(key, size);
+            diskBytes += size;
+        }
+        Iterator<Map.Entry<TileKey, Long>> eldest = disk.entrySet().iterator();
+        while ((diskBytes > diskBudget) && eldest.hasNext()) {
+            Map.Entry<TileKey, Long> entry = eldest.next();
+            diskBytes -= entry.getValue();
+            Files.deleteIfExists(fileOf(entry.getKey()));
+            eldest.remove();
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path fileOf(TileKey key) {
+        return directory.resolve(Integer.toString(key.getZ())).resolve(Integer.toString(key.getX())).resolve(key.getY() + SUFFIX);
+    }
+
+    private TileKey keyOf(Path file) {
+        try {
+            Path relative = directory.relativize(file);
+            if (relative.getNameCount() != 3) return null;
+            String name = relative.getFileName().toString();
+            return new TileKey(Integer.parseInt(relative.getName(0).toString()), Integer.parseInt(relative.getName(1).toString()), Integer.parseInt(name.substring(0, name.length() - SUFFIX.length())));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public long getMemoryBytes() {
+        synchronized (memory) {
+            return memoryBytes;
+        }
+    }
+
+    public long getDiskBytes() {
+        synchronized (disk) {
+            return diskBytes;
+        }
+    }
+
+    /** Tiles served from decoded images in memory */
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    /** Tiles served from the disk tier */
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    /** Tiles fetched from the remote source, and the bytes they took */
+    public long getFetches() {
+        return fetches.get();
+    }
+
+    public long getBytesFetched() {
+        return bytesFetched.get();
+    }
+}
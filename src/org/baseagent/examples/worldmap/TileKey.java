@@ -0,0 +1,82 @@
+package org.baseagent.examples.worldmap;
+
+/**
+ * The address of one slippy-map tile: zoom level z, column x and row y, in the Web Mercator tiling
+ * used by Esri World Imagery and OpenStreetMap.
+ */
+public final class TileKey {
+    private final int z;
+    private final int x;
+    private final int y;
+
+    public TileKey(int z, int x, int y) {
+        this.z = z;
+        this.x = x;
+        this.y = y;
+    }
+
+    /** The tile containing a latitude and longitude at a zoom level */
+    public static TileKey at(double lat, double lon, int z) {
+        int n = 1 << z;
+        return new TileKey(z, clamp((int)Math.floor(tileX(lon, z)), n), clamp((int)Math.floor(tileY(lat, z)), n));
+    }
+
+    /** The fractional tile column of a longitude at a zoom level */
+    public static double tileX(double lon, int z) {
+        return (lon + 180.0) / 360.0 * (1 << z);
+    }
+
+    /** The fractional tile row of a latitude at a zoom level */
+    public static double tileY(double lat, int z) {
+        double latRad = Math.toRadians(Math.max(-85.05112878, Math.min(85.05112878, lat)));
+        return (1.0 - Math.log(Math.tan(latRad) + 1.0 / Math.cos(latRad)) / Math.PI) / 2.0 * (1 << z);
+    }
+
+    /** The longitude of a fractional tile column at a zoom level */
+    public static double lonOf(double tileX, int z) {
+        return tileX / (1 << z) * 360.0 - 180.0;
+    }
+
+    /** The latitude of a fractional tile row at a zoom level */
+    public static double latOf(double tileY, int z) {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1.0 - 2.0 * tileY / (1 << z)))));
+    }
+
+    private static int clamp(int i, int n) {
+        return Math.max(0, Math.min(n - 1, i));
+    }
+
+    public int getZ() {
+        return z;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    /** Whether the tile exists: x and y within the 2^z by 2^z tiles of its zoom level */
+    public boolean isValid() {
+        return (z >= 0) && (z < 31) && (x >= 0) && (y >= 0) && (x < (1 << z)) && (y < (1 << z));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof TileKey)) return false;
+        TileKey other = (TileKey)o;
+        return (z == other.z) && (x == other.x) && (y == other.y);
+    }
+
+    @Override
+    public int hashCode() {
+        return (z * 31 + x) * 31 + y;
+    }
+
+    @Override
+    public String toString() {
+        return z + "/" + x + "/" + y;
+    }
+}
@@ -0,0 +1,248 @@
+package org.baseagent.examples.worldmap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which tiles to load, and in what order, as a map view pans and zooms. Each time the
+ * viewport changes, the wanted tiles are worked out afresh: the visible ones, nearest the center
+ * first; then a ring around them, reaching further ahead in the direction the view is moving; then
+ * the visible area at the zoom levels above and below. Queued requests for tiles no longer wanted
+ * are dropped, and the rest are reordered, so loader threads never spend time on tiles that have
+ * scrolled away.
+ *
+ * Loaded tiles go to a listener on a loader thread. Pass a TileCache as the source to keep them.
+ */
+public class TileScheduler {
+    /** Receives each tile as it is loaded, on a loader thread */
+    public interface TileListener {
+        void tileLoaded(TileKey key, byte[] bytes);
+    }
+
+    private static final int TILE_SIZE = 256;
+    private static final int REMEMBERED = 4096;
+
+    private final TileSource source;
+    private final TileListener listener;
+    private final List<Thread> loaders = new ArrayList<>();
+    private final PriorityBlockingQueue<Request> queue = new PriorityBlockingQueue<>();
+    private boolean prefetch = true;
+    private double lookaheadSeconds = 0.5;
+
+    // Guarded by this
+    private final Map<TileKey, Request> queued = new HashMap<>();
+    private final Set<TileKey> inFlight = new HashSet<>();
+    private final Map<TileKey, Boolean> loaded = new LinkedHashMap<TileKey, Boolean>(REMEMBERED, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<TileKey, Boolean> eldest) {
+            return size() > REMEMBERED;
+        }
+    };
+    private Set<TileKey> visible = new HashSet<>();
+    private long viewportSetAt;
+    private long sequence;
+    private double lastCenterX = Double.NaN;
+    private double lastCenterY;
+    private int lastZoom;
+    private long lastMoveAt;
+    private double velocityX;
+    private double velocityY;
+
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong bytesLoaded = new AtomicLong();
+    private volatile long lastTimeToFullViewport = -1;
+
+    private static class Request implements Comparable<Request> {
+        final TileKey key;
+        final double priority;
+        final long sequence;
+
+        Request(TileKey key, double priority, long sequence) {
+            this.key = key;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Request other) {
+            int byPriority = Double.compare(priority, other.priority);
+            return (byPriority != 0) ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    public TileScheduler(TileSource source, int threads, TileListener listener) {
+        this.source = source;
+        this.listener = listener;
+        for (int i=0; i < threads; i++) {
+            Thread loader = new Thread(this::load, "tile-loader-" + i);
+            loader.setDaemon(true);
+            loaders.add(loader);
+            loader.start();
+        }
+    }
+
+    /** Whether to fetch beyond the visible tiles; on by default */
+    public void setPrefetch(boolean prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    /** How far ahead, in seconds of the current pan, the prefetch ring reaches */
+    public void setLookaheadSeconds(double lookaheadSeconds) {
+        this.lookaheadSeconds = lookaheadSeconds;
+    }
+
+    /** The view is now centered on lat, lon at a zoom level, and is width x height pixels */
+    public void setViewport(double lat, double lon, int zoom, double width, double height) {
+        setViewportTiles(TileKey.tileX(lon, zoom), TileKey.tileY(lat, zoom), zoom, width / TILE_SIZE, height / TILE_SIZE);
+    }
+
+    /** The view is now centered on a fractional tile position, and is widthInTiles x heightInTiles */
+    public synchronized void setViewportTiles(double centerX, double centerY, int zoom, double widthInTiles, double heightInTiles) {
+        long now = System.nanoTime();
+        if ((zoom == lastZoom) && !Double.isNaN(lastCenterX) && (now > lastMoveAt)) {
+            double seconds = (now - lastMoveAt) / 1e9;
+            // Smooth the velocity a little, since viewport updates arrive unevenly
+            velocityX = 0.5 * velocityX + 0.5 * (centerX - lastCenterX) / seconds;
+            velocityY = 0.5 * velocityY + 0.5 * (centerY - lastCenterY) / seconds;
+        } else {
+            velocityX = 0.0;
+            velocityY = 0.0;
+        }
+        lastCenterX = centerX;
+        lastCenterY = centerY;
+        lastZoom = zoom;
+        lastMoveAt = now;
+
+        Map<TileKey, Double> wanted = new HashMap<>();
+        Set<TileKey> nowVisible = new HashSet<>();
+        addArea(wanted, nowVisible, zoom, centerX, centerY, widthInTiles / 2, heightInTiles / 2, 0.0);
+        if (prefetch) {
+            double aheadX = velocityX * lookaheadSeconds;
+            double aheadY = velocityY * lookaheadSeconds;
+            // The ring around the view, stretched toward where the view is heading
+            addArea(wanted, null, zoom, centerX + aheadX / 2, centerY + aheadY / 2, widthInTiles / 2 + 1 + Math.abs(aheadX) / 2, heightInTiles / 2 + 1 + Math.abs(aheadY) / 2, 1000.0);
+            if (zoom > 0) addArea(wanted, null, zoom - 1, centerX / 2, centerY / 2, widthInTiles / 4, heightInTiles / 4, 2000.0);
+            addArea(wanted, null, zoom + 1, centerX * 2, centerY * 2, widthInTiles, heightInTiles, 3000.0);
+        }
+
+        // Drop what is no longer wanted, then queue the rest in their new order
+        for (Request request : queued.values()) {
+            if (!wanted.containsKey(request.key)) cancelled.incrementAndGet();
+        }
+        queue.clear();
+        queued.clear();
+        for (Map.Entry<TileKey, Double> entry : wanted.entrySet()) {
+            TileKey key = entry.getKey();
+            if (loaded.containsKey(key) || inFlight.contains(key)) continue;
+            Request request = new Request(key, entry.getValue(), sequence++);
+            queued.put(key, request);
+            queue.add(request);
+        }
+
+        visible = nowVisible;
+        viewportSetAt = now;
+        lastTimeToFullViewport = -1;
+        checkFull(now);
+    }
+
+    // Adds the tiles within halfWidth x halfHeight of a center, prioritized by distance plus base
+    private static void addArea(Map<TileKey, Double> wanted, Set<TileKey> visible, int zoom, double centerX, double centerY, double halfWidth, double halfHeight, double base) {
+        int n = 1 << zoom;
+        int fromX = (int)Math.floor(centerX - halfWidth);
+        int toX = (int)Math.floor(centerX + halfWidth);
+        int fromY = Math.max(0, (int)Math.floor(centerY - halfHeight));
+        int toY = Math.min(n - 1, (int)Math.floor(centerY + halfHeight));
+        for (int y=fromY; y <= toY; y++) {
+            for (int x=fromX; x <= toX; x++) {
+                // Columns wrap around the antimeridian
+                TileKey key = new TileKey(zoom, Math.floorMod(x, n), y);
+                double dx = x + 0.5 - centerX;
+                double dy = y + 0.5 - centerY;
+                double priority = base + Math.sqrt(dx * dx + dy * dy);
+                Double existing = wanted.get(key);
+                if ((existing == null) || (priority < existing)) wanted.put(key, priority);
+                if (visible != null) visible.add(key);
+            }
+        }
+    }
+
+    private void load() {
+        while (true) {
+            Request request;
+            try {
+                request = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            synchronized (this) {
+                // A viewport change may have dropped or requeued the tile since it was taken
+                if (queued.get(request.key) != request) continue;
+                queued.remove(request.key);
+                inFlight.add(request.key);
+            }
+            byte[] bytes = null;
+            try {
+                requested.incrementAndGet();
+                bytes = source.fetch(request.key);
+            } catch (IOException e) {
+                // Left unloaded; the next viewport change asks for it again
+            }
+            synchronized (this) {
+                inFlight.remove(request.key);
+                if (bytes != null) loaded.put(request.key, Boolean.TRUE);
+            }
+            if (bytes != null) {
+                bytesLoaded.addAndGet(bytes.length);
+                listener.tileLoaded(request.key, bytes);
+                synchronized (this) {
+                    checkFull(System.nanoTime());
+                }
+            }
+        }
+    }
+
+    private void checkFull(long now) {
+        if (lastTimeToFullViewport >= 0) return;
+        for (TileKey key : visible) {
+            if (!loaded.containsKey(key)) return;
+        }
+        lastTimeToFullViewport = now - viewportSetAt;
+    }
+
+    /** Nanoseconds from the last viewport change until every visible tile had loaded, or -1 while some are missing */
+    public long getLastTimeToFullViewport() {
+        return lastTimeToFullViewport;
+    }
+
+    /** Tiles asked of the source so far */
+    public long getRequested() {
+        return requested.get();
+    }
+
+    /** Queued tiles dropped because the view moved away before they were asked for */
+    public long getCancelled() {
+        return cancelled.get();
+    }
+
+    public long getBytesLoaded() {
+        return bytesLoaded.get();
+    }
+
+    /** Stops the loader threads; tiles being loaded are finished and delivered */
+    public void shutdown() {
+        for (Thread loader : loaders) {
+            loader.interrupt();
+        }
+    }
+}
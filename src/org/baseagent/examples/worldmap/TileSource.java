@@ -0,0 +1,9 @@
+package org.baseagent.examples.worldmap;
+
+import java.io.IOException;
+
+/** Somewhere tiles come from: a tile server, a local directory, a cache */
+public interface TileSource {
+    /** The encoded image (PNG or JPEG) of a tile, or null if this source does not have it */
+    byte[] fetch(TileKey key) throws IOException;
+}
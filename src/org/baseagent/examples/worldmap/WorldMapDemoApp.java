@@ -1,6 +1,6 @@
 package org.baseagent.examples.worldmap;
 
-import org.baseagent.behaviors.map.MoveBehavior;
+import org.baseagent.Agent;
 import org.baseagent.grid.Grid;
 import org.baseagent.grid.GridLayer;
 import org.baseagent.grid.ui.GridOverlayRenderer;
@@ -81,21 +81,31 @@ public class WorldMapDemoApp extends Application {
         a2.setColor(Color.ORANGE);
         simulation.add(a2);
 
-        // Replace the previous AnimationTimer with Behavior-driven movement.
-        // Create MoveBehaviors and attach to agents so movement happens during simulation.step()
-        MoveBehavior mb1 = new MoveBehavior(0.2); // degrees per step
-        mb1.addWaypoint(0.0, -160.0);
-        mb1.addWaypoint(0.0, -155.0);
-        mb1.setLoop(true);
-        a1.addBehavior(mb1);
-
-        MoveBehavior mb2 = new MoveBehavior(0.05);
-        mb2.addWaypoint(-5.0, -155.0);
-        mb2.addWaypoint(0.0, -155.0);
-        mb2.setLoop(true);
-        a2.addBehavior(mb2);
-
-        // Start the simulation Ã¢â‚¬â€� Simulation will call each Agent.step(), which executes behaviors
+        // Movement happens during simulation.step(): one FleetMover advances every agent along its
+        // waypoint path in a single loop, rather than a MoveBehavior per agent
+        FleetMover fleet = new FleetMover();
+        int path1 = fleet.addPath(new double[] {0.0, 0.0}, new double[] {-160.0, -155.0}, true);
+        int mover1 = fleet.addMover(path1, 0.2, a1); // degrees per step
+
+        int path2 = fleet.addPath(new double[] {-5.0, 0.0}, new double[] {-155.0, -155.0}, true);
+        fleet.addMover(path2, 0.05, a2);
+
+        // The fleet keeps a quadtree of its agents in sync as it moves them, so proximity queries
+        // only look at the agents in nearby nodes
+        GeoQuadtree<WorldMapAgent> index = new GeoQuadtree<>();
+        fleet.setIndex(index);
+        simulation.add(fleet);
+
+        // After each move, show the second agent in red while it is within 200 km of the first
+        simulation.add(new Agent() {
+            @Override
+            public void step(Simulation simulation) {
+                boolean near = index.within(fleet.getLat(mover1), fleet.getLon(mover1), 200.0).contains(a2);
+                a2.setColor(near ? Color.RED : Color.ORANGE);
+            }
+        });
+
+        // Start the simulation - each step the FleetMover moves every agent along its path, then the proximity check runs
         simulation.setDelayAfterEachStep(40); // small pause so movement is visible
         simulation.start();
 
@@ -23,6 +23,15 @@ import javafx.scene.paint.Color;
  * A PathAgent cycles between the three nodes and can be visualized moving on the map.
  */
 public class WorldMapNetworkExampleApp extends Application {
+    // The places, by node number in both the Network and the CompactNetwork, and the links between them
+    private static final int LONDON = 0;
+    private static final int PARIS = 1;
+    private static final int NEW_YORK = 2;
+    private static final double[] LATS = {51.5074, 48.8566, 40.7128};
+    private static final double[] LONS = {-0.1278, 2.3522, -74.0060};
+    private static final int[][] LINKS = {{LONDON, PARIS}, {PARIS, NEW_YORK}, {NEW_YORK, LONDON}};
+    private static final String[] LINK_NAMES = {"lon-par", "par-ny", "ny-lon"};
+
     private WorldMapCanvas mapCanvas;
     private Simulation simulation;
 
@@ -48,15 +57,15 @@ public class WorldMapNetworkExampleApp extends Application {
         Network<WorldMapAgent, Object> network = new Network<>();
 
         WorldMapAgent london = new WorldMapAgent();
-        london.setLatLon(51.5074, -0.1278);
+        london.setLatLon(LATS[LONDON], LONS[LONDON]);
         london.setColor(Color.DARKGREEN);
 
         WorldMapAgent paris = new WorldMapAgent();
-        paris.setLatLon(48.8566, 2.3522);
+        paris.setLatLon(LATS[PARIS], LONS[PARIS]);
         paris.setColor(Color.DARKBLUE);
 
         WorldMapAgent newyork = new WorldMapAgent();
-        newyork.setLatLon(40.7128, -74.0060);
+        newyork.setLatLon(LATS[NEW_YORK], LONS[NEW_YORK]);
         newyork.setColor(Color.DARKRED);
 
         // Add agents both to the simulation (drawn on map) and to the network
@@ -64,26 +73,36 @@ public class WorldMapNetworkExampleApp extends Application {
         simulation.add(paris);
         simulation.add(newyork);
 
-        network.addNode(london);
-        network.addNode(paris);
-        network.addNode(newyork);
+        WorldMapAgent[] places = {london, paris, newyork};
+        for (WorldMapAgent place : places) {
+            network.addNode(place);
+        }
 
         // Connect nodes (undirected visual links — we add both directions for visibility)
-        Edge<WorldMapAgent, Object> e1 = new Edge<>("lon-par", network.getNode(london), network.getNode(paris));
-        Edge<WorldMapAgent, Object> e2 = new Edge<>("par-ny", network.getNode(paris), network.getNode(newyork));
-        Edge<WorldMapAgent, Object> e3 = new Edge<>("ny-lon", network.getNode(newyork), network.getNode(london));
-        network.addEdge(e1);
-        network.addEdge(e2);
-        network.addEdge(e3);
+        for (int i=0; i < LINKS.length; i++) {
+            WorldMapAgent from = places[LINKS[i][0]];
+            WorldMapAgent to = places[LINKS[i][1]];
+            network.addEdge(new Edge<>(LINK_NAMES[i], network.getNode(from), network.getNode(to)));
+        }
 
         // Add MapNetworkRenderer to draw the network on the map layer
         mapCanvas.addMapLayerRenderer("network", new MapNetworkRenderer<>(network));
 
+        // Compile the same nodes and links into a CompactNetwork for routing; node numbers index places
+        CompactNetwork.Builder builder = new CompactNetwork.Builder();
+        for (int i=0; i < places.length; i++) {
+            builder.addNode(LATS[i], LONS[i]);
+        }
+        for (int[] link : LINKS) {
+            builder.addEdge(link[0], link[1]);
+        }
+        RouteTable routes = new RouteTable(builder.build(), 16);
+
         // Create a PathAgent that will follow the three nodes in a loop
         PathAgent courier = new PathAgent();
         courier.setColor(Color.ORANGERED);
         courier.setSpeedDegreesPerStep(0.25); // tune for pleasant animation
-        courier.setWaypoints(london, paris, newyork);
+        courier.setWaypoints(route(routes, places, LONDON, NEW_YORK)); // London to New York, by way of the network
 
         simulation.add(courier);
 
@@ -107,6 +126,16 @@ public class WorldMapNetworkExampleApp extends Application {
         });
     }
 
+    /** The places along a shortest route between two nodes of the routing network */
+    private static WorldMapAgent[] route(RouteTable routes, WorldMapAgent[] places, int from, int to) {
+        int[] nodes = routes.route(from, to);
+        WorldMapAgent[] waypoints = new WorldMapAgent[nodes.length];
+        for (int i=0; i < nodes.length; i++) {
+            waypoints[i] = places[nodes[i]];
+        }
+        return waypoints;
+    }
+
     public static void main(String[] args) {
         launch(args);
     }
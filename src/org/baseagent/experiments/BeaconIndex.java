@@ -0,0 +1,139 @@
+package org.baseagent.experiments;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.baseagent.Beacon;
+
+/**
+ * A spatial index of beacons, kept separately for each grid layer. The grid is divided into square
+ * buckets, and each beacon is listed in every bucket its reach overlaps, so the beacons that might
+ * reach a cell are exactly the ones listed in that cell's bucket. A sensor then tests only those few
+ * instead of every beacon in the simulation, and nothing is allocated per query.
+ *
+ * Beacons may move (for example when dragged). Call {@link #refresh(long)} with the step time before
+ * querying; the first call in each step re-buckets any beacon whose cell changed.
+ */
+public class BeaconIndex {
+    private final int width;
+    private final int height;
+    private final int bucketSize;
+    private final int bucketsX;
+    private final int bucketsY;
+
+    private final Map<String, List<Beacon>[]> layers = new HashMap<>();
+    private final Map<Beacon, Entry> entries = new IdentityHashMap<>();
+    private long refreshedAt = Long.MIN_VALUE;
+
+    private static class Entry {
+        final String layerName;
+        final int reach;
+        int cellX;
+        int cellY;
+
+        Entry(String layerName, int reach) {
+            this.layerName = layerName;
+            this.reach = reach;
+        }
+    }
+
+    /** Creates an index over a width x height grid, with buckets of bucketSize x bucketSize cells */
+    public BeaconIndex(int width, int height, int bucketSize) {
+        this.width = width;
+        this.height = height;
+        this.bucketSize = bucketSize;
+        this.bucketsX = (width + bucketSize - 1) / bucketSize;
+        this.bucketsY = (height + bucketSize - 1) / bucketSize;
+    }
+
+    /** Adds a placed beacon on the named layer. Reach is the radius in cells beyond which it never reaches. */
+    public void add(Beacon beacon, String layerName, int reach) {
+        Entry entry = new Entry(layerName, reach);
+        entry.cellX = beacon.getCellX();
+        entry.cellY = beacon.getCellY();
+        entries.put(beacon, entry);
+        insert(beacon, entry);
+    }
+
+    public void remove(Beacon beacon) {
+        Entry entry = entries.remove(beacon);
+        if (entry != null) delete(beacon, entry);
+    }
+
+    /** Re-buckets the beacon if it has moved since it was last indexed */
+    public void update(Beacon beacon) {
+        Entry entry = entries.get(beacon);
+        if ((entry == null) || ((entry.cellX == beacon.getCellX()) && (entry.cellY == beacon.getCellY()))) return;
+        delete(beacon, entry);
+        entry.cellX = beacon.getCellX();
+        entry.cellY = beacon.getCellY();
+        insert(beacon, entry);
+    }
+
+    /** Checks every beacon for movement, once per step time; later calls with the same step time do nothing */
+    public void refresh(long stepTime) {
+        if (stepTime == refreshedAt) return;
+        refreshedAt = stepTime;
+        for (Beacon beacon : entries.keySet()) {
+            update(beacon);
+        }
+    }
+
+    /**
+     * The beacons on the layer whose reach may cover the cell. The returned list belongs to the index
+     * and must not be modified or kept past the current step.
+     */
+    public List<Beacon> candidates(String layerName, int cellX, int cellY) {
+        List<Beacon>[] buckets = layers.get(layerName);
+        if ((buckets == null) || (cellX < 0) || (cellY < 0) || (cellX >= width) || (cellY >= height)) return Collections.emptyList();
+        List<Beacon> bucket = buckets[(cellY / bucketSize) * bucketsX + (cellX / bucketSize)];
+        return (bucket == null) ? Collections.emptyList() : bucket;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void insert(Beacon beacon, Entry entry) {
+        List<Beacon>[] buckets = layers.computeIfAbsent(entry.layerName, name -> newBuckets());
+        forEachBucket(entry, index -> {
+            if (buckets[index] == null) buckets[index] = new ArrayList<>();
+            buckets[index].add(beacon);
+        });
+    }
+
+    private void delete(Beacon beacon, Entry entry) {
+        List<Beacon>[] buckets = layers.get(entry.layerName);
+        forEachBucket(entry, index -> {
+            List<Beacon> bucket = buckets[index];
+            for (int i=0; i < bucket.size(); i++) {
+                if (bucket.get(i) == beacon) { bucket.remove(i); break; }
+            }
+        });
+    }
+
+    private interface BucketVisitor {
+        void visit(int index);
+    }
+
+    private void forEachBucket(Entry entry, BucketVisitor visitor) {
+        int fromX = Math.max(0, (entry.cellX - entry.reach) / bucketSize);
+        int toX = Math.min(bucketsX - 1, Math.max(0, entry.cellX + entry.reach) / bucketSize);
+        int fromY = Math.max(0, (entry.cellY - entry.reach) / bucketSize);
+        int toY = Math.min(bucketsY - 1, Math.max(0, entry.cellY + entry.reach) / bucketSize);
+        for (int by=fromY; by <= toY; by++) {
+            for (int bx=fromX; bx <= toX; bx++) {
+                visitor.visit(by * bucketsX + bx);
+            }
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private List<Beacon>[] newBuckets() {
+        return new List[bucketsX * bucketsY];
+    }
+}
@@ -0,0 +1,285 @@
+package org.baseagent.experiments;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The sensor to effector wiring of an EmbodiedAgent, written down as a dataflow graph so that it can
+ * be compiled. Nodes are light sensors, ForceEffectors and the operators in between; each node has one
+ * output and connect feeds an output to a node's next input. An input left unconnected reads 0.
+ *
+ * A sensor reads its field at the vehicle's cell, as SignalFieldSensor and DirectionalMaxSignalSensor
+ * do wherever they are placed on the body. A force effector pushes the body along a fixed direction by
+ * its input, as a ForceEffector pushes along the direction its sensor reports, scaled by the
+ * intensity, and pushes add up wherever the effectors are placed. Where a node sits on the body
+ * changes nothing, so a plan does not place them.
+ *
+ * {@link #compile()} sorts the nodes topologically and flattens them into a Program: one register
+ * per output, and one instruction per operator naming its operand registers, so running the wiring
+ * is a loop over a few int and double arrays instead of values pushed through Port objects one
+ * connection at a time. Nodes can be declared and connected in any order, but the graph must not
+ * have a cycle.
+ */
+public class BodyPlan {
+    /** Operators, as the opcodes of a Program */
+    public static final int SCALE = 0, ADD = 1, SUBTRACT = 2, MULTIPLY = 3, CLAMP = 4, CONSTANT = 5;
+    // Sensors and force effectors are nodes too, but are not compiled into instructions
+    private static final int SENSOR = 6, FORCE = 7;
+    private static final int[] INPUTS = { 1, 2, 2, 2, 1, 0, 0, 1 };
+
+    private final List<Node> nodes = new ArrayList<>();
+
+    private static class Node {
+        final int kind;
+        final int[] inputs;
+        final double first;
+        final double second;
+        final SignalField field;
+        int connected;
+
+        Node(int kind, double first, double second, SignalField field) {
+            this.kind = kind;
+            this.inputs = new int[INPUTS[kind]];
+            Arrays.fill(inputs, -1);
+            this.first = first;
+            this.second = second;
+            this.field = field;
+        }
+    }
+
+    /**
+     * The wiring compiled: registers 0 to sensors-1 hold the sensor readings, and every register after
+     * them is the output of one instruction, in the order they run. Unconnected inputs read a register
+     * that a constant 0 instruction writes first.
+     *
+     * The registers of many agents are kept register by register: register r of agent i is
+     * values[r * stride + i], so one agent on its own is stride 1 and agent 0.
+     */
+    public static class Program {
+        final int registers;
+        // Sensors: the field each one reads
+        final SignalField[] sensorField;
+        // Instructions, each writing the register sensors + its index
+        final int[] opcode;
+        final int[] left;
+        final int[] right;
+        final double[] first;
+        final double[] second;
+        // Force effectors: the register each one reads, and the unit vector of its direction
+        final int[] forceRegister;
+        final double[] forceX;
+        final double[] forceY;
+
+        Program(int registers, SignalField[] sensorField, int[] opcode, int[] left, int[] right, double[] first, double[] second, int[] forceRegister, double[] forceX, double[] forceY) {
+            this.registers = registers;
+            this.sensorField = sensorField;
+            this.opcode = opcode;
+            this.left = left;
+            this.right = right;
+            this.first = first;
+            this.second = second;
+            this.forceRegister = forceRegister;
+            this.forceX = forceX;
+            this.forceY = forceY;
+        }
+
+        public int getRegisterCount() {
+            return registers;
+        }
+
+        public int getSensorCount() {
+            return sensorField.length;
+        }
+
+        public int getInstructionCount() {
+            return opcode.length;
+        }
+
+        public int getForceCount() {
+            return forceRegister.length;
+        }
+
+        /**
+         * Runs the instructions for agents from to to-1, one instruction at a time across the agents;
+         * the sensor registers must already hold this step's readings.
+         */
+        public void run(double[] values, int stride, int from, int to) {
+            int sensors = sensorField.length;
+            for (int n=0; n < opcode.length; n++) {
+                int target = (sensors + n) * stride;
+                int a = left[n] * stride;
+                int b = right[n] * stride;
+                double first = this.first[n];
+                double second = this.second[n];
+                // The opcode is decided outside each loop over the agents
+                switch (opcode[n]) {
+                case SCALE :
+                    for (int i=from; i < to; i++) values[target + i] = values[a + i] * first;
+                    break;
+                case ADD :
+                    for (int i=from; i < to; i++) values[target + i] = values[a + i] + values[b + i];
+                    break;
+                case SUBTRACT :
+                    for (int i=from; i < to; i++) values[target + i] = values[a + i] - values[b + i];
+                    break;
+                case MULTIPLY :
+                    for (int i=from; i < to; i++) values[target + i] = values[a + i] * values[b + i];
+                    break;
+                case CLAMP :
+                    for (int i=from; i < to; i++) values[target + i] = Math.max(first, Math.min(second, values[a + i]));
+                    break;
+                default :
+                    Arrays.fill(values, target + from, target + to, first);
+                    break;
+                }
+            }
+        }
+    }
+
+    /** A light sensor reading the field at the vehicle's cell; returns its node */
+    public int sensor(SignalField field) {
+        return add(new Node(SENSOR, 0.0, 0.0, field));
+    }
+
+    /**
+     * A force effector pushing the body along direction, in radians in grid coordinates, by its one
+     * input; returns its node. Wired to a sensor, direction is the one the sensor's direction port
+     * reports.
+     */
+    public int force(double direction) {
+        return add(new Node(FORCE, Math.cos(direction), Math.sin(direction), null));
+    }
+
+    /** Its input times factor */
+    public int scale(double factor) {
+        return add(new Node(SCALE, factor, 0.0, null));
+    }
+
+    /** Its first input plus its second */
+    public int add() {
+        return add(new Node(ADD, 0.0, 0.0, null));
+    }
+
+    /** Its first input minus its second */
+    public int subtract() {
+        return add(new Node(SUBTRACT, 0.0, 0.0, null));
+    }
+
+    /** Its first input times its second */
+    public int multiply() {
+        return add(new Node(MULTIPLY, 0.0, 0.0, null));
+    }
+
+    /** Its input, held between min and max */
+    public int clamp(double min, double max) {
+        return add(new Node(CLAMP, min, max, null));
+    }
+
+    /** Always value */
+    public int constant(double value) {
+        return add(new Node(CONSTANT, value, 0.0, null));
+    }
+
+    /** Feeds the output of node from to the next unconnected input of node to */
+    public void connect(int from, int to) {
+        Node target = nodes.get(to);
+        if (nodes.get(from).kind == FORCE) throw new IllegalArgumentException("A force effector has no output to connect");
+        if (target.connected == target.inputs.length) throw new IllegalArgumentException("Every input of node " + to + " is already connected");
+        target.inputs[target.connected++] = from;
+    }
+
+    /** Sorts the nodes topologically and flattens them into a Program */
+    public Program compile() {
+        int count = nodes.size();
+        // Kahn's algorithm, taking ready nodes in the order they were declared
+        int[] waiting = new int[count];
+        List<List<Integer>> consumers = new ArrayList<>();
+        for (int n=0; n < count; n++) {
+            consumers.add(new ArrayList<>());
+        }
+        for (int n=0; n < count; n++) {
+            for (int input : nodes.get(n).inputs) {
+                if (input >= 0) {
+                    waiting[n]++;
+                    consumers.get(input).add(n);
+                }
+            }
+        }
+        int[] order = new int[count];
+        int ordered = 0;
+        int next = 0;
+        for (int n=0; n < count; n++) {
+            if (waiting[n] == 0) order[ordered++] = n;
+        }
+        while (next < ordered) {
+            for (int consumer : consumers.get(order[next++])) {
+                if (--waiting[consumer] == 0) order[ordered++] = consumer;
+            }
+        }
+        if (ordered < count) throw new IllegalStateException("The body plan's wiring has a cycle");
+
+        // Registers: sensors first, then a zero for any unconnected input, then operators in topological order
+        int[] register = new int[count];
+        List<Node> sensors = new ArrayList<>();
+        List<Node> operators = new ArrayList<>();
+        List<Node> forces = new ArrayList<>();
+        boolean unconnected = false;
+        for (int n=0; n < count; n++) {
+            Node node = nodes.get(n);
+            if (node.kind == SENSOR) {
+                register[n] = sensors.size();
+                sensors.add(node);
+            }
+            unconnected |= (node.connected < node.inputs.length);
+        }
+        int zero = sensors.size();
+        if (unconnected) operators.add(new Node(CONSTANT, 0.0, 0.0, null));
+        for (int n : order) {
+            Node node = nodes.get(n);
+            if (node.kind == FORCE) {
+                forces.add(node);
+            } else if (node.kind != SENSOR) {
+                register[n] = sensors.size() + operators.size();
+                operators.add(node);
+            }
+        }
+
+        SignalField[] sensorField = new SignalField[sensors.size()];
+        for (int s=0; s < sensors.size(); s++) {
+            sensorField[s] = sensors.get(s).field;
+        }
+        int[] opcode = new int[operators.size()];
+        int[] left = new int[operators.size()];
+        int[] right = new int[operators.size()];
+        double[] first = new double[operators.size()];
+        double[] second = new double[operators.size()];
+        for (int i=0; i < operators.size(); i++) {
+            Node node = operators.get(i);
+            opcode[i] = node.kind;
+            // An operand the operator does not use names register 0, so that every operand is a valid register
+            left[i] = (node.inputs.length > 0) ? registerOf(register, node.inputs[0], zero) : 0;
+            right[i] = (node.inputs.length > 1) ? registerOf(register, node.inputs[1], zero) : 0;
+            first[i] = node.first;
+            second[i] = node.second;
+        }
+        int[] forceRegister = new int[forces.size()];
+        double[] forceX = new double[forces.size()];
+        double[] forceY = new double[forces.size()];
+        for (int f=0; f < forces.size(); f++) {
+            forceRegister[f] = registerOf(register, forces.get(f).inputs[0], zero);
+            forceX[f] = forces.get(f).first;
+            forceY[f] = forces.get(f).second;
+        }
+        return new Program(sensors.size() + operators.size(), sensorField, opcode, left, right, first, second, forceRegister, forceX, forceY);
+    }
+
+    private static int registerOf(int[] register, int node, int zero) {
+        return (node < 0) ? zero : register[node];
+    }
+
+    private int add(Node node) {
+        nodes.add(node);
+        return nodes.size() - 1;
+    }
+}
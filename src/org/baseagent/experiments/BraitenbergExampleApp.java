@@ -1,6 +1,8 @@
 // filepath: p:/Projects/BaseAgent Projects/Foundations/src/org/baseagent/experiments/BraitenbergExampleApp.java
 package org.baseagent.experiments;
 
+import java.util.List;
+
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.scene.Scene;
@@ -8,6 +10,7 @@ import javafx.scene.layout.BorderPane;
 import javafx.stage.Stage;
 import javafx.scene.paint.Color;
 
+import org.baseagent.foundations.RandomStreams;
 import org.baseagent.sim.Simulation;
 import org.baseagent.grid.Grid;
 import org.baseagent.grid.GridAgent;
@@ -15,18 +18,18 @@ import org.baseagent.Beacon;
 import org.baseagent.embodied.EmbodiedAgent;
 import org.baseagent.embodied.sensors.MaxSignalSensor;
 import org.baseagent.embodied.effectors.ForceEffector;
-import org.baseagent.signals.Signal;
-import org.baseagent.grid.GridLayer;
 import org.baseagent.grid.GridLayer.GridLayerUpdateOption;
 import org.baseagent.grid.ui.GridCanvasForSimulation;
 
-import java.util.List;
-import java.util.stream.Collectors;
-
 /**
  * Simple Braitenberg-style vehicle demo using EmbodiedAgent, sensors and effectors.
+ *
+ * Run with --swarm [vehicles] [seed] to step many vehicles of the same wiring together in a VehicleSwarm
+ * instead (200 by default), placed at random from the seed, or from one drawn and printed.
  */
 public class BraitenbergExampleApp extends Application {
+    /** How far, in cells, a light reaches */
+    public static final int LIGHT_REACH = 20;
 
     @Override
     public void start(Stage primaryStage) throws Exception {
@@ -43,100 +46,103 @@ public class BraitenbergExampleApp extends Application {
         canvas.setWidth(900);
         canvas.setHeight(600);
 
-        // Create a light beacon (anonymous subclass to provide distance-based intensity)
+        // Create a light beacon
+        Beacon light = createLight(40, 10);
+        simulation.add(light);
+
+        List<String> args = getParameters().getRaw();
+        if (!args.isEmpty() && args.get(0).equals("--swarm")) {
+            // Many vehicles, sensing a precomputed field and stepped together
+            int vehicles = (args.size() > 1) ? Integer.parseInt(args.get(1)) : 200;
+            if (args.size() > 2) simulation.getProperties().put(RandomStreams.SEED, Long.parseLong(args.get(2)));
+            SignalField field = new SignalField("lights", 60, 40);
+            field.add(light, LIGHT_REACH, BraitenbergExampleApp::lightFalloff);
+            createSwarm(simulation, field, vehicles);
+            System.out.println("Swarm seed " + RandomStreams.of(simulation).getSeed());
+        } else {
+            // Index the light so sensors only test the lights that can reach them
+            BeaconIndex lights = new BeaconIndex(60, 40, 8);
+            lights.add(light, "lights", LIGHT_REACH);
+
+            // Create embodied vehicle (5x5 body)
+            createVehicle(simulation, 10, 20, lights);
+        }
+
+        // Start simulation
+        simulation.setDelayAfterEachStep(120);
+        simulation.start();
+
+        BorderPane root = new BorderPane();
+        root.setCenter(canvas);
+        Scene scene = new Scene(root, 900, 600);
+        primaryStage.setScene(scene);
+        primaryStage.setTitle("Braitenberg Vehicle — EmbodiedAgent Demo");
+        primaryStage.show();
+
+        primaryStage.setOnCloseRequest(evt -> {
+            Platform.exit();
+            System.exit(0);
+        });
+    }
+
+    /** Creates a light beacon (anonymous subclass to provide distance-based intensity) */
+    public static Beacon createLight(int cellX, int cellY) {
         Beacon light = new Beacon("lights") {
             @Override
             public boolean reaches(org.baseagent.grid.HasGridPosition p2) {
                 // simple radius
                 int dx = Math.abs(getCellX() - p2.getCellX());
                 int dy = Math.abs(getCellY() - p2.getCellY());
-                return (dx*dx + dy*dy) <= (20*20);
+                return (dx*dx + dy*dy) <= (LIGHT_REACH*LIGHT_REACH);
             }
 
             @Override
             public double getSignalValueAt(org.baseagent.grid.HasGridPosition p2) {
                 double dx = getCellX() - p2.getCellX();
                 double dy = getCellY() - p2.getCellY();
-                double dist = Math.sqrt(dx*dx + dy*dy);
-                if (dist < 1e-6) return 1.0;
-                // simple inverse-square-ish falloff normalized to [0,1]
-                double v = 1.0 / (1.0 + 0.1 * dist * dist);
-                if (v > 1.0) v = 1.0;
-                return v;
+                return lightFalloff(Math.sqrt(dx*dx + dy*dy));
             }
         };
-        light.placeAt(40, 10);
+        light.placeAt(cellX, cellY);
         light.setColor(Color.YELLOW);
-        simulation.add(light);
+        return light;
+    }
+
+    /** A light's signal at a distance in cells: simple inverse-square-ish falloff normalized to [0,1] */
+    public static double lightFalloff(double dist) {
+        if (dist < 1e-6) return 1.0;
+        double v = 1.0 / (1.0 + 0.1 * dist * dist);
+        if (v > 1.0) v = 1.0;
+        return v;
+    }
 
-        // Create embodied vehicle (5x5 body)
+    /**
+     * Creates a Braitenberg vehicle with two light sensors wired to two wheels, and adds it to the simulation.
+     * If lights is not null, the sensors look lights up in it instead of scanning every beacon.
+     */
+    public static EmbodiedAgent createVehicle(Simulation simulation, int cellX, int cellY, BeaconIndex lights) {
+        // Left sensor reports a leftward direction (pi radians), right sensor a rightward one (0 radians)
+        return createVehicle(simulation, cellX, cellY,
+            new DirectionalMaxSignalSensor("lights", Math.PI, lights), new DirectionalMaxSignalSensor("lights", 0.0, lights));
+    }
+
+    /** Creates a Braitenberg vehicle whose sensors read the light level from a precomputed SignalField */
+    public static EmbodiedAgent createVehicle(Simulation simulation, int cellX, int cellY, SignalField lights) {
+        return createVehicle(simulation, cellX, cellY, new SignalFieldSensor(lights, Math.PI), new SignalFieldSensor(lights, 0.0));
+    }
+
+    private static EmbodiedAgent createVehicle(Simulation simulation, int cellX, int cellY, MaxSignalSensor leftSensor, MaxSignalSensor rightSensor) {
         EmbodiedAgent vehicle = new EmbodiedAgent(5, 5);
-        vehicle.placeAt(10, 20);
+        vehicle.placeAt(cellX, cellY);
         vehicle.setColor(Color.DARKGREEN);
         simulation.add(vehicle);
 
-        // Create sensors: front-left and front-right positions on the body grid
+        // Sensor positions: front-left and front-right on the body grid
         // Body coordinates: width=5 (cols 0..4), height=5 (rows 0..4), front = row 0
         int frontRow = 0;
         int leftCol = 1;
         int rightCol = 3;
 
-        // Left sensor
-        MaxSignalSensor leftSensor = new MaxSignalSensor("lights", null) {
-            @Override
-            public void sense(org.baseagent.Agent a) {
-                // copy of MaxSignalSensor logic but set direction port to leftwards
-                org.baseagent.grid.GridAgent agent = (org.baseagent.grid.GridAgent)a;
-                List<Beacon> beacons = agent.getSimulation().getBeacons().stream()
-                    .filter(b -> { GridLayer gl = b.getGridLayer(); return gl != null && gl.getLayerName().equals(getLayerName()); })
-                    .collect(Collectors.toList());
-                Beacon maxBeacon = null;
-                double maxIntensity = 0.0d;
-                for (Beacon b : beacons) {
-                    if (b.reaches(agent)) {
-                        double candidate = b.getSignalValueAt(agent);
-                        if (candidate > maxIntensity) { maxIntensity = candidate; maxBeacon = b; }
-                    }
-                }
-                if (maxBeacon != null) {
-                    // set intensity and set a leftward direction
-                    this.getIntensityPort().setOutputValue(maxIntensity);
-                    // leftward in grid coordinates -> pi radians
-                    this.getDirectionPort().setOutputValue(Math.PI);
-                } else {
-                    this.getIntensityPort().setOutputValue(0.0);
-                    this.getDirectionPort().setOutputValue(Math.PI);
-                }
-            }
-        };
-
-        // Right sensor
-        MaxSignalSensor rightSensor = new MaxSignalSensor("lights", null) {
-            @Override
-            public void sense(org.baseagent.Agent a) {
-                org.baseagent.grid.GridAgent agent = (org.baseagent.grid.GridAgent)a;
-                List<Beacon> beacons = agent.getSimulation().getBeacons().stream()
-                    .filter(b -> { GridLayer gl = b.getGridLayer(); return gl != null && gl.getLayerName().equals(getLayerName()); })
-                    .collect(Collectors.toList());
-                Beacon maxBeacon = null;
-                double maxIntensity = 0.0d;
-                for (Beacon b : beacons) {
-                    if (b.reaches(agent)) {
-                        double candidate = b.getSignalValueAt(agent);
-                        if (candidate > maxIntensity) { maxIntensity = candidate; maxBeacon = b; }
-                    }
-                }
-                if (maxBeacon != null) {
-                    this.getIntensityPort().setOutputValue(maxIntensity);
-                    // rightward -> 0 radians
-                    this.getDirectionPort().setOutputValue(0.0);
-                } else {
-                    this.getIntensityPort().setOutputValue(0.0);
-                    this.getDirectionPort().setOutputValue(0.0);
-                }
-            }
-        };
-
         // Create effectors left and right (force effectors) and place on body
         ForceEffector leftEff = new ForceEffector("body");
         ForceEffector rightEff = new ForceEffector("body");
@@ -153,22 +159,42 @@ public class BraitenbergExampleApp extends Application {
         // Connect sensors to the effectors
         leftSensor.connectTo(leftEff);
         rightSensor.connectTo(rightEff);
+        return vehicle;
+    }
 
-        // Start simulation
-        simulation.setDelayAfterEachStep(120);
-        simulation.start();
-
-        BorderPane root = new BorderPane();
-        root.setCenter(canvas);
-        Scene scene = new Scene(root, 900, 600);
-        primaryStage.setScene(scene);
-        primaryStage.setTitle("Braitenberg Vehicle — EmbodiedAgent Demo");
-        primaryStage.show();
+    /**
+     * The wiring of createVehicle as a BodyPlan, for stepping many vehicles together in a VehicleSwarm:
+     * each sensor wired to the force effector on its own side, which pushes along the direction that
+     * sensor reports (pi radians on the left, 0 on the right). Both sensors read the light at the
+     * vehicle's cell, as createVehicle's do.
+     */
+    public static BodyPlan createPlan(SignalField lights) {
+        BodyPlan plan = new BodyPlan();
+        int leftSensor = plan.sensor(lights);
+        int rightSensor = plan.sensor(lights);
+        plan.connect(leftSensor, plan.force(Math.PI));
+        plan.connect(rightSensor, plan.force(0.0));
+        return plan;
+    }
 
-        primaryStage.setOnCloseRequest(evt -> {
-            Platform.exit();
-            System.exit(0);
-        });
+    /**
+     * Adds vehicles of createPlan's wiring at random positions on the 60x40 grid, each drawn as a GridAgent,
+     * and the VehicleSwarm that steps them. Each vehicle is placed from its own stream of the simulation's
+     * RandomStreams, so the same seed places the same swarm.
+     */
+    private static VehicleSwarm createSwarm(Simulation simulation, SignalField lights, int vehicles) {
+        RandomStreams streams = RandomStreams.of(simulation);
+        VehicleSwarm swarm = new VehicleSwarm(createPlan(lights).compile(), 60, 40);
+        for (int i=0; i < vehicles; i++) {
+            RandomStreams.Stream random = streams.forKey(i);
+            GridAgent vehicle = new GridAgent();
+            vehicle.setColor(Color.DARKGREEN);
+            simulation.add(vehicle);
+            swarm.addVehicle(random.nextDouble() * 60, random.nextDouble() * 40, vehicle);
+        }
+        // Added after the vehicles, so their cells are written back once they have all moved
+        simulation.add(swarm);
+        return swarm;
     }
 
     public static void main(String[] args) {
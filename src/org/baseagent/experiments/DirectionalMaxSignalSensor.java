@@ -0,0 +1,62 @@
+package org.baseagent.experiments;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.baseagent.Agent;
+import org.baseagent.Beacon;
+import org.baseagent.embodied.sensors.MaxSignalSensor;
+import org.baseagent.grid.GridAgent;
+import org.baseagent.grid.GridLayer;
+
+/**
+ * A MaxSignalSensor that reports the strongest beacon on its layer, but always reports a fixed
+ * direction (in radians, grid coordinates) instead of the direction to that beacon. Used for the
+ * left-facing and right-facing sensors of a Braitenberg vehicle.
+ *
+ * Given a BeaconIndex, the sensor only tests the beacons indexed near the agent; without one, it
+ * scans every beacon in the simulation.
+ */
+public class DirectionalMaxSignalSensor extends MaxSignalSensor {
+    private final double direction;
+    private final BeaconIndex beaconIndex;
+
+    public DirectionalMaxSignalSensor(String layerName, double direction) {
+        this(layerName, direction, null);
+    }
+
+    public DirectionalMaxSignalSensor(String layerName, double direction, BeaconIndex beaconIndex) {
+        super(layerName, null);
+        this.direction = direction;
+        this.beaconIndex = beaconIndex;
+    }
+
+    public double getDirection() {
+        return direction;
+    }
+
+    @Override
+    public void sense(Agent a) {
+        GridAgent agent = (GridAgent)a;
+        List<Beacon> beacons;
+        if (beaconIndex != null) {
+            beaconIndex.refresh(agent.getSimulation().getStepTime());
+            beacons = beaconIndex.candidates(getLayerName(), agent.getCellX(), agent.getCellY());
+        } else {
+            beacons = agent.getSimulation().getBeacons().stream()
+                .filter(b -> { GridLayer gl = b.getGridLayer(); return gl != null && gl.getLayerName().equals(getLayerName()); })
+                .collect(Collectors.toList());
+        }
+        Beacon maxBeacon = null;
+        double maxIntensity = 0.0d;
+        for (int i=0; i < beacons.size(); i++) {
+            Beacon b = beacons.get(i);
+            if (b.reaches(agent)) {
+                double candidate = b.getSignalValueAt(agent);
+                if (candidate > maxIntensity) { maxIntensity = candidate; maxBeacon = b; }
+            }
+        }
+        this.getIntensityPort().setOutputValue((maxBeacon != null) ? maxIntensity : 0.0);
+        this.getDirectionPort().setOutputValue(direction);
+    }
+}
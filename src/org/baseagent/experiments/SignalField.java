@@ -0,0 +1,179 @@
+package org.baseagent.experiments;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.baseagent.grid.HasGridPosition;
+
+/**
+ * One signal layer rasterized into a primitive array, so that reading the signal at a cell is an
+ * array lookup instead of a distance and falloff computation per source. Each cell holds the signal
+ * of the strongest source that reaches it, as MaxSignalSensor would read there.
+ *
+ * Each source's footprint is computed once, when it is added, as a square stamp of its values within
+ * reach, and the stamps are kept in buckets of cells they overlap. When a source moves, its stamp is
+ * raised into the cells at its new cell, and only the cells at its old cell where it was the strongest
+ * are recomputed, from the stamps in their bucket, so the field never needs a full recompute. Call
+ * {@link #refresh(long)} with the step time before reading; the first call in each step picks up any
+ * source whose cell changed.
+ */
+public class SignalField {
+    /** The signal value at a distance, in cells, from its source */
+    public interface Falloff {
+        double valueAt(double distance);
+    }
+
+    private final String layerName;
+    private final int width;
+    private final int height;
+    private final double[] values;
+    private final Map<HasGridPosition, Stamp> stamps = new IdentityHashMap<>();
+    // The stamps overlapping each BUCKET_SIZE x BUCKET_SIZE block of cells
+    private static final int BUCKET_SIZE = 16;
+    private final int bucketsX;
+    private final List<List<Stamp>> buckets = new ArrayList<>();
+    private long refreshedAt = Long.MIN_VALUE;
+
+    private static class Stamp {
+        final int reach;
+        final double[] values;
+        int cellX;
+        int cellY;
+
+        Stamp(int reach, double[] values) {
+            this.reach = reach;
+            this.values = values;
+        }
+    }
+
+    public SignalField(String layerName, int width, int height) {
+        this.layerName = layerName;
+        this.width = width;
+        this.height = height;
+        this.values = new double[width * height];
+        this.bucketsX = (width + BUCKET_SIZE - 1) / BUCKET_SIZE;
+        int bucketsY = (height + BUCKET_SIZE - 1) / BUCKET_SIZE;
+        for (int b=0; b < bucketsX * bucketsY; b++) {
+            buckets.add(new ArrayList<>());
+        }
+    }
+
+    public String getLayerName() {
+        return layerName;
+    }
+
+    /** Adds a source whose signal follows the falloff out to reach cells, and is zero beyond */
+    public void add(HasGridPosition source, int reach, Falloff falloff) {
+        int size = 2 * reach + 1;
+        double[] stampValues = new double[size * size];
+        for (int dy=-reach; dy <= reach; dy++) {
+            for (int dx=-reach; dx <= reach; dx++) {
+                if (dx*dx + dy*dy <= reach*reach) {
+                    stampValues[(dy + reach) * size + (dx + reach)] = falloff.valueAt(Math.sqrt(dx*dx + dy*dy));
+                }
+            }
+        }
+        Stamp stamp = new Stamp(reach, stampValues);
+        stamp.cellX = source.getCellX();
+        stamp.cellY = source.getCellY();
+        stamps.put(source, stamp);
+        place(stamp);
+    }
+
+    public void remove(HasGridPosition source) {
+        Stamp stamp = stamps.remove(source);
+        if (stamp != null) unplace(stamp);
+    }
+
+    /** Moves the source's footprint if the source has moved since it was last applied */
+    public void update(HasGridPosition source) {
+        Stamp stamp = stamps.get(source);
+        if ((stamp == null) || ((stamp.cellX == source.getCellX()) && (stamp.cellY == source.getCellY()))) return;
+        unplace(stamp);
+        stamp.cellX = source.getCellX();
+        stamp.cellY = source.getCellY();
+        place(stamp);
+    }
+
+    /** Checks every source for movement, once per step time; later calls with the same step time do nothing */
+    public void refresh(long stepTime) {
+        if (stepTime == refreshedAt) return;
+        refreshedAt = stepTime;
+        for (HasGridPosition source : stamps.keySet()) {
+            update(source);
+        }
+    }
+
+    /** The signal at a cell; zero outside the grid */
+    public double get(int cellX, int cellY) {
+        if ((cellX < 0) || (cellY < 0) || (cellX >= width) || (cellY >= height)) return 0.0;
+        return values[cellY * width + cellX];
+    }
+
+    /** The backing values, row by row */
+    public double[] getValues() {
+        return values;
+    }
+
+    /** Adds the stamp to its buckets, and raises every cell it reaches to at least its value there */
+    private void place(Stamp stamp) {
+        forEachBucket(stamp, true);
+        int reach = stamp.reach;
+        int size = 2 * reach + 1;
+        int fromX = Math.max(0, stamp.cellX - reach);
+        int toX = Math.min(width - 1, stamp.cellX + reach);
+        for (int y=Math.max(0, stamp.cellY - reach); y <= Math.min(height - 1, stamp.cellY + reach); y++) {
+            int row = y * width;
+            int stampRow = (y - stamp.cellY + reach) * size + reach - stamp.cellX;
+            for (int x=fromX; x <= toX; x++) {
+                values[row + x] = Math.max(values[row + x], stamp.values[stampRow + x]);
+            }
+        }
+    }
+
+    /** Takes the stamp out of its buckets, and recomputes the cells where it was the strongest */
+    private void unplace(Stamp stamp) {
+        forEachBucket(stamp, false);
+        int reach = stamp.reach;
+        int size = 2 * reach + 1;
+        int fromX = Math.max(0, stamp.cellX - reach);
+        int toX = Math.min(width - 1, stamp.cellX + reach);
+        for (int y=Math.max(0, stamp.cellY - reach); y <= Math.min(height - 1, stamp.cellY + reach); y++) {
+            int row = y * width;
+            int stampRow = (y - stamp.cellY + reach) * size + reach - stamp.cellX;
+            for (int x=fromX; x <= toX; x++) {
+                double own = stamp.values[stampRow + x];
+                // A max holds a copy of its winner's value, so other cells cannot have come from this stamp
+                if ((own > 0.0) && (values[row + x] == own)) values[row + x] = strongest(x, y);
+            }
+        }
+    }
+
+    /** The largest value at a cell of the stamps in its bucket */
+    private double strongest(int x, int y) {
+        double max = 0.0;
+        for (Stamp other : buckets.get((y / BUCKET_SIZE) * bucketsX + x / BUCKET_SIZE)) {
+            int size = 2 * other.reach + 1;
+            int dx = x - other.cellX + other.reach;
+            int dy = y - other.cellY + other.reach;
+            if ((dx >= 0) && (dy >= 0) && (dx < size) && (dy < size)) max = Math.max(max, other.values[dy * size + dx]);
+        }
+        return max;
+    }
+
+    private void forEachBucket(Stamp stamp, boolean add) {
+        int fromX = Math.max(0, stamp.cellX - stamp.reach);
+        int toX = Math.min(width - 1, stamp.cellX + stamp.reach);
+        int fromY = Math.max(0, stamp.cellY - stamp.reach);
+        int toY = Math.min(height - 1, stamp.cellY + stamp.reach);
+        if ((fromX > toX) || (fromY > toY)) return;
+        for (int by=fromY / BUCKET_SIZE; by <= toY / BUCKET_SIZE; by++) {
+            for (int bx=fromX / BUCKET_SIZE; bx <= toX / BUCKET_SIZE; bx++) {
+                List<Stamp> bucket = buckets.get(by * bucketsX + bx);
+                if (add) bucket.add(stamp); else bucket.remove(stamp);
+            }
+        }
+    }
+}
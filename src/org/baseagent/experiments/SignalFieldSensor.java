@@ -0,0 +1,33 @@
+package org.baseagent.experiments;
+
+import org.baseagent.Agent;
+import org.baseagent.embodied.sensors.MaxSignalSensor;
+import org.baseagent.grid.GridAgent;
+
+/**
+ * A light sensor that reads a precomputed SignalField at the agent's cell instead of asking each
+ * beacon for its signal, and reports a fixed direction like DirectionalMaxSignalSensor does. The field
+ * holds the strongest signal at each cell, so the reading is the one DirectionalMaxSignalSensor takes.
+ */
+public class SignalFieldSensor extends MaxSignalSensor {
+    private final SignalField field;
+    private final double direction;
+
+    public SignalFieldSensor(SignalField field, double direction) {
+        super(field.getLayerName(), null);
+        this.field = field;
+        this.direction = direction;
+    }
+
+    public double getDirection() {
+        return direction;
+    }
+
+    @Override
+    public void sense(Agent a) {
+        GridAgent agent = (GridAgent)a;
+        field.refresh(agent.getSimulation().getStepTime());
+        this.getIntensityPort().setOutputValue(field.get(agent.getCellX(), agent.getCellY()));
+        this.getDirectionPort().setOutputValue(direction);
+    }
+}
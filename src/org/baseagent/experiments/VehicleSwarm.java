@@ -0,0 +1,190 @@
+package org.baseagent.experiments;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.baseagent.Agent;
+import org.baseagent.foundations.RowBands;
+import org.baseagent.grid.GridAgent;
+import org.baseagent.sim.Simulation;
+
+/**
+ * Steps every vehicle that shares one compiled BodyPlan together, instead of one EmbodiedAgent at a
+ * time. A vehicle is a position in continuous cell coordinates plus its registers, and the registers
+ * of all vehicles are kept register by register, so each stage of a step is one loop over contiguous
+ * doubles: read each sensor for every vehicle, run the Program across the vehicles, then push every
+ * vehicle by its force effectors. Nothing is allocated, and vehicles can be split across a fork-join
+ * pool.
+ *
+ * Sensors read their field at the vehicle's cell, and force effectors act as ForceEffector does: each
+ * pushes the body along its direction by its value, times the gain, and the pushes add up. Directions
+ * are fixed in grid coordinates, where y grows downward, so a body does not turn, and the world wraps
+ * around at its edges. Positions are written back to the vehicles' agents, when their cell changes,
+ * every step or every few.
+ *
+ * Add the VehicleSwarm to the Simulation in place of the vehicles' own sensors and effectors.
+ */
+public class VehicleSwarm extends Agent {
+    private final BodyPlan.Program program;
+    private final int width;
+    private final int height;
+    private final SignalField[] fields;
+
+    private double[] x = new double[16];
+    private double[] y = new double[16];
+    private int[] cellX = new int[16];
+    private int[] cellY = new int[16];
+    // Register r of vehicle i is values[r * capacity + i]
+    private double[] values;
+    private int capacity = 16;
+    private final List<GridAgent> agents = new ArrayList<>();
+    private int vehicles;
+
+    private double gain = 1.0;
+    private ForkJoinPool pool;
+    private int writeBackEvery = 1;
+    private long steps;
+
+    /** A swarm running the program in a width x height world */
+    public VehicleSwarm(BodyPlan.Program program, int width, int height) {
+        this.program = program;
+        this.width = width;
+        this.height = height;
+        this.values = new double[Math.max(1, program.registers) * capacity];
+
+        Map<SignalField, Boolean> distinct = new IdentityHashMap<>();
+        for (SignalField field : program.sensorField) {
+            distinct.put(field, Boolean.TRUE);
+        }
+        fields = distinct.keySet().toArray(new SignalField[0]);
+    }
+
+    /**
+     * Adds a vehicle at a position and returns its id. The agent, which may be null, is moved to the
+     * vehicle's cell on each write back.
+     */
+    public int addVehicle(double x, double y, GridAgent agent) {
+        if (vehicles == capacity) grow(capacity * 2);
+        this.x[vehicles] = x;
+        this.y[vehicles] = y;
+        cellX[vehicles] = Integer.MIN_VALUE;
+        cellY[vehicles] = Integer.MIN_VALUE;
+        agents.add(agent);
+        return vehicles++;
+    }
+
+    /** Cells a body is pushed per step for each unit of an effector's value; 1 by default */
+    public void setGain(double gain) {
+        this.gain = gain;
+    }
+
+    /** Splits each step's vehicles across the pool; null (the default) steps them on the calling thread */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /** Writes positions back to the agents only every so many steps, for example once per frame */
+    public void setWriteBackEvery(int steps) {
+        this.writeBackEvery = Math.max(1, steps);
+    }
+
+    @Override
+    public void step(Simulation simulation) {
+        for (SignalField field : fields) {
+            field.refresh(simulation.getStepTime());
+        }
+        advance();
+        if (++steps % writeBackEvery == 0) writeBack();
+    }
+
+    /** Senses, runs the program and moves every vehicle once; the fields are read as they are */
+    public void advance() {
+        RowBands.run(pool, vehicles, this::advance);
+    }
+
+    private void advance(int from, int to) {
+        int capacity = this.capacity;
+        double[] values = this.values;
+
+        // Sensors, one at a time across the vehicles, each at the vehicle's cell
+        int sensors = program.sensorField.length;
+        for (int s=0; s < sensors; s++) {
+            SignalField field = program.sensorField[s];
+            int base = s * capacity;
+            for (int i=from; i < to; i++) {
+                values[base + i] = field.get((int)Math.floor(x[i]), (int)Math.floor(y[i]));
+            }
+        }
+
+        program.run(values, capacity, from, to);
+
+        // Force effectors: every push along its direction, added up
+        int forces = program.forceRegister.length;
+        for (int i=from; i < to; i++) {
+            double pushX = 0.0;
+            double pushY = 0.0;
+            for (int f=0; f < forces; f++) {
+                double value = values[program.forceRegister[f] * capacity + i];
+                pushX += value * program.forceX[f];
+                pushY += value * program.forceY[f];
+            }
+            x[i] = wrap(x[i] + gain * pushX, width);
+            y[i] = wrap(y[i] + gain * pushY, height);
+        }
+    }
+
+    /** Moves every vehicle's agent whose cell has changed to the vehicle's cell */
+    public void writeBack() {
+        for (int i=0; i < vehicles; i++) {
+            GridAgent agent = agents.get(i);
+            if (agent == null) continue;
+            int cx = (int)Math.floor(x[i]);
+            int cy = (int)Math.floor(y[i]);
+            if ((cx == cellX[i]) && (cy == cellY[i])) continue;
+            cellX[i] = cx;
+            cellY[i] = cy;
+            agent.placeAt(cx, cy);
+        }
+    }
+
+    public int size() {
+        return vehicles;
+    }
+
+    public double getX(int vehicle) {
+        return x[vehicle];
+    }
+
+    public double getY(int vehicle) {
+        return y[vehicle];
+    }
+
+    /** A vehicle's register as of its last step, numbered as in the Program */
+    public double getRegister(int vehicle, int register) {
+        return values[register * capacity + vehicle];
+    }
+
+    private static double wrap(double v, int size) {
+        if ((v >= 0.0) && (v < size)) return v;
+        v -= size * Math.floor(v / size);
+        // Rounding can land exactly on size
+        return (v < size) ? v : 0.0;
+    }
+
+    private void grow(int newCapacity) {
+        x = Arrays.copyOf(x, newCapacity);
+        y = Arrays.copyOf(y, newCapacity);
+        cellX = Arrays.copyOf(cellX, newCapacity);
+        cellY = Arrays.copyOf(cellY, newCapacity);
+        double[] grown = new double[Math.max(1, program.registers) * newCapacity];
+        for (int r=0; r < program.registers; r++) {
+            System.arraycopy(values, r * capacity, grown, r * newCapacity, vehicles);
+        }
+        values = grown;
+        capacity = newCapacity;
+    }
+}
@@ -0,0 +1,83 @@
+package org.baseagent.foundations;
+
+import java.util.Objects;
+
+import org.baseagent.Patch;
+import org.baseagent.grid.Grid;
+import org.baseagent.grid.GridAgent;
+import org.baseagent.sim.Simulation;
+
+/**
+ * Applies a neighborhood-local Patch only where something can change. Wrapping a Patch in an
+ * ActivePatch declares that a cell's next value depends only on the current values within radius
+ * of it, and on nothing else (no randomness, no step time). Then a cell whose neighborhood did not
+ * change last step cannot change this step, and is skipped.
+ *
+ * The first step visits every cell. After that, the cells visited last step are checked for change,
+ * and only the neighborhoods of the changed ones are visited, so step cost follows activity instead
+ * of grid area. Intended for a Grid using NEXT_BECOMES_CURRENT: both buffers of a skipped cell already
+ * hold its value, so it stays correct across buffer swaps. Add it to the Simulation in place of the Patch.
+ */
+public class ActivePatch extends GridAgent {
+	private final Patch patch;
+	private final Grid grid;
+	private final int width;
+	private final int radius;
+	private final boolean wrap;
+
+	private final Object[] previous;
+	private CellSet visited;
+	private CellSet active;
+	private boolean started;
+
+	/** Tracks a patch that depends on the 8 neighbors of each cell, on a grid whose edges do not wrap */
+	public ActivePatch(Patch patch, Grid grid, int width, int height) {
+		this(patch, grid, width, height, 1, false);
+	}
+
+	public ActivePatch(Patch patch, Grid grid, int width, int height, int radius, boolean wrap) {
+		this.patch = patch;
+		this.grid = grid;
+		this.width = width;
+		this.radius = radius;
+		this.wrap = wrap;
+		this.previous = new Object[width * height];
+		this.visited = new CellSet(width, height);
+		this.active = new CellSet(width, height);
+	}
+
+	@Override
+	public void step(Simulation simulation) {
+		if (!started) {
+			active.addAll();
+			started = true;
+		} else {
+			for (int i=0; i < visited.size(); i++) {
+				int index = visited.getIndex(i);
+				int x = index % width;
+				int y = index / width;
+				if (!Objects.equals(grid.get(x, y), previous[index])) {
+					active.addNeighborhood(x, y, radius, wrap);
+				}
+			}
+		}
+
+		for (int i=0; i < active.size(); i++) {
+			int index = active.getIndex(i);
+			int x = index % width;
+			int y = index / width;
+			previous[index] = grid.get(x, y);
+			patch.applyPatch(grid, x, y);
+		}
+
+		CellSet swap = visited;
+		visited = active;
+		active = swap;
+		active.clear();
+	}
+
+	/** How many cells were visited on the last step */
+	public int getActiveCount() {
+		return visited.size();
+	}
+}
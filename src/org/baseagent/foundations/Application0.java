@@ -6,11 +6,7 @@ import org.baseagent.Agent;
 import org.baseagent.behaviors.Behavior;
 import org.baseagent.grid.Grid;
 import org.baseagent.grid.GridAgent;
-import org.baseagent.grid.GridLayer;
 import org.baseagent.grid.ui.GridCanvas;
-import org.baseagent.grid.ui.GridCanvasContext;
-import org.baseagent.grid.ui.GridCanvasForSimulation;
-import org.baseagent.grid.ui.GridCellRenderer;
 import org.baseagent.sim.Simulation;
 
 import javafx.application.Application;
@@ -28,42 +24,62 @@ public class Application0 extends Application {
 		launch(args);
 	}
 	
+	/** Builds the wandering agents model without any JavaFX; see {@link HeadlessRunner} */
+	public static Scenario scenario() {
+		return scenario(null);
+	}
+	
+	/** Builds the wandering agents model, publishing snapshots of it for a display if there is a publisher */
+	public static Scenario scenario(SnapshotPublisher publisher) {
+		return new Scenario("wander", 100, 100, 15000) {
+			@Override
+			protected Grid createWorld(Simulation simulation) {
+				// A Universe is the place where simulations take place. There is one Universe for a Sim.
+				// A Grid is a 2D area in which things may be displayed. This includes a Universe; it could 
+				// include other things as well, such as a small Grid that represents the placement of sensors
+				// on an agent body, or an agent's mental image of its grid world. 
+				// Any Grid may be displayed through a GridCanvas. The Grid used as the Universe has a special
+				// visualization component, GridCanvasForUniverse, which handles visualization updates
+				// as the simulation runs.
+				Grid grid = new Grid(getWidth(), getHeight());
+				simulation.setUniverse(grid);
+				
+				createExample(simulation, getWidth(), getHeight(), publisher);
+				if (publisher != null) {
+					publisher.watch(grid.getGridLayer(Grid.DEFAULT_GRID_LAYER));
+					simulation.add(publisher);
+				}
+				return grid;
+			}
+		};
+	}
+	
 	/** JavaFX Application start method */
 	@Override
 	public void start(Stage primaryStage) throws IOException {
 		
 		// A Simulation object is the core of a BaseAgent simulation.
 		// Everything that will be simulated is added to the simulation.
-		// The following settings indicate the end condition for the simulation,
-		// and the delay between simulation steps, which helps make the visual display
-		// proceed slowly enough for the human observer to notice what is happening.
-		Simulation simulation = new Simulation();
-		simulation.endWhen(sim -> sim.getStepTime() == 15000);
-		simulation.setDelayAfterEachStep(100);
-		
-		// A Universe is the place where simulations take place. There is one Universe for a Sim.
-		// A Grid is a 2D area in which things may be displayed. This includes a Universe; it could 
-		// include other things as well, such as a small Grid that represents the placement of sensors
-		// on an agent body, or an agent's mental image of its grid world. 
-		// Any Grid may be displayed through a GridCanvas. The Grid used as the Universe has a special
-		// visualization component, GridCanvasForUniverse, which handles visualization updates
-		// as the simulation runs.
-		Grid grid = new Grid(100, 100);
-		simulation.setUniverse(grid);
+		// The Scenario sets the end condition for the simulation. The simulation runs unthrottled; the
+		// display draws snapshots of it at its own pace, and shows how fast each side is going.
+		SnapshotPublisher publisher = new SnapshotPublisher(100, 100);
+		Scenario scenario = scenario(publisher);
+		Simulation simulation = scenario.build();
+		Grid grid = scenario.getGrid();
 		
-		GridCanvas canvas = new GridCanvasForSimulation(simulation, grid, 8, 8, 2, 2); // DMK - GridCanvasForSimulation different from GridCanvas? This is awkward
+		SnapshotCanvas canvas = new SnapshotCanvas(publisher, 100, 100, 8, 8);
+		canvas.setShowRates(true);
 		
 		GridCanvas gridCanvas = new GridCanvas(grid, 8, 8, 2, 2);
 		SimulationCanvas simCanvas = new SimulationCanvas(simulation); // DMK It doesn't need t take the Grid because that;s already the Universe
 		// DMK  SimulationCanvas draws *everything*, GridCanvas just draws a Grid
 		
 		// DMK - There could be pre-canned, beautiful GridCellRenderers that you can use instead of making your own. FIELD, LAB, CHECKER
-		canvas.addGridLayerRenderer(Grid.DEFAULT_GRID_LAYER, new GridCellRenderer() {
+		canvas.setCellPainter(new DirtyGridCanvas.CellPainter() {
 			// DMK - caution against setGridRenderer which overtakes agent drawing
 			// DMK - I shouldn't have had to say DEFAULT_GRID_LAYER if I'm not naming layers
 			@Override
-			public void drawCell(GridCanvasContext gcc, GridLayer layer, Object value, double xInPixels, double yInPixels, double widthInPixels, double heightInPixels) {
-				GraphicsContext gc = gcc.getGraphicsContext();
+			public void paint(GraphicsContext gc, Object value, double xInPixels, double yInPixels, double widthInPixels, double heightInPixels) {
 				// DMK I want to get the CellX and CellY that we're on so I can do math for a checker pattern, but that's not in GCC
 				gc.setFill(Color.LIGHTGREEN);
 				gc.fillRect(xInPixels, yInPixels, widthInPixels, heightInPixels);
@@ -72,22 +88,6 @@ public class Application0 extends Application {
 			} 
 		});
 		
-		for (int i=0; i < 10; i++) {
-			GridAgent agent = new GridAgent();
-			agent.addBehavior(new Behavior() {
-				@Override
-				public void executeBehavior(Agent agent) {
-					GridAgent me = (GridAgent)agent;
-					me.moveRandomly(); // DMK - THere should be a vector version of this that sets the heading
-				}
-			});
-			simulation.add(agent);
-			agent.placeRandomly(); // DMK This also gives random headings
-			// DMK - If you place it before adding to the sim, it fails
-			// DMK Look, there are two types of agents: Old-school that bounce around, and new school that glide smoothky, and this class is trying to do both
-			agent.setColor(Color.RED); // DMK - I shouldn't have to do this
-		}
-		
 		// The code below is JavaFX code for displaying the simulation - which is mostly showing the GridCanvas
 		BorderPane border = new BorderPane();
 		border.setCenter(canvas);
@@ -101,7 +101,30 @@ public class Application0 extends Application {
 		primaryStage.show();
 		
 		// Start the simulation!
+		canvas.start();
 		simulation.start();
 	}
 
+	private static void createExample(Simulation simulation, int width, int height, SnapshotPublisher publisher) {
+		RandomStreams streams = RandomStreams.of(simulation);
+		for (int i=0; i < 10; i++) {
+			GridAgent agent = new GridAgent();
+			// Each agent draws from its own stream, so runs with the same seed wander the same way
+			RandomStreams.Stream random = streams.forKey(i);
+			agent.addBehavior(new Behavior() {
+				@Override
+				public void executeBehavior(Agent agent) {
+					GridAgent me = (GridAgent)agent;
+					RandomStreams.moveRandomly(me, random, width, height); // DMK - THere should be a vector version of this that sets the heading
+				}
+			});
+			simulation.add(agent);
+			RandomStreams.placeRandomly(agent, random, width, height); // DMK This also gives random headings
+			// DMK - If you place it before adding to the sim, it fails
+			// DMK Look, there are two types of agents: Old-school that bounce around, and new school that glide smoothky, and this class is trying to do both
+			agent.setColor(Color.RED); // DMK - I shouldn't have to do this
+			if (publisher != null) publisher.addAgent(agent);
+		}
+	}
+
 }
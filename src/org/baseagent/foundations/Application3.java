@@ -1,14 +1,12 @@
 package org.baseagent.foundations;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
 
 import org.baseagent.Patch;
 import org.baseagent.grid.Grid;
-import org.baseagent.grid.GridLayer;
 import org.baseagent.grid.GridLayer.GridLayerUpdateOption;
-import org.baseagent.grid.ui.GridCanvas;
-import org.baseagent.grid.ui.GridCanvasContext;
-import org.baseagent.grid.ui.GridCellRenderer;
 import org.baseagent.sim.Simulation;
 
 import javafx.application.Application;
@@ -20,38 +18,98 @@ import javafx.stage.Stage;
 
 public class Application3 extends Application {
 	
+	/** How the Game of Life patch is applied to the Grid */
+	public enum PatchMode {
+		/** The Simulation applies the patch to every cell */
+		SEQUENTIAL,
+		/** A ParallelPatch applies it to every cell, rows split across cores */
+		PARALLEL,
+		/** An ActivePatch applies it only around the cells that changed last step */
+		ACTIVE
+	}
+	
 	/** JavaFX Application launch */
 	public static void main(String[] args) {
 		launch(args);
 	}
 	
+	/** Builds the Game of Life model without any JavaFX; see {@link HeadlessRunner} */
+	public static Scenario scenario() {
+		return scenario(100, 100, PatchMode.SEQUENTIAL);
+	}
+	
+	/** Builds the Game of Life model at any size, applying the patch as the mode says */
+	public static Scenario scenario(int width, int height, PatchMode mode) {
+		return new Scenario((mode == PatchMode.SEQUENTIAL) ? "life" : "life-" + mode.name().toLowerCase(), width, height, 15000) {
+			@Override
+			protected Grid createWorld(Simulation simulation) {
+				// A Grid is the field that contains things.
+				// While a single Simulation may have multiple Grid objects, a Simulation has
+				// only one Universe, which is the primary space in which the simulation
+				// takes place. 
+				Grid grid = new Grid(getWidth(), getHeight());
+				grid.setUpdateOption(GridLayerUpdateOption.NEXT_BECOMES_CURRENT);
+				simulation.setUniverse(grid);
+				grid.fill("0");
+				grid.form("1", 20, 20, "OOO", "O..", ".O.");
+				
+				createExample(simulation, grid, getWidth(), getHeight(), mode);
+				return grid;
+			}
+		};
+	}
+	
+	/**
+	 * Builds the same Game of Life on a packed BitGrid, stepped a whole layer at a time by BitLife.
+	 * The cells live in the BitGrid, so the Universe only hosts the stepping agent.
+	 */
+	public static Scenario bitsScenario(int width, int height) {
+		return new Scenario("life-bits", width, height, 15000) {
+			private BitLife life;
+			
+			@Override
+			protected Grid createWorld(Simulation simulation) {
+				Grid grid = new Grid(1, 1);
+				simulation.setUniverse(grid);
+				
+				BitGrid cells = new BitGrid(getWidth(), getHeight());
+				cells.form(20, 20, "OOO", "O..", ".O.");
+				life = new BitLife(cells, LifeRule.CONWAY);
+				life.setPool(ForkJoinPool.commonPool());
+				simulation.add(life);
+				return grid;
+			}
+			
+			/** The cells are not in a GridLayer for a RunRecorder to watch */
+			@Override
+			public RunRecorder createRecorder(Path file) {
+				return null;
+			}
+			
+			@Override
+			public String summarize() {
+				return "generation " + life.getGeneration() + ", live cells " + life.getCurrent().count();
+			}
+		};
+	}
+	
 	/** JavaFX Application start method */
 	@Override
 	public void start(Stage primaryStage) throws IOException {
 		
 		// A Simulation object is the core of a BaseAgent simulation.
 		// Everything that will be simulated is added to the simulation.
-		// The following settings indicate the end condition for the simulation,
-		// and the delay between simulation steps, which helps make the visual display
-		// proceed slowly enough for the human observer to notice what is happening.
-		Simulation simulation = new Simulation();
-		simulation.endWhen(sim -> sim.getStepTime() == 15000);
+		// The Scenario sets the end condition for the simulation; the delay between simulation steps
+		// helps make the visual display proceed slowly enough for the human observer to notice what is happening.
+		Scenario scenario = scenario();
+		Simulation simulation = scenario.build();
 		simulation.setDelayAfterEachStep(100);
 		
-		// A Grid is the field that contains things.
-		// While a single Simulation may have multiple Grid objects, a Simulation has
-		// only one Universe, which is the primary space in which the simulation
-		// takes place. 
-		Grid grid = new Grid(100, 100);
-		grid.setUpdateOption(GridLayerUpdateOption.NEXT_BECOMES_CURRENT);
-		simulation.setUniverse(grid);
-		grid.fill("0");
-		grid.form("1", 20, 20, "OOO", "O..", ".O.");
-		
-		GridCanvas gridCanvas = new GridCanvas(grid, 5, 5, 1, 1);
+		// The whole layer is drawn as one image through a palette, rather than a fillRect per cell
+		PaletteGridCanvas gridCanvas = new PaletteGridCanvas(scenario.getGrid().getGridLayer(Grid.DEFAULT_GRID_LAYER), scenario.getWidth(), scenario.getHeight(), 5, 5);
 
 		
-		createExample(simulation, gridCanvas);
+		createRenderers(gridCanvas);
 		
 		// The code below is JavaFX code for displaying the simulation - which is mostly showing the GridCanvas
 		BorderPane borderPane = new BorderPane();
@@ -66,23 +124,19 @@ public class Application3 extends Application {
 		primaryStage.show();
 		
 		// Start the simulation!
+		gridCanvas.start();
 		simulation.start();
 	}
 
-	private void createExample(Simulation simulation, GridCanvas gridCanvas) {
+	private void createRenderers(PaletteGridCanvas gridCanvas) {
 //		gridCanvas.style.is("0").color(Color.BLACK);
 //		gridCanvas.style.is("1").color(Color.RED);
 		
-		gridCanvas.addGridLayerRenderer(new GridCellRenderer() {
-			@Override
-			public void drawCell(GridCanvasContext gcc, GridLayer layer, Object value, double xInPixels, double yInPixels, double widthInPixels, double heightInPixels) {
-				Color color = Color.LIGHTGRAY;
-				if ((value != null) && (value.equals("1"))) color = Color.RED;
-				gcc.getGraphicsContext().setFill(color);
-				gcc.getGraphicsContext().fillRect(xInPixels, yInPixels, widthInPixels, heightInPixels);
-			}
-		});
-		
+		gridCanvas.setOtherColor(Color.LIGHTGRAY);
+		gridCanvas.setColor("1", Color.RED);
+	}
+	
+	private static void createExample(Simulation simulation, Grid grid, int width, int height, PatchMode mode) {
 		// Game of Life patch
 		Patch patch = new Patch() {
 			@Override
@@ -108,7 +162,13 @@ public class Application3 extends Application {
 				}
 			}
 		};
-		simulation.add(patch);
+		switch (mode) {
+		// Each cell only reads the current buffer and writes its own cell of the next one, so rows can run on all cores
+		case PARALLEL : simulation.add(new ParallelPatch(patch, grid, width, height)); break;
+		// Each cell only depends on its 8 neighbors, so only the neighborhoods of changed cells need a visit
+		case ACTIVE : simulation.add(new ActivePatch(patch, grid, width, height)); break;
+		default : simulation.add(patch); break;
+		}
 		
 	}
 		
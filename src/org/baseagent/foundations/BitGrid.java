@@ -0,0 +1,128 @@
+package org.baseagent.foundations;
+
+import java.util.Arrays;
+
+import org.baseagent.grid.Grid;
+
+/**
+ * A grid of binary cells packed 64 to a long. Each row starts on a word boundary; bit (x % 64)
+ * of word (x / 64) holds cell x, and the unused bits at the end of a row are always zero.
+ * A BitGrid is the compact alternative to filling a Grid with "0" and "1" objects.
+ */
+public class BitGrid {
+	private final int width;
+	private final int height;
+	private final int wordsPerRow;
+	private final boolean wrap;
+	private final long[] words;
+
+	/** Creates a BitGrid whose edges are surrounded by dead cells */
+	public BitGrid(int width, int height) {
+		this(width, height, false);
+	}
+
+	/** Creates a BitGrid; if wrap is true, the left edge neighbors the right edge and the top neighbors the bottom */
+	public BitGrid(int width, int height, boolean wrap) {
+		this.width = width;
+		this.height = height;
+		this.wordsPerRow = (width + 63) >>> 6;
+		this.wrap = wrap;
+		this.words = new long[wordsPerRow * height];
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getWordsPerRow() {
+		return wordsPerRow;
+	}
+
+	public boolean isWrap() {
+		return wrap;
+	}
+
+	/** The backing words, row by row. Writers must keep the padding bits at the end of each row clear. */
+	public long[] getWords() {
+		return words;
+	}
+
+	/** A mask of the bits in the last word of a row that hold cells */
+	public long getLastWordMask() {
+		int used = width & 63;
+		return (used == 0) ? -1L : (1L << used) - 1;
+	}
+
+	public boolean get(int x, int y) {
+		return (words[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+	}
+
+	public void set(int x, int y, boolean alive) {
+		int index = y * wordsPerRow + (x >>> 6);
+		if (alive) {
+			words[index] |= (1L << x);
+		} else {
+			words[index] &= ~(1L << x);
+		}
+	}
+
+	public void clear() {
+		Arrays.fill(words, 0L);
+	}
+
+	/** The number of live cells */
+	public long count() {
+		long count = 0;
+		for (long word : words) {
+			count += Long.bitCount(word);
+		}
+		return count;
+	}
+
+	/** Sets cells the same way Grid.form does: each 'O' in the rows is alive, anything else is left alone */
+	public void form(int x, int y, String... rows) {
+		for (int r=0; r < rows.length; r++) {
+			for (int c=0; c < rows[r].length(); c++) {
+				if (rows[r].charAt(c) == 'O') set(x + c, y + r, true);
+			}
+		}
+	}
+
+	/** Loads the cells from the default layer of a Grid; a cell is alive if its value equals aliveValue */
+	public void copyFrom(Grid grid, Object aliveValue) {
+		for (int y=0; y < height; y++) {
+			for (int x=0; x < width; x++) {
+				set(x, y, aliveValue.equals(grid.get(x, y)));
+			}
+		}
+	}
+
+	/** Writes every cell into the default layer of a Grid */
+	public void copyTo(Grid grid, Object aliveValue, Object deadValue) {
+		for (int y=0; y < height; y++) {
+			for (int x=0; x < width; x++) {
+				grid.set(x, y, get(x, y) ? aliveValue : deadValue);
+			}
+		}
+	}
+
+	/** Writes only the cells that differ from another BitGrid of the same size into the default layer of a Grid */
+	public void copyChangesTo(BitGrid previous, Grid grid, Object aliveValue, Object deadValue) {
+		for (int y=0; y < height; y++) {
+			int rowStart = y * wordsPerRow;
+			for (int w=0; w < wordsPerRow; w++) {
+				long changed = words[rowStart + w] ^ previous.words[rowStart + w];
+				while (changed != 0) {
+					int bit = Long.numberOfTrailingZeros(changed);
+					changed &= changed - 1;
+					int x = (w << 6) + bit;
+					grid.set(x, y, ((words[rowStart + w] >>> bit) & 1L) != 0 ? aliveValue : deadValue);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package org.baseagent.foundations;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.baseagent.grid.Grid;
+import org.baseagent.grid.GridAgent;
+import org.baseagent.sim.Simulation;
+
+/**
+ * Steps a LifeRule over a whole BitGrid once per simulation step, keeping two BitGrids and
+ * swapping them the way a NEXT_BECOMES_CURRENT layer would. This replaces a Life Patch that is
+ * applied one cell at a time. If a Grid is mirrored, only the cells that changed are written to it.
+ */
+public class BitLife extends GridAgent {
+	private final LifeRule rule;
+	private BitGrid current;
+	private BitGrid next;
+	private long generation;
+	private ForkJoinPool pool;
+
+	private Grid mirror;
+	private Object aliveValue;
+	private Object deadValue;
+
+	public BitLife(BitGrid initial, LifeRule rule) {
+		this.rule = rule;
+		this.current = initial;
+		this.next = new BitGrid(initial.getWidth(), initial.getHeight(), initial.isWrap());
+	}
+
+	/** Keeps the default layer of a Grid in step with the cells, for example so a GridCanvas can draw them */
+	public void mirrorTo(Grid grid, Object aliveValue, Object deadValue) {
+		this.mirror = grid;
+		this.aliveValue = aliveValue;
+		this.deadValue = deadValue;
+		current.copyTo(grid, aliveValue, deadValue);
+	}
+
+	/** Splits each generation's rows across the given pool; null (the default) steps on the simulation thread */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	@Override
+	public void step(Simulation simulation) {
+		advance();
+	}
+
+	/** Computes the next generation and makes it current */
+	public void advance() {
+		BitGrid from = current;
+		BitGrid to = next;
+		RowBands.run(pool, from.getHeight(), (fromRow, toRow) -> rule.stepRows(from, to, fromRow, toRow));
+		if (mirror != null) next.copyChangesTo(current, mirror, aliveValue, deadValue);
+		BitGrid previous = current;
+		current = next;
+		next = previous;
+		generation++;
+	}
+
+	public LifeRule getRule() {
+		return rule;
+	}
+
+	public BitGrid getCurrent() {
+		return current;
+	}
+
+	public long getGeneration() {
+		return generation;
+	}
+}
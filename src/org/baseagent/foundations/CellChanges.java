@@ -0,0 +1,53 @@
+package org.baseagent.foundations;
+
+/**
+ * Records which cells of a grid changed, so that a display can redraw just those. The simulation
+ * thread marks cells as it writes them; the display thread takes everything marked since its last
+ * frame with {@link #take()}. Marks go into one CellSet while the display reads the other, and
+ * the two are swapped under a lock, so neither side allocates or copies.
+ */
+public class CellChanges {
+	private CellSet marking;
+	private CellSet taken;
+	private boolean all = true;
+
+	public CellChanges(int width, int height) {
+		this.marking = new CellSet(width, height);
+		this.taken = new CellSet(width, height);
+	}
+
+	public int getWidth() {
+		return marking.getWidth();
+	}
+
+	public int getHeight() {
+		return marking.getHeight();
+	}
+
+	/** Marks a cell as changed; cells off the grid are ignored */
+	public synchronized void mark(int x, int y) {
+		if ((x < 0) || (y < 0) || (x >= marking.getWidth()) || (y >= marking.getHeight())) return;
+		marking.add(x, y);
+	}
+
+	/** Marks the whole grid as changed, for example after a fill */
+	public synchronized void markAll() {
+		all = true;
+	}
+
+	/**
+	 * The cells marked since the last take, or null if the whole grid has been marked since then. The
+	 * set belongs to the caller until the next take.
+	 */
+	public synchronized CellSet take() {
+		CellSet changed = marking;
+		marking = taken;
+		marking.clear();
+		taken = changed;
+		if (all) {
+			all = false;
+			return null;
+		}
+		return taken;
+	}
+}
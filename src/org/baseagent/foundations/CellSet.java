@@ -0,0 +1,95 @@
+package org.baseagent.foundations;
+
+/**
+ * A set of cells of a width x height grid, held both as a bitmap (for membership) and as a list
+ * (for iteration), so adding, iterating and clearing cost only as much as the cells in the set.
+ * Cells are identified by their index, y * width + x. Nothing is allocated after construction.
+ */
+public class CellSet {
+	private final int width;
+	private final int height;
+	private final long[] bits;
+	private final int[] members;
+	private int size;
+
+	public CellSet(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.bits = new long[(width * height + 63) >>> 6];
+		this.members = new int[width * height];
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public void add(int x, int y) {
+		addIndex(y * width + x);
+	}
+
+	public void addIndex(int index) {
+		long mask = 1L << index;
+		int word = index >>> 6;
+		if ((bits[word] & mask) == 0) {
+			bits[word] |= mask;
+			members[size++] = index;
+		}
+	}
+
+	/** Adds every cell within radius of (x, y), clipped to the edges or wrapped around them */
+	public void addNeighborhood(int x, int y, int radius, boolean wrap) {
+		for (int dy=-radius; dy <= radius; dy++) {
+			int ny = y + dy;
+			if (wrap) {
+				ny = Math.floorMod(ny, height);
+			} else if ((ny < 0) || (ny >= height)) {
+				continue;
+			}
+			for (int dx=-radius; dx <= radius; dx++) {
+				int nx = x + dx;
+				if (wrap) {
+					nx = Math.floorMod(nx, width);
+				} else if ((nx < 0) || (nx >= width)) {
+					continue;
+				}
+				addIndex(ny * width + nx);
+			}
+		}
+	}
+
+	public void addAll() {
+		clear();
+		for (int i=0; i < width * height; i++) {
+			addIndex(i);
+		}
+	}
+
+	public boolean contains(int x, int y) {
+		int index = y * width + x;
+		return (bits[index >>> 6] & (1L << index)) != 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/** The index of the i'th cell added since the last clear, for 0 &lt;= i &lt; size() */
+	public int getIndex(int i) {
+		return members[i];
+	}
+
+	public void clear() {
+		for (int i=0; i < size; i++) {
+			bits[members[i] >>> 6] = 0L;
+		}
+		size = 0;
+	}
+}
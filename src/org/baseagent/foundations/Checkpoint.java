@@ -0,0 +1,771 @@
+package org.baseagent.foundations;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import org.baseagent.grid.GridAgent;
+import org.baseagent.grid.GridLayer;
+import org.baseagent.sim.Simulation;
+
+/**
+ * Saves the state of a running simulation to a compact binary file, and puts it back, so that a long
+ * run can be resumed: grid layers, the cells, headings, grids, random streams and knowledge of agents,
+ * KnowledgeTables, and TimedStateMachines with their pending transitions.
+ * Each layer is stored as runs of equal cells over a dictionary of the values it holds, so a layer of
+ * "0"s and "1"s costs a few bytes per run rather than an object per cell.
+ *
+ * A save is captured at the end of the step on which it was asked for, which is the only pause the
+ * simulation sees: encoding and writing happen on a background thread, through a FileChannel, into a
+ * temporary file that replaces the checkpoint only once complete. Large layers can be captured in
+ * row bands across a fork-join pool, as ParallelPatch steps them. Restoring maps the file into memory.
+ * A restore asked for with {@link #requestRestore} is applied at the end of the next step, so it can
+ * come from any thread mid-run.
+ *
+ * The Simulation's step time cannot be set, so after a restore the Checkpoint, and each restored
+ * state machine, keeps its own clock that carries on from the step saved; a model that keeps step
+ * times should read them from its state machine. Layer values and knowledge must be null, Strings,
+ * Booleans, Integers, Longs or Doubles. Add the Checkpoint to the Simulation after everything it
+ * watches.
+ */
+public class Checkpoint extends GridAgent {
+	private static final int MAGIC = 0x42414350;
+	private static final int VERSION = 2;
+	private static final byte NULL = 0, STRING = 1, BOOLEAN = 2, INTEGER = 3, LONG = 4, DOUBLE = 5;
+	private static final byte BOOLEAN_COLUMN = 0, LONG_COLUMN = 1, DOUBLE_COLUMN = 2;
+	private static final int HEADINGS = 1, KNOWLEDGE = 2, GRIDS = 4, RANDOM = 8;
+
+	/** Reads and sets an agent's heading, which GridAgent does not expose here */
+	public interface Heading {
+		int get(GridAgent agent);
+
+		void set(GridAgent agent, int heading);
+	}
+
+	/** Reads the name of the grid an agent is on, and warps it there, which GridAgent does not expose here */
+	public interface GridName {
+		String get(GridAgent agent);
+
+		void set(GridAgent agent, String gridName);
+	}
+
+	private final int width;
+	private final int height;
+	private final List<GridLayer> layers = new ArrayList<>();
+	private final List<GridAgent> agents = new ArrayList<>();
+	private final Map<String, KnowledgeTable> tables = new LinkedHashMap<>();
+	private final Map<String, TimedStateMachine<?>> machines = new LinkedHashMap<>();
+	private Heading heading;
+	private GridName gridName;
+	private Function<GridAgent, RandomStreams.Stream> randomOf;
+	private boolean knowledge;
+	private ForkJoinPool pool;
+
+	private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "checkpoint-writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private volatile Path saveTo;
+	private volatile Path restoreFrom;
+	private volatile Future<?> lastWrite;
+	private volatile long lastCaptureNanos;
+	private volatile long lastWriteNanos;
+	private volatile long lastBytes;
+	private long restoredStepTime = -1;
+	private long resumeAt = -1;
+	private long clockOffset;
+
+	/** One layer, captured as runs of dictionary codes */
+	private static class LayerFrame {
+		final String name;
+		final List<Object> dictionary = new ArrayList<>();
+		int[] codes = new int[16];
+		int[] lengths = new int[16];
+		int runs;
+
+		LayerFrame(String name) {
+			this.name = name;
+		}
+
+		void addRun(int code, int length) {
+			if (runs == codes.length) {
+				codes = Arrays.copyOf(codes, runs * 2);
+				lengths = Arrays.copyOf(lengths, runs * 2);
+			}
+			codes[runs] = code;
+			lengths[runs] = length;
+			runs++;
+		}
+	}
+
+	/** Everything a save holds, copied off the simulation so that it can be written while stepping goes on */
+	private static class Frame {
+		long stepTime;
+		final List<LayerFrame> layers = new ArrayList<>();
+		int[] agentX;
+		int[] agentY;
+		int[] headings;
+		String[] grids;
+		long[] randomStates;
+		List<Map<String, Object>> knowledge;
+		final List<String> tableNames = new ArrayList<>();
+		final List<Integer> tableRows = new ArrayList<>();
+		final List<List<KnowledgeTable.Column>> tableColumns = new ArrayList<>();
+		final List<List<Object>> tableValues = new ArrayList<>();
+		final List<String> machineNames = new ArrayList<>();
+		final List<TimedStateMachine.Snapshot> machineSnapshots = new ArrayList<>();
+	}
+
+	public Checkpoint(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	/** A width x height layer to save and restore */
+	public void watch(GridLayer layer) {
+		layers.add(layer);
+	}
+
+	/** An agent whose cell, and optionally heading and knowledge, are saved and restored */
+	public void addAgent(GridAgent agent) {
+		agents.add(agent);
+	}
+
+	/** Saves agents' headings through heading; without one, headings are not saved */
+	public void setHeading(Heading heading) {
+		this.heading = heading;
+	}
+
+	/** Saves the grid each agent is on through gridName, and warps it back there on a restore */
+	public void setGridName(GridName gridName) {
+		this.gridName = gridName;
+	}
+
+	/** Saves the state of each agent's random stream, as randomOf finds it, so that a resumed run draws what the original would have */
+	public void setRandom(Function<GridAgent, RandomStreams.Stream> randomOf) {
+		this.randomOf = randomOf;
+	}
+
+	/** Whether to save each agent's knowledge map; off by default, for models that keep knowledge in tables */
+	public void setSaveKnowledge(boolean knowledge) {
+		this.knowledge = knowledge;
+	}
+
+	/** Captures layers in row bands on pool; null, the default, captures on the simulation thread */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/** A table saved under a name, and restored into the table added under the same name */
+	public void addTable(String name, KnowledgeTable table) {
+		tables.put(name, table);
+	}
+
+	/** A state machine saved under a name, with each row's pending transition, and restored into the machine added under the same name */
+	public void addStateMachine(String name, TimedStateMachine<?> machine) {
+		machines.put(name, machine);
+	}
+
+	/** Saves to file at the end of the next step */
+	public void requestSave(Path file) {
+		saveTo = file;
+	}
+
+	/** Restores from file at the end of the next step */
+	public void requestRestore(Path file) {
+		restoreFrom = file;
+	}
+
+	/** Waits for the last save to be written, and reports it if it failed */
+	public void awaitWritten() throws IOException, InterruptedException {
+		Future<?> write = lastWrite;
+		if (write == null) return;
+		try {
+			write.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException)e.getCause();
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/** How long the last save held up the step it was captured on, in nanoseconds */
+	public long getLastCaptureNanos() {
+		return lastCaptureNanos;
+	}
+
+	/** How long the last save took to encode and write, in the background */
+	public long getLastWriteNanos() {
+		return lastWriteNanos;
+	}
+
+	public long getLastBytes() {
+		return lastBytes;
+	}
+
+	/** The step the last checkpoint restored was saved on, counted from the start of the original run, or -1 */
+	public long getRestoredStepTime() {
+		return restoredStepTime;
+	}
+
+	/** Stops the writer thread once any saves still queued are written */
+	public void shutdown() {
+		writer.shutdown();
+	}
+
+	@Override
+	public void step(Simulation simulation) {
+		if (resumeAt >= 0) {
+			// Restored directly, between steps, so this is the step after the one saved
+			clockOffset = resumeAt - simulation.getStepTime();
+			resumeAt = -1;
+		}
+		Path restore = restoreFrom;
+		if (restore != null) {
+			restoreFrom = null;
+			try {
+				restore(restore);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			clockOffset = restoredStepTime - simulation.getStepTime();
+			resumeAt = -1;
+		}
+		Path save = saveTo;
+		if (save != null) {
+			saveTo = null;
+			Frame frame = capture(simulation.getStepTime() + clockOffset);
+			lastWrite = writer.submit(() -> {
+				write(frame, save);
+				return null;
+			});
+		}
+	}
+
+	private Frame capture(long stepTime) {
+		long start = System.nanoTime();
+		Frame frame = new Frame();
+		frame.stepTime = stepTime;
+		for (GridLayer layer : layers) {
+			frame.layers.add(captureLayer(layer));
+		}
+
+		int count = agents.size();
+		frame.agentX = new int[count];
+		frame.agentY = new int[count];
+		if (heading != null) frame.headings = new int[count];
+		if (gridName != null) frame.grids = new String[count];
+		if (randomOf != null) frame.randomStates = new long[count];
+		if (knowledge) frame.knowledge = new ArrayList<>(count);
+		for (int i=0; i < count; i++) {
+			GridAgent agent = agents.get(i);
+			frame.agentX[i] = agent.getCellX();
+			frame.agentY[i] = agent.getCellY();
+			if (heading != null) frame.headings[i] = heading.get(agent);
+			if (gridName != null) frame.grids[i] = gridName.get(agent);
+			if (randomOf != null) frame.randomStates[i] = randomOf.apply(agent).getState();
+			if (knowledge) {
+				Map<String, Object> known = agent.getKnowledge();
+				Map<String, Object> copy = ((known == null) || known.isEmpty()) ? Collections.emptyMap() : new HashMap<>(known);
+				for (Object value : copy.values()) {
+					checkValue(value);
+				}
+				frame.knowledge.add(copy);
+			}
+		}
+
+		for (Map.Entry<String, KnowledgeTable> entry : tables.entrySet()) {
+			KnowledgeTable table = entry.getValue();
+			List<KnowledgeTable.Column> columns = new ArrayList<>();
+			List<Object> values = new ArrayList<>();
+			for (KnowledgeTable.Column column : table.getColumns()) {
+				columns.add(column);
+				if (column instanceof KnowledgeTable.BooleanColumn) values.add(((KnowledgeTable.BooleanColumn)column).copyWords(table.size()));
+				else if (column instanceof KnowledgeTable.LongColumn) values.add(((KnowledgeTable.LongColumn)column).copyValues(table.size()));
+				else values.add(((KnowledgeTable.DoubleColumn)column).copyValues(table.size()));
+			}
+			frame.tableNames.add(entry.getKey());
+			frame.tableRows.add(table.size());
+			frame.tableColumns.add(columns);
+			frame.tableValues.add(values);
+		}
+		for (Map.Entry<String, TimedStateMachine<?>> entry : machines.entrySet()) {
+			frame.machineNames.add(entry.getKey());
+			frame.machineSnapshots.add(entry.getValue().snapshot());
+		}
+		lastCaptureNanos = System.nanoTime() - start;
+		return frame;
+	}
+
+	private LayerFrame captureLayer(GridLayer layer) {
+		int bands = (pool == null) ? 1 : Math.max(1, Math.min(height, pool.getParallelism() * 4));
+		LayerFrame[] parts = new LayerFrame[bands];
+		RowBands.run(pool, bands, (fromBand, toBand) -> {
+			for (int band=fromBand; band < toBand; band++) {
+				parts[band] = captureRows(layer, (int)((long)height * band / bands), (int)((long)height * (band + 1) / bands));
+			}
+		});
+		if (bands == 1) return parts[0];
+
+		// Each band has its own dictionary, so its codes are renumbered into one, and runs that meet across bands are joined
+		LayerFrame frame = new LayerFrame(layer.getLayerName());
+		Map<Object, Integer> codes = new HashMap<>();
+		int lastCode = -1;
+		int run = 0;
+		for (LayerFrame part : parts) {
+			int[] renumbered = new int[part.dictionary.size()];
+			for (int i=0; i < renumbered.length; i++) {
+				Object value = part.dictionary.get(i);
+				Integer code = codes.get(value);
+				if (code == null) {
+					code = frame.dictionary.size();
+					codes.put(value, code);
+					frame.dictionary.add(value);
+				}
+				renumbered[i] = code;
+			}
+			for (int r=0; r < part.runs; r++) {
+				int code = renumbered[part.codes[r]];
+				if (code == lastCode) {
+					run += part.lengths[r];
+				} else {
+					if (run > 0) frame.addRun(lastCode, run);
+					lastCode = code;
+					run = part.lengths[r];
+				}
+			}
+		}
+		if (run > 0) frame.addRun(lastCode, run);
+		return frame;
+	}
+
+	private LayerFrame captureRows(GridLayer layer, int fromRow, int toRow) {
+		LayerFrame frame = new LayerFrame(layer.getLayerName());
+		Map<Object, Integer> codes = new HashMap<>();
+		// Neighboring cells mostly hold the very same value object, so the last lookup is reused
+		Object lastValue = frame;
+		int lastCode = -1;
+		int run = 0;
+		for (int y=fromRow; y < toRow; y++) {
+			for (int x=0; x < width; x++) {
+				Object value = layer.get(x, y);
+				if (value != lastValue) {
+					Integer code = codes.get(value);
+					if (code == null) {
+						checkValue(value);
+						code = frame.dictionary.size();
+						codes.put(value, code);
+						frame.dictionary.add(value);
+					}
+					lastValue = value;
+					if (code != lastCode) {
+						if (run > 0) frame.addRun(lastCode, run);
+						lastCode = code;
+						run = 0;
+					}
+				}
+				run++;
+			}
+		}
+		if (run > 0) frame.addRun(lastCode, run);
+		return frame;
+	}
+
+	private void write(Frame frame, Path file) throws IOException {
+		long start = System.nanoTime();
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (Output out = new Output(FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))) {
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			out.putLong(frame.stepTime);
+			out.putVarint(width);
+			out.putVarint(height);
+
+			out.putVarint(frame.layers.size());
+			for (LayerFrame layer : frame.layers) {
+				out.putString(layer.name);
+				out.putVarint(layer.dictionary.size());
+				for (Object value : layer.dictionary) {
+					out.putValue(value);
+				}
+				out.putVarint(layer.runs);
+				for (int i=0; i < layer.runs; i++) {
+					out.putVarint(layer.codes[i]);
+					out.putVarint(layer.lengths[i]);
+				}
+			}
+
+			int count = frame.agentX.length;
+			out.putVarint(count);
+			out.putVarint(((frame.headings != null) ? HEADINGS : 0) | ((frame.knowledge != null) ? KNOWLEDGE : 0)
+				| ((frame.grids != null) ? GRIDS : 0) | ((frame.randomStates != null) ? RANDOM : 0));
+			for (int i=0; i < count; i++) {
+				out.putSignedVarint(frame.agentX[i]);
+				out.putSignedVarint(frame.agentY[i]);
+				if (frame.headings != null) out.putSignedVarint(frame.headings[i]);
+				if (frame.grids != null) out.putString(frame.grids[i]);
+				if (frame.randomStates != null) out.putLong(frame.randomStates[i]);
+				if (frame.knowledge != null) {
+					out.putVarint(frame.knowledge.get(i).size());
+					for (Map.Entry<String, Object> entry : frame.knowledge.get(i).entrySet()) {
+						out.putString(entry.getKey());
+						out.putValue(entry.getValue());
+					}
+				}
+			}
+
+			out.putVarint(frame.tableNames.size());
+			for (int t=0; t < frame.tableNames.size(); t++) {
+				out.putString(frame.tableNames.get(t));
+				out.putVarint(frame.tableRows.get(t));
+				List<KnowledgeTable.Column> columns = frame.tableColumns.get(t);
+				out.putVarint(columns.size());
+				for (int c=0; c < columns.size(); c++) {
+					out.putString(columns.get(c).getName());
+					Object values = frame.tableValues.get(t).get(c);
+					if (values instanceof double[]) {
+						out.putByte(DOUBLE_COLUMN);
+						double[] doubles = (double[])values;
+						out.putVarint(doubles.length);
+						for (double value : doubles) {
+							out.putDouble(value);
+						}
+					} else {
+						out.putByte((columns.get(c) instanceof KnowledgeTable.BooleanColumn) ? BOOLEAN_COLUMN : LONG_COLUMN);
+						long[] longs = (long[])values;
+						out.putVarint(longs.length);
+						for (long value : longs) {
+							out.putLong(value);
+						}
+					}
+				}
+			}
+
+			out.putVarint(frame.machineNames.size());
+			for (int m=0; m < frame.machineNames.size(); m++) {
+				TimedStateMachine.Snapshot snapshot = frame.machineSnapshots.get(m);
+				out.putString(frame.machineNames.get(m));
+				out.putLong(snapshot.next);
+				out.putVarint(snapshot.size());
+				for (int row=0; row < snapshot.size(); row++) {
+					out.putByte(snapshot.states[row]);
+					// -1 for a row waiting on no transition, so it is written one up
+					out.putVarint(snapshot.transitions[row] + 1);
+					if (snapshot.transitions[row] >= 0) out.putLong(snapshot.due[row]);
+				}
+			}
+			out.finish();
+			lastBytes = out.bytes;
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		lastWriteNanos = System.nanoTime() - start;
+	}
+
+	/** Restores from file now; call while the simulation is not stepping, or use {@link #requestRestore} */
+	public void restore(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) throw new IOException("Checkpoint too large to map: " + file);
+			ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if ((in.getInt() != MAGIC) || (in.getInt() != VERSION)) throw new IOException("Not a version " + VERSION + " checkpoint: " + file);
+			long stepTime = in.getLong();
+			if ((getVarint(in) != width) || (getVarint(in) != height)) throw new IOException("Checkpoint is not of a " + width + "x" + height + " world: " + file);
+
+			if (getVarint(in) != layers.size()) throw new IOException("Checkpoint does not hold " + layers.size() + " layers: " + file);
+			for (GridLayer layer : layers) {
+				restoreLayer(in, layer, file);
+			}
+
+			int count = getVarint(in);
+			if (count != agents.size()) throw new IOException("Checkpoint holds " + count + " agents, not " + agents.size() + ": " + file);
+			int flags = getVarint(in);
+			for (int a=0; a < count; a++) {
+				GridAgent agent = agents.get(a);
+				int x = getSignedVarint(in);
+				int y = getSignedVarint(in);
+				int savedHeading = ((flags & HEADINGS) != 0) ? getSignedVarint(in) : 0;
+				String savedGrid = ((flags & GRIDS) != 0) ? getString(in) : null;
+				if (((flags & GRIDS) != 0) && (gridName != null) && !Objects.equals(savedGrid, gridName.get(agent))) gridName.set(agent, savedGrid);
+				agent.placeAt(x, y);
+				if (((flags & HEADINGS) != 0) && (heading != null)) heading.set(agent, savedHeading);
+				if ((flags & RANDOM) != 0) {
+					long state = in.getLong();
+					if (randomOf != null) randomOf.apply(agent).setState(state);
+				}
+				if ((flags & KNOWLEDGE) != 0) {
+					int entries = getVarint(in);
+					Map<String, Object> restored = agent.getKnowledge();
+					if (restored == null) {
+						if (entries > 0) throw new IOException("Agent " + a + " has no knowledge map to restore " + entries + " entries into: " + file);
+					} else {
+						restored.clear();
+						for (int i=0; i < entries; i++) {
+							restored.put(getString(in), getValue(in));
+						}
+					}
+				}
+			}
+
+			int tableCount = getVarint(in);
+			for (int t=0; t < tableCount; t++) {
+				restoreTable(in, file);
+			}
+
+			int machineCount = getVarint(in);
+			for (int m=0; m < machineCount; m++) {
+				restoreMachine(in, file);
+			}
+			restoredStepTime = stepTime;
+			resumeAt = stepTime + 1;
+		}
+	}
+
+	private void restoreLayer(ByteBuffer in, GridLayer layer, Path file) throws IOException {
+		String name = getString(in);
+		if (!Objects.equals(name, layer.getLayerName())) throw new IOException("Checkpoint holds layer " + name + " where " + layer.getLayerName() + " was expected: " + file);
+		Object[] dictionary = new Object[getVarint(in)];
+		for (int i=0; i < dictionary.length; i++) {
+			dictionary[i] = getValue(in);
+		}
+		int runs = getVarint(in);
+		int x = 0;
+		int y = 0;
+		for (int r=0; r < runs; r++) {
+			Object value = dictionary[getVarint(in)];
+			int length = getVarint(in);
+			for (int i=0; i < length; i++) {
+				if (y >= height) throw new IOException("Layer " + name + " runs past the end of the grid: " + file);
+				layer.set(x, y, value);
+				if (++x == width) {
+					x = 0;
+					y++;
+				}
+			}
+		}
+		if (y != height) throw new IOException("Layer " + name + " ends before the end of the grid: " + file);
+	}
+
+	private void restoreTable(ByteBuffer in, Path file) throws IOException {
+		String name = getString(in);
+		KnowledgeTable table = tables.get(name);
+		if (table == null) throw new IOException("Checkpoint holds table " + name + ", which was not added: " + file);
+		int rows = getVarint(in);
+		if (table.size() > rows) throw new IOException("Table " + name + " has " + table.size() + " rows, more than the " + rows + " saved: " + file);
+		while (table.size() < rows) {
+			table.addRow();
+		}
+		int columns = getVarint(in);
+		for (int c=0; c < columns; c++) {
+			String columnName = getString(in);
+			KnowledgeTable.Column column = table.getColumn(columnName);
+			byte type = in.get();
+			int length = getVarint(in);
+			boolean matches = (type == BOOLEAN_COLUMN) ? (column instanceof KnowledgeTable.BooleanColumn)
+				: (type == LONG_COLUMN) ? (column instanceof KnowledgeTable.LongColumn)
+				: (column instanceof KnowledgeTable.DoubleColumn);
+			if (!matches) throw new IOException("Column " + columnName + " of table " + name + " is missing or of another type: " + file);
+			if (type == DOUBLE_COLUMN) {
+				double[] values = new double[length];
+				in.asDoubleBuffer().get(values);
+				in.position(in.position() + length * Double.BYTES);
+				((KnowledgeTable.DoubleColumn)column).setValues(values);
+			} else {
+				long[] values = new long[length];
+				in.asLongBuffer().get(values);
+				in.position(in.position() + length * Long.BYTES);
+				if (type == BOOLEAN_COLUMN) ((KnowledgeTable.BooleanColumn)column).setWords(values); else ((KnowledgeTable.LongColumn)column).setValues(values);
+			}
+		}
+	}
+
+	private void restoreMachine(ByteBuffer in, Path file) throws IOException {
+		String name = getString(in);
+		TimedStateMachine<?> machine = machines.get(name);
+		if (machine == null) throw new IOException("Checkpoint holds state machine " + name + ", which was not added: " + file);
+		long next = in.getLong();
+		int rows = getVarint(in);
+		byte[] states = new byte[rows];
+		int[] transitions = new int[rows];
+		long[] due = new long[rows];
+		for (int row=0; row < rows; row++) {
+			states[row] = in.get();
+			transitions[row] = getVarint(in) - 1;
+			due[row] = (transitions[row] >= 0) ? in.getLong() : TimedStateMachine.NEVER;
+		}
+		try {
+			machine.restore(new TimedStateMachine.Snapshot(next, states, transitions, due));
+		} catch (IllegalArgumentException e) {
+			throw new IOException("State machine " + name + " does not match the checkpoint: " + file, e);
+		}
+	}
+
+	private static void checkValue(Object value) {
+		if ((value == null) || (value instanceof String) || (value instanceof Boolean) || (value instanceof Integer) || (value instanceof Long) || (value instanceof Double)) return;
+		throw new IllegalArgumentException("Cannot checkpoint a " + value.getClass().getName() + ": " + value);
+	}
+
+	private static int getVarint(ByteBuffer in) {
+		int value = 0;
+		for (int shift=0; ; shift += 7) {
+			byte b = in.get();
+			value |= (b & 0x7f) << shift;
+			if (b >= 0) return value;
+		}
+	}
+
+	private static int getSignedVarint(ByteBuffer in) {
+		int zigzag = getVarint(in);
+		return (zigzag >>> 1) ^ -(zigzag & 1);
+	}
+
+	private static String getString(ByteBuffer in) {
+		int length = getVarint(in) - 1;
+		if (length < 0) return null;
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		// Interned, so restored cells share the literals the model compares them with
+		return new String(bytes, StandardCharsets.UTF_8).intern();
+	}
+
+	private static Object getValue(ByteBuffer in) throws IOException {
+		byte tag = in.get();
+		switch (tag) {
+		case NULL: return null;
+		case STRING: return getString(in);
+		case BOOLEAN: return in.get() != 0;
+		case INTEGER: return in.getInt();
+		case LONG: return in.getLong();
+		case DOUBLE: return in.getDouble();
+		default: throw new IOException("Unknown value tag " + tag);
+		}
+	}
+
+	/** Buffers writes to a channel */
+	private static class Output implements Closeable {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+		long bytes;
+
+		Output(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		void putByte(byte value) throws IOException {
+			ensure(1);
+			buffer.put(value);
+		}
+
+		void putInt(int value) throws IOException {
+			ensure(Integer.BYTES);
+			buffer.putInt(value);
+		}
+
+		void putLong(long value) throws IOException {
+			ensure(Long.BYTES);
+			buffer.putLong(value);
+		}
+
+		void putDouble(double value) throws IOException {
+			ensure(Double.BYTES);
+			buffer.putDouble(value);
+		}
+
+		void putVarint(int value) throws IOException {
+			ensure(5);
+			while ((value & ~0x7f) != 0) {
+				buffer.put((byte)((value & 0x7f) | 0x80));
+				value >>>= 7;
+			}
+			buffer.put((byte)value);
+		}
+
+		void putSignedVarint(int value) throws IOException {
+			putVarint((value << 1) ^ (value >> 31));
+		}
+
+		/** Null is written as length 0, and every other string as its length plus one */
+		void putString(String value) throws IOException {
+			if (value == null) {
+				putVarint(0);
+				return;
+			}
+			byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+			putVarint(encoded.length + 1);
+			if (encoded.length > buffer.capacity()) {
+				flush();
+				ByteBuffer large = ByteBuffer.wrap(encoded);
+				while (large.hasRemaining()) {
+					bytes += channel.write(large);
+				}
+				return;
+			}
+			ensure(encoded.length);
+			buffer.put(encoded);
+		}
+
+		void putValue(Object value) throws IOException {
+			if (value == null) {
+				putByte(NULL);
+			} else if (value instanceof String) {
+				putByte(STRING);
+				putString((String)value);
+			} else if (value instanceof Boolean) {
+				putByte(BOOLEAN);
+				putByte((byte)(((Boolean)value) ? 1 : 0));
+			} else if (value instanceof Integer) {
+				putByte(INTEGER);
+				putInt((Integer)value);
+			} else if (value instanceof Long) {
+				putByte(LONG);
+				putLong((Long)value);
+			} else {
+				putByte(DOUBLE);
+				putDouble((Double)value);
+			}
+		}
+
+		/** Writes out what is buffered and forces it to disk */
+		void finish() throws IOException {
+			flush();
+			channel.force(false);
+		}
+
+		private void ensure(int needed) throws IOException {
+			if (buffer.remaining() < needed) flush();
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				bytes += channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package org.baseagent.foundations;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+import org.baseagent.grid.GridAgent;
+import org.baseagent.sim.Simulation;
+
+/**
+ * A broad phase for GridAgent.onCollision: every registered agent is kept in a bucket for the cell it
+ * occupies, and once per step each agent is told about the others sharing its cell. The buckets are
+ * linked lists threaded through int arrays, and an agent is only relinked when its cell changed, so a
+ * step costs time linear in the number of agents instead of testing all pairs.
+ *
+ * Add the CollisionIndex to the Simulation after the agents, so it runs once they have moved.
+ */
+public class CollisionIndex extends GridAgent {
+	private static final int NONE = -1;
+
+	private final int width;
+	private final int height;
+	private final int[] head;
+
+	private GridAgent[] agents = new GridAgent[16];
+	private int[] cellOf = new int[16];
+	private int[] next = new int[16];
+	private int[] previous = new int[16];
+	private int count;
+
+	private Predicate<GridAgent> participating = agent -> true;
+	private long pairTests;
+	private long steps;
+
+	public CollisionIndex(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.head = new int[width * height];
+		Arrays.fill(head, NONE);
+	}
+
+	/** Registers an agent; it is bucketed at its current cell on the next step */
+	public void add(GridAgent agent) {
+		if (count == agents.length) {
+			int capacity = count * 2;
+			agents = Arrays.copyOf(agents, capacity);
+			cellOf = Arrays.copyOf(cellOf, capacity);
+			next = Arrays.copyOf(next, capacity);
+			previous = Arrays.copyOf(previous, capacity);
+		}
+		agents[count] = agent;
+		cellOf[count] = NONE;
+		count++;
+	}
+
+	/** Only agents passing the predicate collide; others (for example agents warped to another grid) are left out */
+	public void setParticipating(Predicate<GridAgent> participating) {
+		this.participating = participating;
+	}
+
+	@Override
+	public void step(Simulation simulation) {
+		// Move agents whose cell changed to their new bucket
+		for (int i=0; i < count; i++) {
+			GridAgent agent = agents[i];
+			int cell = NONE;
+			if (participating.test(agent)) {
+				int x = agent.getCellX();
+				int y = agent.getCellY();
+				if ((x >= 0) && (y >= 0) && (x < width) && (y < height)) cell = y * width + x;
+			}
+			if (cell != cellOf[i]) {
+				unlink(i);
+				link(i, cell);
+			}
+		}
+
+		// Tell every agent about the others in its cell
+		for (int i=0; i < count; i++) {
+			if (cellOf[i] == NONE) continue;
+			for (int j=head[cellOf[i]]; j != NONE; j=next[j]) {
+				if (j == i) continue;
+				pairTests++;
+				agents[i].onCollision(agents[i], agents[j]);
+			}
+		}
+		steps++;
+	}
+
+	private void unlink(int i) {
+		int cell = cellOf[i];
+		if (cell == NONE) return;
+		if (previous[i] != NONE) next[previous[i]] = next[i]; else head[cell] = next[i];
+		if (next[i] != NONE) previous[next[i]] = previous[i];
+		cellOf[i] = NONE;
+	}
+
+	private void link(int i, int cell) {
+		cellOf[i] = cell;
+		if (cell == NONE) return;
+		previous[i] = NONE;
+		next[i] = head[cell];
+		if (head[cell] != NONE) previous[head[cell]] = i;
+		head[cell] = i;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	/** Ordered pairs of agents examined so far; every one shared a cell and got an onCollision callback */
+	public long getPairTests() {
+		return pairTests;
+	}
+
+	/** Ordered pairs of agents examined so far if every step tested all pairs */
+	public long getAllPairsTests() {
+		return steps * count * (long)(count - 1);
+	}
+}
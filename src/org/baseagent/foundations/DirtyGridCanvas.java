@@ -0,0 +1,130 @@
+package org.baseagent.foundations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.baseagent.grid.GridAgent;
+import org.baseagent.grid.GridLayer;
+
+import javafx.animation.AnimationTimer;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+/**
+ * Draws a GridLayer, redrawing on each frame only the cells recorded in a CellChanges since the
+ * last frame, plus the cells the agents left and the cells they now stand on. Everything is painted
+ * only on the first frame, when the cell size or the painter changes, or when the whole grid has
+ * been marked as changed, so the cost of a frame follows how much changed instead of the grid area.
+ *
+ * Whatever writes to the layer must mark the cells it writes in the CellChanges.
+ */
+public class DirtyGridCanvas extends Canvas {
+	/** Paints one cell holding value into the rectangle given in pixels */
+	public interface CellPainter {
+		void paint(GraphicsContext gc, Object value, double xInPixels, double yInPixels, double widthInPixels, double heightInPixels);
+	}
+
+	private final GridLayer layer;
+	private final CellChanges changes;
+	private final int width;
+	private final int height;
+	private double cellWidth;
+	private double cellHeight;
+	private CellPainter painter = (gc, value, x, y, w, h) -> {};
+	private boolean repaintAll = true;
+
+	private final List<GridAgent> agents = new ArrayList<>();
+	private final List<Color> agentColors = new ArrayList<>();
+	private int[] drawnX = new int[0];
+	private int[] drawnY = new int[0];
+
+	private final AnimationTimer timer = new AnimationTimer() {
+		@Override
+		public void handle(long now) {
+			redraw();
+		}
+	};
+
+	public DirtyGridCanvas(GridLayer layer, CellChanges changes, double cellWidth, double cellHeight) {
+		this.layer = layer;
+		this.changes = changes;
+		this.width = changes.getWidth();
+		this.height = changes.getHeight();
+		setCellSize(cellWidth, cellHeight);
+	}
+
+	public void setCellPainter(CellPainter painter) {
+		this.painter = painter;
+		this.repaintAll = true;
+	}
+
+	public void setCellSize(double cellWidth, double cellHeight) {
+		this.cellWidth = cellWidth;
+		this.cellHeight = cellHeight;
+		setWidth(width * cellWidth);
+		setHeight(height * cellHeight);
+		this.repaintAll = true;
+	}
+
+	/** Draws the agent as a square of color on the cell it is on */
+	public void addAgent(GridAgent agent, Color color) {
+		agents.add(agent);
+		agentColors.add(color);
+		drawnX = Arrays.copyOf(drawnX, agents.size());
+		drawnY = Arrays.copyOf(drawnY, agents.size());
+		drawnX[agents.size() - 1] = -1;
+		drawnY[agents.size() - 1] = -1;
+	}
+
+	/** Starts redrawing on every JavaFX pulse */
+	public void start() {
+		timer.start();
+	}
+
+	public void stop() {
+		timer.stop();
+	}
+
+	/** Brings the canvas up to date with the layer; call on the JavaFX thread */
+	public void redraw() {
+		GraphicsContext gc = getGraphicsContext2D();
+		CellSet changed = changes.take();
+		if (repaintAll || (changed == null)) {
+			for (int y=0; y < height; y++) {
+				for (int x=0; x < width; x++) {
+					paintCell(gc, x, y);
+				}
+			}
+			repaintAll = false;
+		} else {
+			for (int i=0; i < changed.size(); i++) {
+				int index = changed.getIndex(i);
+				paintCell(gc, index % width, index / width);
+			}
+			// Uncover the cells the agents have left
+			for (int i=0; i < agents.size(); i++) {
+				if (drawnX[i] >= 0) paintCell(gc, drawnX[i], drawnY[i]);
+			}
+		}
+
+		for (int i=0; i < agents.size(); i++) {
+			GridAgent agent = agents.get(i);
+			int x = agent.getCellX();
+			int y = agent.getCellY();
+			if ((x < 0) || (y < 0) || (x >= width) || (y >= height)) {
+				drawnX[i] = -1;
+				continue;
+			}
+			gc.setFill(agentColors.get(i));
+			gc.fillRect(x * cellWidth, y * cellHeight, cellWidth, cellHeight);
+			drawnX[i] = x;
+			drawnY[i] = y;
+		}
+	}
+
+	private void paintCell(GraphicsContext gc, int x, int y) {
+		painter.paint(gc, layer.get(x, y), x * cellWidth, y * cellHeight, cellWidth, cellHeight);
+	}
+}
@@ -0,0 +1,444 @@
+package org.baseagent.foundations;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.baseagent.sim.Simulation;
+
+/**
+ * Runs a scenario many times: every combination of a grid of parameter values, each replicated with
+ * its own seed, as independent Simulations on a fixed pool of threads, one per core by default. Only
+ * aggregate statistics are kept. Each run records the scenario's observables every so many steps,
+ * and when it ends its trajectory is folded into the running mean, standard deviation, extremes
+ * and quantiles of its combination, then dropped, so memory does not grow with the number of runs.
+ * Quantiles are estimated with the P-square algorithm, five markers each.
+ *
+ * Parameters are set with Scenario.setProperty, so a scenario takes part by reading them from the
+ * simulation properties and by reporting observables. Replicate r of every combination has the same
+ * seed, drawn from the base seed and r alone, so combinations are compared on common random numbers.
+ *
+ * Usage: EnsembleRunner &lt;scenario&gt; &lt;replicates&gt; [steps] [NAME=value,value...]...
+ * writes the statistics as CSV to standard output, and runs per hour to standard error.
+ */
+public class EnsembleRunner {
+	private final Supplier<Scenario> factory;
+	private final List<String> parameterNames = new ArrayList<>();
+	private final List<Object[]> parameterValues = new ArrayList<>();
+	private int replicates = 1;
+	private long steps = -1;
+	private long observeEvery = 1;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private long seed;
+	private double[] quantiles = {0.05, 0.5, 0.95};
+
+	private final AtomicLong runsDone = new AtomicLong();
+	private volatile long startedAt;
+	private volatile long finishedAt;
+
+	/** The statistics of every run of one combination of parameter values */
+	public static class Point {
+		private final Map<String, Object> parameters;
+		private final String[] observables;
+		private final long observeEvery;
+		private final double[] quantiles;
+		private final Statistic[][] statistics;
+		private int runs;
+
+		Point(Map<String, Object> parameters, String[] observables, int samples, long observeEvery, double[] quantiles) {
+			this.parameters = parameters;
+			this.observables = observables;
+			this.observeEvery = observeEvery;
+			this.quantiles = quantiles;
+			this.statistics = new Statistic[observables.length][samples];
+			for (Statistic[] row : statistics) {
+				for (int s=0; s < samples; s++) {
+					row[s] = new Statistic(quantiles);
+				}
+			}
+		}
+
+		synchronized void add(double[][] trajectory) {
+			for (int s=0; s < trajectory.length; s++) {
+				for (int o=0; o < observables.length; o++) {
+					statistics[o][s].add(trajectory[s][o]);
+				}
+			}
+			runs++;
+		}
+
+		public Map<String, Object> getParameters() {
+			return parameters;
+		}
+
+		public String[] getObservableNames() {
+			return observables;
+		}
+
+		public synchronized int getRuns() {
+			return runs;
+		}
+
+		public int getSampleCount() {
+			return statistics.length == 0 ? 0 : statistics[0].length;
+		}
+
+		/** The step at which a sample was taken; sample 0 is the state as built */
+		public long getSampleStep(int sample) {
+			return sample * observeEvery;
+		}
+
+		public double[] getQuantileLevels() {
+			return quantiles.clone();
+		}
+
+		public synchronized double getMean(int observable, int sample) {
+			return statistics[observable][sample].mean;
+		}
+
+		public synchronized double getStandardDeviation(int observable, int sample) {
+			Statistic statistic = statistics[observable][sample];
+			return (statistic.count < 2) ? 0.0 : Math.sqrt(statistic.m2 / (statistic.count - 1));
+		}
+
+		public synchronized double getMin(int observable, int sample) {
+			return statistics[observable][sample].min;
+		}
+
+		public synchronized double getMax(int observable, int sample) {
+			return statistics[observable][sample].max;
+		}
+
+		/** The estimate of the quantile at index level of the quantile levels */
+		public synchronized double getQuantile(int observable, int sample, int level) {
+			return statistics[observable][sample].estimators[level].get();
+		}
+	}
+
+	/** Welford's running mean and variance, with extremes and quantile estimates */
+	private static class Statistic {
+		long count;
+		double mean;
+		double m2;
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		final Quantile[] estimators;
+
+		Statistic(double[] quantiles) {
+			estimators = new Quantile[quantiles.length];
+			for (int i=0; i < quantiles.length; i++) {
+				estimators[i] = new Quantile(quantiles[i]);
+			}
+		}
+
+		void add(double x) {
+			count++;
+			double delta = x - mean;
+			mean += delta / count;
+			m2 += delta * (x - mean);
+			min = Math.min(min, x);
+			max = Math.max(max, x);
+			for (Quantile estimator : estimators) {
+				estimator.add(x);
+			}
+		}
+	}
+
+	/** The P-square estimate of one quantile (Jain and Chlamtac, 1985), from five markers */
+	private static class Quantile {
+		final double p;
+		final double[] heights = new double[5];
+		final double[] positions = {0, 1, 2, 3, 4};
+		final double[] desired;
+		final double[] increments;
+		int count;
+
+		Quantile(double p) {
+			this.p = p;
+			this.desired = new double[] {0, 2 * p, 4 * p, 2 + 2 * p, 4};
+			this.increments = new double[] {0, p / 2, p, (1 + p) / 2, 1};
+		}
+
+		void add(double x) {
+			if (count < 5) {
+				heights[count++] = x;
+				if (count == 5) Arrays.sort(heights);
+				return;
+			}
+			count++;
+			int cell;
+			if (x < heights[0]) {
+				heights[0] = x;
+				cell = 0;
+			} else if (x >= heights[4]) {
+				heights[4] = Math.max(heights[4], x);
+				cell = 3;
+			} else {
+				cell = 0;
+				while (x >= heights[cell + 1]) cell++;
+			}
+			for (int i=cell + 1; i < 5; i++) {
+				positions[i]++;
+			}
+			for (int i=0; i < 5; i++) {
+				desired[i] += increments[i];
+			}
+			for (int i=1; i <= 3; i++) {
+				double d = desired[i] - positions[i];
+				if (((d >= 1) && (positions[i + 1] - positions[i] > 1)) || ((d <= -1) && (positions[i - 1] - positions[i] < -1))) {
+					int sign = (d >= 0) ? 1 : -1;
+					double parabolic = heights[i] + sign / (positions[i + 1] - positions[i - 1])
+						* ((positions[i] - positions[i - 1] + sign) * (heights[i + 1] - heights[i]) / (positions[i + 1] - positions[i])
+						+ (positions[i + 1] - positions[i] - sign) * (heights[i] - heights[i - 1]) / (positions[i] - positions[i - 1]));
+					if ((heights[i - 1] < parabolic) && (parabolic < heights[i + 1])) {
+						heights[i] = parabolic;
+					} else {
+						heights[i] += sign * (heights[i + sign] - heights[i]) / (positions[i + sign] - positions[i]);
+					}
+					positions[i] += sign;
+				}
+			}
+		}
+
+		double get() {
+			if (count == 0) return Double.NaN;
+			if (count < 5) {
+				double[] seen = Arrays.copyOf(heights, count);
+				Arrays.sort(seen);
+				return seen[(int)Math.round(p * (count - 1))];
+			}
+			return heights[2];
+		}
+	}
+
+	public EnsembleRunner(Supplier<Scenario> factory) {
+		this.factory = factory;
+	}
+
+	/** A simulation property to sweep over; the runs cover every combination of the values of every parameter */
+	public void addParameter(String name, Object... values) {
+		parameterNames.add(name);
+		parameterValues.add(values.clone());
+	}
+
+	/** Runs of each combination, 1 by default */
+	public void setReplicates(int replicates) {
+		this.replicates = replicates;
+	}
+
+	/** Steps in each run, rounded down to a multiple of the observation interval; by default the scenario's own */
+	public void setSteps(long steps) {
+		this.steps = steps;
+	}
+
+	/** Steps between observations, 1 by default */
+	public void setObserveEvery(long observeEvery) {
+		this.observeEvery = Math.max(1, observeEvery);
+	}
+
+	/** Runs at once, one per core by default */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/** The seed from which each replicate's seed is drawn */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/** The quantiles estimated, 0.05, 0.5 and 0.95 by default */
+	public void setQuantiles(double... quantiles) {
+		this.quantiles = quantiles.clone();
+	}
+
+	/** Runs every replicate of every combination, and returns their statistics, one Point per combination */
+	public List<Point> run() throws InterruptedException {
+		Scenario probe = factory.get();
+		String[] observables = probe.getObservableNames();
+		long runSteps = (steps >= 0) ? steps : probe.getSteps();
+		int samples = (int)(runSteps / observeEvery) + 1;
+
+		List<Point> points = new ArrayList<>();
+		int combinations = 1;
+		for (Object[] values : parameterValues) {
+			combinations *= values.length;
+		}
+		for (int c=0; c < combinations; c++) {
+			Map<String, Object> parameters = new LinkedHashMap<>();
+			int rest = c;
+			for (int i=parameterNames.size() - 1; i >= 0; i--) {
+				Object[] values = parameterValues.get(i);
+				parameters.put(parameterNames.get(i), values[rest % values.length]);
+				rest /= values.length;
+			}
+			points.add(new Point(reversed(parameters), observables, samples, observeEvery, quantiles));
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "ensemble");
+			thread.setDaemon(true);
+			return thread;
+		});
+		AtomicReference<RuntimeException> failure = new AtomicReference<>();
+		runsDone.set(0);
+		startedAt = System.nanoTime();
+		finishedAt = 0;
+		RandomStreams seeds = new RandomStreams(seed);
+		// Replicates are the outer loop, so every combination fills in at the same pace
+		for (int r=0; r < replicates; r++) {
+			long runSeed = seeds.forKey(r).nextLong();
+			for (Point point : points) {
+				pool.execute(() -> {
+					if (failure.get() != null) return;
+					try {
+						runOne(point, runSeed, samples);
+						runsDone.incrementAndGet();
+					} catch (RuntimeException e) {
+						failure.compareAndSet(null, e);
+					}
+				});
+			}
+		}
+		pool.shutdown();
+		while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+			// Waiting for the runs
+		}
+		finishedAt = System.nanoTime();
+		if (failure.get() != null) throw failure.get();
+		return points;
+	}
+
+	/** Runs finished so far */
+	public long getRunsDone() {
+		return runsDone.get();
+	}
+
+	/** Runs finished per hour of wall time since run began */
+	public double getRunsPerHour() {
+		long end = (finishedAt != 0) ? finishedAt : System.nanoTime();
+		return runsDone.get() / ((end - startedAt) / 3.6e12);
+	}
+
+	private void runOne(Point point, long runSeed, int samples) {
+		Scenario scenario = factory.get();
+		scenario.setSeed(runSeed);
+		for (Map.Entry<String, Object> parameter : point.getParameters().entrySet()) {
+			scenario.setProperty(parameter.getKey(), parameter.getValue());
+		}
+		Simulation simulation = scenario.build();
+		simulation.setDelayAfterEachStep(0);
+
+		double[][] trajectory = new double[samples][point.observables.length];
+		scenario.observe(trajectory[0]);
+		for (int s=1; s < samples; s++) {
+			for (long i=0; i < observeEvery; i++) {
+				simulation.step();
+			}
+			scenario.observe(trajectory[s]);
+		}
+		point.add(trajectory);
+	}
+
+	private static Map<String, Object> reversed(Map<String, Object> parameters) {
+		List<String> names = new ArrayList<>(parameters.keySet());
+		Collections.reverse(names);
+		Map<String, Object> ordered = new LinkedHashMap<>();
+		for (String name : names) {
+			ordered.put(name, parameters.get(name));
+		}
+		return ordered;
+	}
+
+	/** Writes one line per combination, sample and observable: parameters, step, runs, mean, sd, min, max and quantiles */
+	public static void writeCsv(List<Point> points, Appendable out) throws IOException {
+		if (points.isEmpty()) return;
+		Point first = points.get(0);
+		StringBuilder header = new StringBuilder();
+		for (String name : first.getParameters().keySet()) {
+			header.append(name).append(',');
+		}
+		header.append("step,observable,runs,mean,sd,min,max");
+		for (double level : first.quantiles) {
+			header.append(",q").append(level);
+		}
+		out.append(header).append('\n');
+
+		for (Point point : points) {
+			StringBuilder prefix = new StringBuilder();
+			for (Object value : point.getParameters().values()) {
+				prefix.append(value).append(',');
+			}
+			for (int s=0; s < point.getSampleCount(); s++) {
+				for (int o=0; o < point.observables.length; o++) {
+					StringBuilder line = new StringBuilder(prefix);
+					line.append(point.getSampleStep(s)).append(',').append(point.observables[o]).append(',').append(point.getRuns());
+					line.append(',').append(point.getMean(o, s)).append(',').append(point.getStandardDeviation(o, s));
+					line.append(',').append(point.getMin(o, s)).append(',').append(point.getMax(o, s));
+					for (int q=0; q < point.quantiles.length; q++) {
+						line.append(',').append(point.getQuantile(o, s, q));
+					}
+					out.append(line).append('\n');
+				}
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, Supplier<Scenario>> scenarios = HeadlessRunner.scenarios();
+		if ((args.length < 2) || (!scenarios.containsKey(args[0]))) {
+			System.err.println("Usage: EnsembleRunner <scenario> <replicates> [steps] [NAME=value,value...]...");
+			System.err.println("Scenarios: " + String.join(", ", scenarios.keySet()));
+			System.exit(1);
+		}
+
+		EnsembleRunner runner = new EnsembleRunner(scenarios.get(args[0]));
+		runner.setReplicates(Integer.parseInt(args[1]));
+		int next = 2;
+		long steps = scenarios.get(args[0]).get().getSteps();
+		if ((args.length > 2) && !args[2].contains("=")) {
+			steps = Long.parseLong(args[2]);
+			next = 3;
+		}
+		runner.setSteps(steps);
+		runner.setObserveEvery(Math.max(1, steps / 100));
+		for (; next < args.length; next++) {
+			String[] parameter = args[next].split("=", 2);
+			String[] texts = parameter[1].split(",");
+			Object[] values = new Object[texts.length];
+			for (int i=0; i < texts.length; i++) {
+				values[i] = parse(texts[i]);
+			}
+			runner.addParameter(parameter[0], values);
+		}
+
+		List<Point> points = runner.run();
+		writeCsv(points, System.out);
+		System.err.println("runs:       " + runner.getRunsDone() + " (" + points.size() + " combinations)");
+		System.err.println("threads:    " + runner.threads);
+		System.err.printf("wall time:  %.3f s%n", (runner.finishedAt - runner.startedAt) / 1e9);
+		System.err.printf("runs/hour:  %.0f%n", runner.getRunsPerHour());
+	}
+
+	// Whole numbers become Longs and other numbers Doubles, as the scenarios' properties are
+	private static Object parse(String text) {
+		try {
+			return Long.parseLong(text);
+		} catch (NumberFormatException e) {
+			try {
+				return Double.parseDouble(text);
+			} catch (NumberFormatException e2) {
+				return text;
+			}
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package org.baseagent.foundations;
+
+import java.util.Arrays;
+
+/**
+ * A copy of one grid layer and of the agents' cells, taken at the end of a step, for a display to
+ * draw while the simulation moves on. Snapshots are reused by their SnapshotPublisher, so a reader
+ * must only look at the snapshot it was handed until it asks for the next one.
+ */
+public class GridSnapshot {
+	private final int width;
+	private final int height;
+	private final Object[] cells;
+	private int[] agentX = new int[16];
+	private int[] agentY = new int[16];
+	private int agentCount;
+	private long stepTime;
+	long sequence;
+
+	GridSnapshot(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.cells = new Object[width * height];
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/** The step time at which the snapshot was taken */
+	public long getStepTime() {
+		return stepTime;
+	}
+
+	public Object get(int x, int y) {
+		return cells[y * width + x];
+	}
+
+	public int getAgentCount() {
+		return agentCount;
+	}
+
+	public int getAgentX(int i) {
+		return agentX[i];
+	}
+
+	public int getAgentY(int i) {
+		return agentY[i];
+	}
+
+	Object[] getCells() {
+		return cells;
+	}
+
+	void setStepTime(long stepTime) {
+		this.stepTime = stepTime;
+	}
+
+	void clearAgents() {
+		agentCount = 0;
+	}
+
+	void addAgent(int x, int y) {
+		if (agentCount == agentX.length) {
+			agentX = Arrays.copyOf(agentX, agentCount * 2);
+			agentY = Arrays.copyOf(agentY, agentCount * 2);
+		}
+		agentX[agentCount] = x;
+		agentY[agentCount] = y;
+		agentCount++;
+	}
+}
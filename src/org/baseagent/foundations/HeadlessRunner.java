@@ -0,0 +1,132 @@
+package org.baseagent.foundations;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.baseagent.sim.Simulation;
+
+/**
+ * Runs one of the foundations scenarios without a display: no JavaFX toolkit, no Stage and no delay
+ * between steps. Reports steps per second, wall time and a summary of the final state.
+ *
+ * With --checkpoint, the state at the end of the run is saved to a file, and with --resume, a run
+ * starts from one; only scenarios that create a Checkpoint, such as infection, take these. A resumed
+ * run goes on to the scenario's last step unless given a number of steps. With --record, the run is
+ * written to a log that a RunReplayer, or RunReplayApp, plays back.
+ *
+ * Usage: HeadlessRunner &lt;scenario&gt; [steps] [seed] [--checkpoint file] [--resume file] [--record file]
+ */
+public class HeadlessRunner {
+	private static final String USAGE = "Usage: HeadlessRunner <scenario> [steps] [seed] [--checkpoint file] [--resume file] [--record file]";
+	private static final List<String> OPTIONS = Arrays.asList("--checkpoint", "--resume", "--record");
+	private static final Map<String, Supplier<Scenario>> SCENARIOS = new LinkedHashMap<>();
+	static {
+		SCENARIOS.put("vants", Vants::scenario);
+		SCENARIOS.put("life", Application3::scenario);
+		SCENARIOS.put("life-parallel", () -> Application3.scenario(2000, 2000, Application3.PatchMode.PARALLEL));
+		SCENARIOS.put("life-active", () -> Application3.scenario(2000, 2000, Application3.PatchMode.ACTIVE));
+		SCENARIOS.put("life-bits", () -> Application3.bitsScenario(10000, 10000));
+		SCENARIOS.put("infection", InfectionSim::scenario);
+		SCENARIOS.put("infection-100k", () -> InfectionSim.scenario(100000, 100, 1000));
+		SCENARIOS.put("wander", Application0::scenario);
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		List<String> positional = new ArrayList<>();
+		Map<String, String> options = new LinkedHashMap<>();
+		boolean missingValue = false;
+		for (int i=0; i < args.length; i++) {
+			if (!args[i].startsWith("--")) {
+				positional.add(args[i]);
+			} else if ((i + 1 < args.length) && !args[i + 1].startsWith("--")) {
+				options.put(args[i], args[++i]);
+			} else {
+				// An option with nothing after it, or another option where its file should be
+				missingValue = true;
+			}
+		}
+		if (missingValue || positional.isEmpty() || (!SCENARIOS.containsKey(positional.get(0))) || (!OPTIONS.containsAll(options.keySet()))) {
+			System.err.println(USAGE);
+			System.err.println("Scenarios: " + String.join(", ", SCENARIOS.keySet()));
+			System.exit(1);
+		}
+
+		Scenario scenario = SCENARIOS.get(positional.get(0)).get();
+		if (positional.size() > 2) scenario.setSeed(Long.parseLong(positional.get(2)));
+		Path saveTo = options.containsKey("--checkpoint") ? Paths.get(options.get("--checkpoint")) : null;
+		Path resumeFrom = options.containsKey("--resume") ? Paths.get(options.get("--resume")) : null;
+		Path recordTo = options.containsKey("--record") ? Paths.get(options.get("--record")) : null;
+
+		long buildStart = System.nanoTime();
+		Simulation simulation = scenario.build();
+		Checkpoint checkpoint = null;
+		if ((saveTo != null) || (resumeFrom != null)) {
+			checkpoint = scenario.createCheckpoint();
+			if (checkpoint == null) {
+				System.err.println("Scenario " + scenario.getName() + " cannot be checkpointed");
+				System.exit(1);
+			}
+			simulation.add(checkpoint);
+			if (resumeFrom != null) checkpoint.restore(resumeFrom);
+		}
+		RunRecorder recorder = null;
+		if (recordTo != null) {
+			recorder = scenario.createRecorder(recordTo);
+			if (recorder == null) {
+				System.err.println("Scenario " + scenario.getName() + " cannot be recorded");
+				System.exit(1);
+			}
+			simulation.add(recorder);
+		}
+		long buildNanos = System.nanoTime() - buildStart;
+
+		long firstStep = (resumeFrom != null) ? checkpoint.getRestoredStepTime() : 0L;
+		long steps = (positional.size() > 1) ? Long.parseLong(positional.get(1)) : Math.max(0L, scenario.getSteps() - firstStep);
+		long runNanos;
+		if ((saveTo != null) && (steps > 0)) {
+			// The save is captured at the end of the step it is asked for, so it is asked for before the last
+			runNanos = run(simulation, steps - 1);
+			checkpoint.requestSave(saveTo);
+			runNanos += run(simulation, 1);
+			checkpoint.awaitWritten();
+		} else {
+			runNanos = run(simulation, steps);
+		}
+		if (checkpoint != null) checkpoint.shutdown();
+		if (recorder != null) recorder.close();
+
+		System.out.println("scenario:   " + scenario.getName() + " (" + scenario.getWidth() + "x" + scenario.getHeight() + ")");
+		if (resumeFrom != null) System.out.println("resumed:    " + resumeFrom + ", saved after step " + firstStep);
+		System.out.println("steps:      " + steps);
+		if (resumeFrom != null) System.out.println("seed:       random streams restored from the checkpoint");
+		else System.out.println("seed:       " + ((scenario.getSeed() != null) ? scenario.getSeed() : "none (no random numbers drawn)"));
+		System.out.printf("build time: %.3f s%n", buildNanos / 1e9);
+		System.out.printf("wall time:  %.3f s%n", runNanos / 1e9);
+		System.out.printf("steps/sec:  %.1f%n", steps / (runNanos / 1e9));
+		System.out.println("final:      " + scenario.summarize());
+		if ((saveTo != null) && (steps > 0)) System.out.println("checkpoint: " + saveTo + ", " + checkpoint.getLastBytes() + " bytes");
+		if (recorder != null) System.out.println("recording:  " + recordTo + ", " + recorder.getBytesWritten() + " bytes");
+	}
+
+	/** The scenarios by name, as main accepts them */
+	static Map<String, Supplier<Scenario>> scenarios() {
+		return SCENARIOS;
+	}
+
+	/** Steps a built Simulation flat out on the calling thread, and returns the elapsed time in nanoseconds */
+	public static long run(Simulation simulation, long steps) {
+		simulation.setDelayAfterEachStep(0);
+		long start = System.nanoTime();
+		for (long i=0; i < steps; i++) {
+			simulation.step();
+		}
+		return System.nanoTime() - start;
+	}
+}
@@ -2,8 +2,15 @@ package org.baseagent.foundations;
 
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import org.baseagent.Agent;
+import org.baseagent.behaviors.Behavior;
 import org.baseagent.grid.Grid;
 import org.baseagent.grid.GridAgent;
 import org.baseagent.grid.GridLayer;
@@ -11,7 +18,6 @@ import org.baseagent.grid.ui.GridCanvas;
 import org.baseagent.grid.ui.GridCanvasContext;
 import org.baseagent.grid.ui.GridCellRenderer;
 import org.baseagent.sim.Simulation;
-import org.baseagent.statemachine.StateMachine;
 
 import javafx.application.Application;
 import javafx.scene.Scene;
@@ -28,28 +34,137 @@ public class InfectionSim extends Application {
 		launch(args);
 	}
 	
+	/** Builds the infection model without any JavaFX; see {@link HeadlessRunner} */
+	public static Scenario scenario() {
+		return scenario(1, 0);
+	}
+	
+	/** Builds the infection model with a population, of which the first few start out infected */
+	public static Scenario scenario(int population, int initiallySick) {
+		return scenario(population, initiallySick, 100);
+	}
+	
+	/** Builds the infection model with a population on a size x size grid */
+	public static Scenario scenario(int population, int initiallySick, int size) {
+		return new Scenario("infection", size, size, 300000) {
+			private Population knowledge;
+			private CollisionIndex collisions;
+			
+			@Override
+			protected Grid createWorld(Simulation simulation) {
+				// A Grid is the field that contains things.
+				// While a single Simulation may have multiple Grid objects, a Simulation has
+				// only one Universe, which is the primary space in which the simulation
+				// takes place. 
+				Grid grid = new Grid(getWidth(), getHeight());
+				grid.getGridLayer(Grid.DEFAULT_GRID_LAYER).fill("0");
+				simulation.setUniverse(grid);
+				
+				// The disease model reads its parameters from the simulation properties; these are the
+				// defaults, for any not set with Scenario.setProperty
+				simulation.getProperties().putIfAbsent("CHANCE_OF_INFECTION", 0.3d);
+				simulation.getProperties().putIfAbsent("INCUBATION_PERIOD", 50L);
+				simulation.getProperties().putIfAbsent("CHANCE_OF_HOSPITAL", 0.01d);
+				simulation.getProperties().putIfAbsent("CHANCE_OF_DEATH", 0.001d);
+				simulation.getProperties().putIfAbsent("DURATION_OF_DISEASE", 500L);
+				
+				// People who share a cell collide. Only the people out in the population take part;
+				// the ones in hospital or in the cemetery have been warped to other grids.
+				collisions = new CollisionIndex(getWidth(), getHeight());
+				collisions.setParticipating(person -> isInPopulation(person));
+				knowledge = new Population(simulation, getWidth(), getHeight());
+				for (int i=0; i < population; i++) {
+					Person person = createExample(simulation, knowledge);
+					if (i < initiallySick) knowledge.infect(person.row, 0L);
+					collisions.add(person);
+				}
+				simulation.add(collisions);
+				simulation.add(knowledge.disease);
+				return grid;
+			}
+			
+			/** Everything that changes as the disease spreads: where people are, which grid, their disease and random streams */
+			@Override
+			public Checkpoint createCheckpoint() {
+				Checkpoint checkpoint = new Checkpoint(getWidth(), getHeight());
+				checkpoint.watch(getGrid().getGridLayer(Grid.DEFAULT_GRID_LAYER));
+				for (Person person : knowledge.people) {
+					checkpoint.addAgent(person);
+				}
+				checkpoint.setGridName(new Checkpoint.GridName() {
+					@Override
+					public String get(GridAgent agent) {
+						return ((Person)agent).gridName;
+					}
+					
+					@Override
+					public void set(GridAgent agent, String gridName) {
+						((Person)agent).warp(gridName);
+					}
+				});
+				checkpoint.setRandom(agent -> ((Person)agent).random);
+				checkpoint.addTable("people", knowledge.table);
+				checkpoint.addStateMachine("disease", knowledge.disease);
+				return checkpoint;
+			}
+			
+			@Override
+			public List<TimedStateMachine<?>> getStateMachines() {
+				return Collections.singletonList(knowledge.disease);
+			}
+			
+			/** The disease and where people go, including their warps to the hospital and the cemetery */
+			@Override
+			public RunRecorder createRecorder(Path file) {
+				RunRecorder recorder = super.createRecorder(file);
+				for (Person person : knowledge.people) {
+					recorder.addAgent(person);
+				}
+				knowledge.recorder = recorder;
+				return recorder;
+			}
+			
+			@Override
+			public String[] getObservableNames() {
+				String[] names = new String[Disease.values().length];
+				for (Disease state : Disease.values()) {
+					names[state.ordinal()] = state.name();
+				}
+				return names;
+			}
+			
+			/** How many people are in each state of the disease */
+			@Override
+			public void observe(double[] values) {
+				for (int i=0; i < values.length; i++) {
+					values[i] = knowledge.counts[i];
+				}
+			}
+			
+			@Override
+			public String summarize() {
+				Map<Disease, Integer> counts = new TreeMap<>();
+				for (Person person : knowledge.people) {
+					counts.merge(person.getDisease(), 1, Integer::sum);
+				}
+				return "people " + counts + ", pair tests " + collisions.getPairTests() + " (all pairs: " + collisions.getAllPairsTests() + ")";
+			}
+		};
+	}
+	
 	/** JavaFX Application start method */
 	@Override
 	public void start(Stage primaryStage) throws IOException {
 		
 		// A Simulation object is the core of a BaseAgent simulation.
 		// Everything that will be simulated is added to the simulation.
-		// The following settings indicate the end condition for the simulation,
-		// and the delay between simulation steps, which helps make the visual display
-		// proceed slowly enough for the human observer to notice what is happening.
-		Simulation simulation = new Simulation();
-		simulation.endWhen(sim -> sim.getStepTime() == 300000);
+		// The Scenario sets the end condition for the simulation; a delay between simulation steps
+		// helps make the visual display proceed slowly enough for the human observer to notice what is happening.
+		Scenario scenario = scenario();
+		Simulation simulation = scenario.build();
 //		simulation.setDelayAfterEachStep(1);
 		
-		// A Grid is the field that contains things.
-		// While a single Simulation may have multiple Grid objects, a Simulation has
-		// only one Universe, which is the primary space in which the simulation
-		// takes place. 
-		Grid grid = new Grid(100, 100);
-		grid.getGridLayer(Grid.DEFAULT_GRID_LAYER).fill("0");
-		simulation.setUniverse(grid);
-		
-		GridCanvas gridCanvas = new GridCanvas(grid, 10, 10);
+		GridCanvas gridCanvas = new GridCanvas(scenario.getGrid(), 10, 10);
 
 		Grid hospitalGrid = new Grid(10, 10);
 		GridCanvas hospitalGridCanvas = new GridCanvas(hospitalGrid, 10, 10);
@@ -71,7 +186,7 @@ public class InfectionSim extends Application {
 		
 		
 		
-		createExample(simulation, field);
+		createRenderers(field);
 		
 		// The code below is JavaFX code for displaying the simulation - which is mostly showing the GridCanvas
 		BorderPane borderPane = new BorderPane();
@@ -89,7 +204,7 @@ public class InfectionSim extends Application {
 		simulation.start();
 	}
 
-	private void createExample(Simulation simulation, GridCanvas gridCanvas) {
+	private void createRenderers(GridCanvas gridCanvas) {
 		gridCanvas.addGridLayerRenderer(Grid.DEFAULT_GRID_LAYER, new GridCellRenderer() {
 			@Override
 			public void drawCell(GridCanvasContext gcc, GridLayer layer, Object value, double xInPixels, double yInPixels, double widthInPixels, double heightInPixels) {
@@ -99,41 +214,131 @@ public class InfectionSim extends Application {
 				gcc.getGraphicsContext().fillRect(xInPixels, yInPixels, widthInPixels, heightInPixels);
 			}
 		});
-
-		GridAgent person = new GridAgent() {
-			@Override
-			public void onCollision(Agent thisAgent, Agent collidingAgent) {
-				if (thisAgent.getKnowledge().getOrDefault("IS_SICK", Boolean.FALSE).equals(Boolean.FALSE) && collidingAgent.getKnowledge().get("IS_SICK").equals(Boolean.TRUE)) {
-					if (Math.random() <= (double)thisAgent.getSimulation().getProperties().get("CHANCE_OF_INFECTION")) {
-						thisAgent.getKnowledge().put("SICK_ONSET", thisAgent.getSimulation().getStepTime());
-					}
-				}
-			}
+	}
+	
+	private enum Disease {HEALTHY, ONSET, SICK, IN_HOSPITAL, DEAD}
+	
+	/**
+	 * Everyone's disease knowledge, held as columns of a KnowledgeTable rather than in each person's
+	 * knowledge map, plus the model parameters, read from the simulation properties once.
+	 *
+	 * The disease progresses on a TimedStateMachine: incubation and recovery are delays from the
+	 * onset, and the chances of hospital and death are drawn once on entering a state, so a person
+	 * costs nothing while they wait to move on.
+	 */
+	private static class Population {
+		static final long NOT_INFECTED = -1L;
+		
+		final KnowledgeTable table = new KnowledgeTable();
+		final KnowledgeTable.BooleanColumn isSick = table.declareBoolean("IS_SICK", false);
+		final KnowledgeTable.LongColumn sickOnset = table.declareLong("SICK_ONSET", NOT_INFECTED);
+		final List<Person> people = new ArrayList<>();
+		final TimedStateMachine<Disease> disease = new TimedStateMachine<>(Disease.class);
+		final long[] counts = new long[Disease.values().length];
+		final RandomStreams streams;
+		RunRecorder recorder;
+		final int width;
+		final int height;
+		
+		final double chanceOfInfection;
+		final long incubationPeriod;
+		final double chanceOfHospital;
+		final double chanceOfDeath;
+		final long durationOfDisease;
+		
+		Population(Simulation simulation, int width, int height) {
+			this.streams = RandomStreams.of(simulation);
+			this.width = width;
+			this.height = height;
 			
-			@Override
-			public void drawBefore(GridCanvasContext gcc) {
-				Color agentColor = Color.WHITE;
-				switch (((StateMachine)getBehavior("DISEASE")).getCurrentState().getStateName()) {
-				case "HEALTHY" : agentColor = Color.BLUE; break;
-				case "ONSET" : agentColor = Color.ORANGE; break;
-				case "SICK" : agentColor = Color.RED; break;
-				case "IN_HOSPITAL" : agentColor = Color.RED; break;
-				case "DEAD" : agentColor = Color.DARKGRAY; break;
+			Map<String, Object> properties = simulation.getProperties();
+			chanceOfInfection = ((Number)properties.get("CHANCE_OF_INFECTION")).doubleValue();
+			incubationPeriod = ((Number)properties.get("INCUBATION_PERIOD")).longValue();
+			chanceOfHospital = ((Number)properties.get("CHANCE_OF_HOSPITAL")).doubleValue();
+			chanceOfDeath = ((Number)properties.get("CHANCE_OF_DEATH")).doubleValue();
+			durationOfDisease = ((Number)properties.get("DURATION_OF_DISEASE")).longValue();
+			
+			disease.addStateListener((row, from, to, now) -> {
+				if (from >= 0) counts[from]--;
+				counts[to]++;
+			});
+			disease.onEnter(Disease.ONSET, (row, now) -> isSick.set(row, true));
+			disease.addTransition(Disease.ONSET, Disease.SICK, (row, now) -> sickOnset.get(row) + incubationPeriod - now);
+			disease.addTransition(Disease.SICK, Disease.IN_HOSPITAL, TimedStateMachine.chancePerStep(chanceOfHospital, row -> people.get(row).random), (row, now) -> people.get(row).warp("HOSPITAL_GRID"));
+			disease.addTransition(Disease.IN_HOSPITAL, Disease.DEAD, TimedStateMachine.chancePerStep(chanceOfDeath, row -> people.get(row).random), (row, now) -> people.get(row).warp("DEAD_GRID"));
+			disease.addTransition(Disease.IN_HOSPITAL, Disease.HEALTHY, (row, now) -> sickOnset.get(row) + durationOfDisease - now, (row, now) -> recover(people.get(row)));
+		}
+		
+		void infect(int row, long now) {
+			sickOnset.set(row, now);
+			disease.enter(row, Disease.ONSET, now);
+		}
+	}
+	
+	/** A person is a row of the Population's knowledge table */
+	private static class Person extends GridAgent {
+		final Population knowledge;
+		final int row;
+		final RandomStreams.Stream random;
+		String gridName = "POPULATION_GRID";
+		
+		Person(Population knowledge) {
+			this.knowledge = knowledge;
+			this.row = knowledge.table.addRow();
+			this.random = knowledge.streams.forKey(row);
+			knowledge.people.add(this);
+			knowledge.disease.enter(row, Disease.HEALTHY, 0L);
+		}
+		
+		boolean isSick() {
+			return knowledge.isSick.get(row);
+		}
+		
+		Disease getDisease() {
+			return knowledge.disease.getState(row);
+		}
+		
+		/** Warps to a grid, remembering which, as GridAgent does not say */
+		void warp(String gridName) {
+			this.gridName = gridName;
+			warpTo(gridName);
+			if (knowledge.recorder != null) knowledge.recorder.recordWarp(this, gridName);
+		}
+		
+		@Override
+		public void onCollision(Agent thisAgent, Agent collidingAgent) {
+			if (!isSick() && ((Person)collidingAgent).isSick()) {
+				if (random.nextDouble() <= knowledge.chanceOfInfection) {
+					knowledge.infect(row, knowledge.disease.getTime(getSimulation()));
 				}
-				gcc.getGraphicsContext().setFill(agentColor);
 			}
-		};
+		}
 		
-		person.addBehavior(new WanderWithCollisionBehavior(10));
-
-		StateMachine diseaseProgression = new StateMachine();
-		diseaseProgression.addStates("HEALTHY", "ONSET", "SICK", "IN_HOSPITAL", "DEAD");
-		diseaseProgression.addTransition("HEALTHY", "ONSET", agent -> agent.getKnowledge().containsKey("SICK_ONSET"));
-		diseaseProgression.addTransition("ONSET", "SICK", agent -> agent.getSimulation().getStepTime() - (long)agent.getKnowledge().get("SICK_ONSET") >= (long)agent.getSimulation().getProperties().get("INCUBATION_PERIOD"));
-		diseaseProgression.addTransition("SICK", "IN_HOSPITAL", agent -> Math.random() < (double)agent.getSimulation().getProperties().get("CHANCE_OF_HOSPITAL"), agent -> ((GridAgent)agent).warpTo("HOSPITAL_GRID"));
-		diseaseProgression.addTransition("IN_HOSPITAL", "DEAD", agent -> Math.random() < (double)agent.getSimulation().getProperties().get("CHANCE_OF_DEATH"), agent -> ((GridAgent)agent).warpTo("DEAD_GRID"));
-		diseaseProgression.addTransition("IN_HOSPITAL", "HEALTHY", agent -> agent.getSimulation().getStepTime() - (long)agent.getKnowledge().get("SICK_ONSET") >= (long)agent.getSimulation().getProperties().get("DURATION_OF_DISEASE"), agent -> ((GridAgent)agent).warpTo("POPULATION_GRID"));
-		person.addBehavior("DISEASE", diseaseProgression);
+		@Override
+		public void drawBefore(GridCanvasContext gcc) {
+			Color agentColor = Color.WHITE;
+			switch (getDisease()) {
+			case HEALTHY : agentColor = Color.BLUE; break;
+			case ONSET : agentColor = Color.ORANGE; break;
+			case SICK : agentColor = Color.RED; break;
+			case IN_HOSPITAL : agentColor = Color.RED; break;
+			case DEAD : agentColor = Color.DARKGRAY; break;
+			}
+			gcc.getGraphicsContext().setFill(agentColor);
+		}
+	}
+	
+	private static Person createExample(Simulation simulation, Population knowledge) {
+		Person person = new Person(knowledge);
+		
+		// Collisions are found for everyone at once by the scenario's CollisionIndex, so a person only wanders.
+		// People in hospital or in the cemetery stay where they are.
+		person.addBehavior(new Behavior() {
+			@Override
+			public void executeBehavior(Agent agent) {
+				if (isInPopulation(person)) RandomStreams.moveRandomly(person, person.random, knowledge.width, knowledge.height);
+			}
+		});
 
 //		StateMachine diseaseProgression2 = new StateMachine();
 //		diseaseProgression2.addStates("HEALTHY", "ONSET", "SICK", "IN_HOSPITAL", "DEAD");
@@ -146,6 +351,19 @@ public class InfectionSim extends Application {
 
 
 		simulation.add(person);
-		person.placeRandomly();
+		RandomStreams.placeRandomly(person, person.random, knowledge.width, knowledge.height);
+		return person;
+	}
+	
+	private static boolean isInPopulation(GridAgent person) {
+		Disease state = ((Person)person).getDisease();
+		return (state != Disease.IN_HOSPITAL) && (state != Disease.DEAD);
+	}
+	
+	/** Back to the population, healthy and able to catch the disease again */
+	private static void recover(Person person) {
+		person.knowledge.isSick.set(person.row, false);
+		person.knowledge.sickOnset.set(person.row, Population.NOT_INFECTED);
+		person.warp("POPULATION_GRID");
 	}
 }
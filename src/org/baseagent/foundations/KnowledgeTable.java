@@ -0,0 +1,227 @@
+package org.baseagent.foundations;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Agent knowledge stored as typed columns across a whole population, one row per agent, instead of
+ * a String-to-Object map per agent. Attributes are declared once and accessed through the column
+ * handle that declare returns, so reading or writing one is an array access: no hashing, no boxing
+ * and no casts. Looking a column up by name and reading boxed values still works, as a slow path.
+ */
+public class KnowledgeTable {
+	private final Map<String, Column> columns = new LinkedHashMap<>();
+	private int rows;
+	private int capacity = 16;
+
+	/** A typed attribute of every row */
+	public static abstract class Column {
+		private final String name;
+
+		protected Column(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		protected abstract void grow(int capacity);
+
+		protected abstract Object getObject(int row);
+
+		protected abstract void setObject(int row, Object value);
+	}
+
+	public static class BooleanColumn extends Column {
+		private final boolean defaultValue;
+		private long[] bits;
+
+		BooleanColumn(String name, boolean defaultValue, int capacity) {
+			super(name);
+			this.defaultValue = defaultValue;
+			this.bits = new long[(capacity + 63) >>> 6];
+			if (defaultValue) Arrays.fill(bits, -1L);
+		}
+
+		public boolean get(int row) {
+			return (bits[row >>> 6] & (1L << row)) != 0;
+		}
+
+		public void set(int row, boolean value) {
+			if (value) bits[row >>> 6] |= (1L << row); else bits[row >>> 6] &= ~(1L << row);
+		}
+
+		/** The words holding the bits of the first rows, copied; for a Checkpoint */
+		long[] copyWords(int rows) {
+			return Arrays.copyOf(bits, (rows + 63) >>> 6);
+		}
+
+		void setWords(long[] words) {
+			System.arraycopy(words, 0, bits, 0, words.length);
+		}
+
+		@Override
+		protected void grow(int capacity) {
+			int oldLength = bits.length;
+			bits = Arrays.copyOf(bits, (capacity + 63) >>> 6);
+			if (defaultValue) Arrays.fill(bits, oldLength, bits.length, -1L);
+		}
+
+		@Override
+		protected Object getObject(int row) {
+			return get(row);
+		}
+
+		@Override
+		protected void setObject(int row, Object value) {
+			set(row, (Boolean)value);
+		}
+	}
+
+	public static class LongColumn extends Column {
+		private final long defaultValue;
+		private long[] values;
+
+		LongColumn(String name, long defaultValue, int capacity) {
+			super(name);
+			this.defaultValue = defaultValue;
+			this.values = new long[capacity];
+			Arrays.fill(values, defaultValue);
+		}
+
+		public long get(int row) {
+			return values[row];
+		}
+
+		public void set(int row, long value) {
+			values[row] = value;
+		}
+
+		/** The values of the first rows, copied; for a Checkpoint */
+		long[] copyValues(int rows) {
+			return Arrays.copyOf(values, rows);
+		}
+
+		void setValues(long[] restored) {
+			System.arraycopy(restored, 0, values, 0, restored.length);
+		}
+
+		@Override
+		protected void grow(int capacity) {
+			int oldLength = values.length;
+			values = Arrays.copyOf(values, capacity);
+			Arrays.fill(values, oldLength, capacity, defaultValue);
+		}
+
+		@Override
+		protected Object getObject(int row) {
+			return get(row);
+		}
+
+		@Override
+		protected void setObject(int row, Object value) {
+			set(row, ((Number)value).longValue());
+		}
+	}
+
+	public static class DoubleColumn extends Column {
+		private final double defaultValue;
+		private double[] values;
+
+		DoubleColumn(String name, double defaultValue, int capacity) {
+			super(name);
+			this.defaultValue = defaultValue;
+			this.values = new double[capacity];
+			Arrays.fill(values, defaultValue);
+		}
+
+		public double get(int row) {
+			return values[row];
+		}
+
+		public void set(int row, double value) {
+			values[row] = value;
+		}
+
+		/** The values of the first rows, copied; for a Checkpoint */
+		double[] copyValues(int rows) {
+			return Arrays.copyOf(values, rows);
+		}
+
+		void setValues(double[] restored) {
+			System.arraycopy(restored, 0, values, 0, restored.length);
+		}
+
+		@Override
+		protected void grow(int capacity) {
+			int oldLength = values.length;
+			values = Arrays.copyOf(values, capacity);
+			Arrays.fill(values, oldLength, capacity, defaultValue);
+		}
+
+		@Override
+		protected Object getObject(int row) {
+			return get(row);
+		}
+
+		@Override
+		protected void setObject(int row, Object value) {
+			set(row, ((Number)value).doubleValue());
+		}
+	}
+
+	public BooleanColumn declareBoolean(String name, boolean defaultValue) {
+		return declare(new BooleanColumn(name, defaultValue, capacity));
+	}
+
+	public LongColumn declareLong(String name, long defaultValue) {
+		return declare(new LongColumn(name, defaultValue, capacity));
+	}
+
+	public DoubleColumn declareDouble(String name, double defaultValue) {
+		return declare(new DoubleColumn(name, defaultValue, capacity));
+	}
+
+	private <C extends Column> C declare(C column) {
+		if (columns.containsKey(column.getName())) throw new IllegalArgumentException("Column " + column.getName() + " is already declared");
+		columns.put(column.getName(), column);
+		return column;
+	}
+
+	/** Adds a row holding every column's default value, and returns its index */
+	public int addRow() {
+		if (rows == capacity) {
+			capacity *= 2;
+			for (Column column : columns.values()) {
+				column.grow(capacity);
+			}
+		}
+		return rows++;
+	}
+
+	public int size() {
+		return rows;
+	}
+
+	/** Every column, in the order declared */
+	public Collection<Column> getColumns() {
+		return columns.values();
+	}
+
+	public Column getColumn(String name) {
+		return columns.get(name);
+	}
+
+	/** Slow path: reads a column by name, boxed */
+	public Object get(String name, int row) {
+		return columns.get(name).getObject(row);
+	}
+
+	/** Slow path: writes a column by name from a boxed value */
+	public void put(String name, int row, Object value) {
+		columns.get(name).setObject(row, value);
+	}
+}
@@ -0,0 +1,147 @@
+package org.baseagent.foundations;
+
+/**
+ * An outer-totalistic rule such as Conway's Game of Life ("B3/S23"), applied to a whole BitGrid at once.
+ * Neighbor counts are computed 64 cells at a time: the eight neighbor words are summed with bitwise
+ * adders into four bit planes (ones, twos, fours, eights), so no cell is ever visited on its own.
+ */
+public class LifeRule {
+	public static final LifeRule CONWAY = parse("B3/S23");
+
+	private final String rule;
+	private final int[] birthCounts;
+	private final int[] survivalCounts;
+
+	private LifeRule(String rule, int[] birthCounts, int[] survivalCounts) {
+		this.rule = rule;
+		this.birthCounts = birthCounts;
+		this.survivalCounts = survivalCounts;
+	}
+
+	/** Parses a rule in B/S notation, such as "B3/S23" for Life or "B36/S23" for HighLife */
+	public static LifeRule parse(String rule) {
+		String[] parts = rule.toUpperCase().split("/");
+		if ((parts.length != 2) || !parts[0].startsWith("B") || !parts[1].startsWith("S")) {
+			throw new IllegalArgumentException("Expected a rule like B3/S23, got " + rule);
+		}
+		return new LifeRule(rule, counts(parts[0].substring(1)), counts(parts[1].substring(1)));
+	}
+
+	private static int[] counts(String digits) {
+		int[] counts = new int[digits.length()];
+		for (int i=0; i < digits.length(); i++) {
+			int n = digits.charAt(i) - '0';
+			if ((n < 0) || (n > 8)) throw new IllegalArgumentException("Neighbor counts must be 0-8, got " + digits.charAt(i));
+			counts[i] = n;
+		}
+		return counts;
+	}
+
+	/** Computes the next generation of current into next. The two grids must be the same size and must not be the same object. */
+	public void step(BitGrid current, BitGrid next) {
+		stepRows(current, next, 0, current.getHeight());
+	}
+
+	/** Computes rows [fromRow, toRow) of the next generation. Rows only read current, so ranges may run concurrently. */
+	public void stepRows(BitGrid current, BitGrid next, int fromRow, int toRow) {
+		int height = current.getHeight();
+		int wordsPerRow = current.getWordsPerRow();
+		boolean wrap = current.isWrap();
+		long lastWordMask = current.getLastWordMask();
+		long[] src = current.getWords();
+		long[] dst = next.getWords();
+
+		for (int y=fromRow; y < toRow; y++) {
+			int row = y * wordsPerRow;
+			int above = (y > 0) ? row - wordsPerRow : (wrap ? (height - 1) * wordsPerRow : -1);
+			int below = (y < height - 1) ? row + wordsPerRow : (wrap ? 0 : -1);
+
+			for (int w=0; w < wordsPerRow; w++) {
+				// Above row: west, center, east
+				long ac = word(src, above, w);
+				long aw = west(src, above, w, current);
+				long ae = east(src, above, w, wordsPerRow, current);
+				// Same row: west, east
+				long mc = src[row + w];
+				long mw = west(src, row, w, current);
+				long me = east(src, row, w, wordsPerRow, current);
+				// Below row: west, center, east
+				long bc = word(src, below, w);
+				long bw = west(src, below, w, current);
+				long be = east(src, below, w, wordsPerRow, current);
+
+				// Each row's neighbors as a two-bit number (weights 1 and 2)
+				long a1 = aw ^ ac ^ ae;
+				long a2 = (aw & ac) | (ae & (aw ^ ac));
+				long m1 = mw ^ me;
+				long m2 = mw & me;
+				long b1 = bw ^ bc ^ be;
+				long b2 = (bw & bc) | (be & (bw ^ bc));
+
+				// Sum the three rows into four bit planes
+				long ones = a1 ^ m1 ^ b1;
+				long carry = (a1 & m1) | (b1 & (a1 ^ m1));
+				long s2 = a2 ^ m2 ^ b2;
+				long c2 = (a2 & m2) | (b2 & (a2 ^ m2));
+				long twos = s2 ^ carry;
+				long c3 = s2 & carry;
+				long fours = c2 ^ c3;
+				long eights = c2 & c3;
+
+				long born = matching(birthCounts, ones, twos, fours, eights);
+				long survives = matching(survivalCounts, ones, twos, fours, eights);
+				long result = (~mc & born) | (mc & survives);
+				if (w == wordsPerRow - 1) result &= lastWordMask;
+				dst[row + w] = result;
+			}
+		}
+	}
+
+	/** The cells whose neighbor count is one of the given counts */
+	private static long matching(int[] counts, long ones, long twos, long fours, long eights) {
+		long result = 0L;
+		for (int n : counts) {
+			result |= ((n & 1) != 0 ? ones : ~ones)
+					& ((n & 2) != 0 ? twos : ~twos)
+					& ((n & 4) != 0 ? fours : ~fours)
+					& ((n & 8) != 0 ? eights : ~eights);
+		}
+		return result;
+	}
+
+	private static long word(long[] src, int row, int w) {
+		return (row < 0) ? 0L : src[row + w];
+	}
+
+	/** Bit x of the result holds cell x-1 */
+	private static long west(long[] src, int row, int w, BitGrid grid) {
+		if (row < 0) return 0L;
+		long carry;
+		if (w > 0) {
+			carry = src[row + w - 1] >>> 63;
+		} else if (grid.isWrap()) {
+			int x = grid.getWidth() - 1;
+			carry = (src[row + (x >>> 6)] >>> x) & 1L;
+		} else {
+			carry = 0L;
+		}
+		return (src[row + w] << 1) | carry;
+	}
+
+	/** Bit x of the result holds cell x+1 */
+	private static long east(long[] src, int row, int w, int wordsPerRow, BitGrid grid) {
+		if (row < 0) return 0L;
+		long shifted = src[row + w] >>> 1;
+		if (w < wordsPerRow - 1) {
+			return shifted | (src[row + w + 1] << 63);
+		} else if (grid.isWrap()) {
+			return shifted | ((src[row] & 1L) << (grid.getWidth() - 1));
+		}
+		return shifted;
+	}
+
+	@Override
+	public String toString() {
+		return rule;
+	}
+}
@@ -0,0 +1,96 @@
+package org.baseagent.foundations;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.baseagent.grid.GridLayer;
+
+import javafx.animation.AnimationTimer;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+/**
+ * Draws a whole GridLayer as an image instead of one fillRect per cell. Each cell value is looked up
+ * in a palette of ARGB colors into a reused pixel array with one pixel per cell, which is written to
+ * a reused WritableImage with a single setPixels call and then drawn scaled up to the cell size.
+ * A frame costs a table lookup per cell and one image draw, however large the grid.
+ */
+public class PaletteGridCanvas extends Canvas {
+	private final GridLayer layer;
+	private final int width;
+	private final int height;
+	private final int[] pixels;
+	private final WritableImage image;
+	private final Map<Object, Integer> palette = new HashMap<>();
+	private int otherArgb = toArgb(Color.TRANSPARENT);
+
+	private final AnimationTimer timer = new AnimationTimer() {
+		@Override
+		public void handle(long now) {
+			redraw();
+		}
+	};
+
+	public PaletteGridCanvas(GridLayer layer, int width, int height, double cellWidth, double cellHeight) {
+		super(width * cellWidth, height * cellHeight);
+		this.layer = layer;
+		this.width = width;
+		this.height = height;
+		this.pixels = new int[width * height];
+		this.image = new WritableImage(width, height);
+	}
+
+	/** Cells holding value are drawn in color */
+	public void setColor(Object value, Color color) {
+		palette.put(value, toArgb(color));
+	}
+
+	/** Cells holding a value not in the palette, or null, are drawn in color */
+	public void setOtherColor(Color color) {
+		otherArgb = toArgb(color);
+	}
+
+	/** Starts redrawing on every JavaFX pulse */
+	public void start() {
+		timer.start();
+	}
+
+	public void stop() {
+		timer.stop();
+	}
+
+	/** Draws the layer as it is now; call on the JavaFX thread */
+	public void redraw() {
+		// Neighboring cells mostly hold the very same value object, so the last lookup is reused
+		Object lastValue = null;
+		int lastArgb = otherArgb;
+		for (int y=0; y < height; y++) {
+			int row = y * width;
+			for (int x=0; x < width; x++) {
+				Object value = layer.get(x, y);
+				if (value != lastValue) {
+					Integer argb = (value != null) ? palette.get(value) : null;
+					lastValue = value;
+					lastArgb = (argb != null) ? argb : otherArgb;
+				}
+				pixels[row + x] = lastArgb;
+			}
+		}
+		image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+
+		GraphicsContext gc = getGraphicsContext2D();
+		gc.clearRect(0, 0, getWidth(), getHeight());
+		gc.setImageSmoothing(false);
+		gc.drawImage(image, 0, 0, getWidth(), getHeight());
+	}
+
+	private static int toArgb(Color color) {
+		return ((int)Math.round(color.getOpacity() * 255) << 24)
+			| ((int)Math.round(color.getRed() * 255) << 16)
+			| ((int)Math.round(color.getGreen() * 255) << 8)
+			| (int)Math.round(color.getBlue() * 255);
+	}
+}
@@ -0,0 +1,58 @@
+package org.baseagent.foundations;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.baseagent.Patch;
+import org.baseagent.grid.Grid;
+import org.baseagent.grid.GridAgent;
+import org.baseagent.sim.Simulation;
+
+/**
+ * Applies a Patch to every cell of a Grid once per simulation step, with the rows split across a
+ * fork-join pool. Add a ParallelPatch to the Simulation instead of the Patch itself.
+ *
+ * This is only safe on a Grid using NEXT_BECOMES_CURRENT, and only for a Patch that reads the
+ * current buffer and writes nothing but its own cell. Then no cell depends on another cell's result
+ * within a step, so the outcome is identical to applying the Patch one cell at a time. All rows
+ * finish before step() returns, so the Grid swaps its buffers afterwards as usual.
+ */
+public class ParallelPatch extends GridAgent {
+	private final Patch patch;
+	private final Grid grid;
+	private final int width;
+	private final int height;
+	private ForkJoinPool pool;
+
+	/** Applies the patch on the common fork-join pool */
+	public ParallelPatch(Patch patch, Grid grid, int width, int height) {
+		this(patch, grid, width, height, ForkJoinPool.commonPool());
+	}
+
+	/** Applies the patch on the given pool, or sequentially on the simulation thread if pool is null */
+	public ParallelPatch(Patch patch, Grid grid, int width, int height, ForkJoinPool pool) {
+		this.patch = patch;
+		this.grid = grid;
+		this.width = width;
+		this.height = height;
+		this.pool = pool;
+	}
+
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
+	@Override
+	public void step(Simulation simulation) {
+		RowBands.run(pool, height, (fromRow, toRow) -> {
+			for (int y=fromRow; y < toRow; y++) {
+				for (int x=0; x < width; x++) {
+					patch.applyPatch(grid, x, y);
+				}
+			}
+		});
+	}
+}
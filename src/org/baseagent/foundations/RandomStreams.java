@@ -0,0 +1,125 @@
+package org.baseagent.foundations;
+
+import java.util.SplittableRandom;
+
+import org.baseagent.grid.GridAgent;
+import org.baseagent.sim.Simulation;
+
+/**
+ * Random numbers for a simulation from one seed, handed out as independent streams: one per agent,
+ * or per row of a KnowledgeTable. Each stream is derived from the seed and its key alone, so a run
+ * is reproducible whatever order (or thread) the agents step in, and no two agents ever share a
+ * generator. Use these instead of Math.random, and the movement and placement helpers below
+ * instead of GridAgent.moveRandomly and placeRandomly, which draw from a shared generator.
+ *
+ * The seed is kept in the simulation properties under {@link #SEED}. A stream is a SplitMix64
+ * generator that draws exactly what a SplittableRandom of the same seed would, but whose state can be
+ * read and set, so that a Checkpoint can save it.
+ */
+public class RandomStreams {
+	public static final String SEED = "RANDOM_SEED";
+	private static final String STREAMS = "RANDOM_STREAMS";
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	private final long seed;
+
+	public RandomStreams(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * The streams of a simulation, seeded from its {@link #SEED} property. If no seed has been set,
+	 * one is drawn and stored there, so that the run can be repeated.
+	 */
+	public static RandomStreams of(Simulation simulation) {
+		RandomStreams streams = (RandomStreams)simulation.getProperties().get(STREAMS);
+		if (streams == null) {
+			Object seed = simulation.getProperties().get(SEED);
+			if (seed == null) {
+				seed = new SplittableRandom().nextLong();
+				simulation.getProperties().put(SEED, seed);
+			}
+			streams = new RandomStreams(((Number)seed).longValue());
+			simulation.getProperties().put(STREAMS, streams);
+		}
+		return streams;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	/** The stream for a key, such as an agent's index; the same seed and key always give the same stream */
+	public Stream forKey(long key) {
+		return new Stream(mix(seed + GOLDEN_GAMMA * (key + 1)));
+	}
+
+	/** Moves the agent to one of its eight neighboring cells, or leaves it in place, staying on a width x height grid */
+	public static void moveRandomly(GridAgent agent, Stream random, int width, int height) {
+		int x = agent.getCellX() + random.nextInt(3) - 1;
+		int y = agent.getCellY() + random.nextInt(3) - 1;
+		if ((x >= 0) && (y >= 0) && (x < width) && (y < height)) agent.placeAt(x, y);
+	}
+
+	/** Places the agent on a random cell of a width x height grid; add the agent to the simulation first */
+	public static void placeRandomly(GridAgent agent, Stream random, int width, int height) {
+		agent.placeAt(random.nextInt(width), random.nextInt(height));
+	}
+
+	/** One stream of random numbers, whose whole state is one long */
+	public static class Stream {
+		private long state;
+
+		public Stream(long state) {
+			this.state = state;
+		}
+
+		/** The state, which {@link #setState} takes back to draw the same numbers again */
+		public long getState() {
+			return state;
+		}
+
+		public void setState(long state) {
+			this.state = state;
+		}
+
+		public long nextLong() {
+			return mix(state += GOLDEN_GAMMA);
+		}
+
+		public int nextInt() {
+			long z = (state += GOLDEN_GAMMA);
+			z = (z ^ (z >>> 33)) * 0x62a9d9ed799705f5L;
+			return (int)(((z ^ (z >>> 28)) * 0xcb24d0a5c88c35b3L) >>> 32);
+		}
+
+		/** Uniform from 0 up to but not including bound, rejecting draws as SplittableRandom does so that no value is favored */
+		public int nextInt(int bound) {
+			if (bound <= 0) throw new IllegalArgumentException("bound must be positive");
+			int r = nextInt();
+			int m = bound - 1;
+			if ((bound & m) == 0) return r & m;
+			int u = r >>> 1;
+			while (u + m - (r = u % bound) < 0) {
+				u = nextInt() >>> 1;
+			}
+			return r;
+		}
+
+		/** Uniform from 0 up to but not including 1 */
+		public double nextDouble() {
+			return (nextLong() >>> 11) * 0x1.0p-53;
+		}
+
+		public boolean nextBoolean() {
+			return nextInt() < 0;
+		}
+	}
+
+	// Stafford's variant 13 of the MurmurHash3 finalizer, which spreads nearby keys across the seed space
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
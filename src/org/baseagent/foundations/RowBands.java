@@ -0,0 +1,53 @@
+package org.baseagent.foundations;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits the rows of a grid into bands and runs them on a fork-join pool. {@link #run} returns
+ * only once every band has finished, so it is the barrier before a double-buffered layer swaps.
+ */
+public class RowBands {
+
+	/** Work on the rows from fromRow (inclusive) to toRow (exclusive) */
+	public interface RowRange {
+		void apply(int fromRow, int toRow);
+	}
+
+	/** Runs range over rows [0, rows) on the pool, or on the calling thread if pool is null */
+	public static void run(ForkJoinPool pool, int rows, RowRange range) {
+		if ((pool == null) || (pool.getParallelism() == 1) || (rows < 2)) {
+			range.apply(0, rows);
+			return;
+		}
+		// A few bands per worker so that uneven rows still balance out
+		int grain = Math.max(1, rows / (pool.getParallelism() * 4));
+		pool.invoke(new Band(range, 0, rows, grain));
+	}
+
+	private static class Band extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final RowRange range;
+		private final int fromRow;
+		private final int toRow;
+		private final int grain;
+
+		Band(RowRange range, int fromRow, int toRow, int grain) {
+			this.range = range;
+			this.fromRow = fromRow;
+			this.toRow = toRow;
+			this.grain = grain;
+		}
+
+		@Override
+		protected void compute() {
+			if (toRow - fromRow <= grain) {
+				range.apply(fromRow, toRow);
+			} else {
+				int middle = (fromRow + toRow) >>> 1;
+				invokeAll(new Band(range, fromRow, middle, grain), new Band(range, middle, toRow, grain));
+			}
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package org.baseagent.foundations;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The record format shared by RunRecorder and RunReplayer. A log is a header followed by chunks, each
+ * one deflated on its own: a keyframe chunk opens with the whole state at one step and goes on with the
+ * changes of the steps after it, and an ordinary chunk holds changes only. Within a chunk every record
+ * is a tag followed by varints, so a step that changes little costs a few bytes.
+ */
+class RunLog {
+	static final int MAGIC = 0x42415252;
+	static final int VERSION = 1;
+	/** compressed length, raw length, first step, last step, keyframe flag */
+	static final int CHUNK_HEADER_BYTES = 4 + 4 + 8 + 8 + 1;
+
+	static final byte STEP = 1, KEYFRAME = 2, DEFINE = 3, CELLS = 4, MOVES = 5, STATES = 6, WARP = 7;
+	static final byte NULL = 0, STRING = 1, BOOLEAN = 2, INTEGER = 3, LONG = 4, DOUBLE = 5;
+
+	/** A growable byte array written as varints */
+	static class Output {
+		byte[] bytes = new byte[1 << 16];
+		int size;
+
+		void putByte(int value) {
+			if (size == bytes.length) bytes = Arrays.copyOf(bytes, size * 2);
+			bytes[size++] = (byte)value;
+		}
+
+		void putBytes(byte[] source, int length) {
+			if (size + length > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+			System.arraycopy(source, 0, bytes, size, length);
+			size += length;
+		}
+
+		void putVarlong(long value) {
+			while ((value & ~0x7fL) != 0) {
+				putByte((int)((value & 0x7f) | 0x80));
+				value >>>= 7;
+			}
+			putByte((int)value);
+		}
+
+		void putVarint(int value) {
+			putVarlong(value & 0xffffffffL);
+		}
+
+		void putSignedVarint(int value) {
+			putVarint((value << 1) ^ (value >> 31));
+		}
+
+		void putLong(long value) {
+			for (int shift=56; shift >= 0; shift -= 8) {
+				putByte((int)(value >>> shift));
+			}
+		}
+
+		/** Null is written as length 0, and every other string as its length plus one */
+		void putString(String value) {
+			if (value == null) {
+				putVarint(0);
+				return;
+			}
+			byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+			putVarint(encoded.length + 1);
+			putBytes(encoded, encoded.length);
+		}
+
+		void putValue(Object value) {
+			if (value == null) {
+				putByte(NULL);
+			} else if (value instanceof String) {
+				putByte(STRING);
+				putString((String)value);
+			} else if (value instanceof Boolean) {
+				putByte(BOOLEAN);
+				putByte(((Boolean)value) ? 1 : 0);
+			} else if (value instanceof Integer) {
+				putByte(INTEGER);
+				putSignedVarint((Integer)value);
+			} else if (value instanceof Long) {
+				putByte(LONG);
+				putLong((Long)value);
+			} else if (value instanceof Double) {
+				putByte(DOUBLE);
+				putLong(Double.doubleToRawLongBits((Double)value));
+			} else {
+				throw new IllegalArgumentException("Cannot record a " + value.getClass().getName() + ": " + value);
+			}
+		}
+	}
+
+	/** Reads what an Output wrote */
+	static class Input {
+		byte[] bytes;
+		int position;
+		int limit;
+
+		boolean hasRemaining() {
+			return position < limit;
+		}
+
+		int getByte() {
+			return bytes[position++];
+		}
+
+		long getVarlong() {
+			long value = 0;
+			for (int shift=0; ; shift += 7) {
+				byte b = bytes[position++];
+				value |= (long)(b & 0x7f) << shift;
+				if (b >= 0) return value;
+			}
+		}
+
+		int getVarint() {
+			return (int)getVarlong();
+		}
+
+		int getSignedVarint() {
+			int zigzag = getVarint();
+			return (zigzag >>> 1) ^ -(zigzag & 1);
+		}
+
+		long getLong() {
+			long value = 0;
+			for (int i=0; i < 8; i++) {
+				value = (value << 8) | (bytes[position++] & 0xff);
+			}
+			return value;
+		}
+
+		String getString() {
+			int length = getVarint() - 1;
+			if (length < 0) return null;
+			String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+			position += length;
+			// Interned, so replayed cells share the literals a display compares them with
+			return value.intern();
+		}
+
+		Object getValue() {
+			int tag = getByte();
+			switch (tag) {
+			case NULL: return null;
+			case STRING: return getString();
+			case BOOLEAN: return getByte() != 0;
+			case INTEGER: return getSignedVarint();
+			case LONG: return getLong();
+			case DOUBLE: return Double.longBitsToDouble(getLong());
+			default: throw new IllegalStateException("Unknown value tag " + tag);
+			}
+		}
+	}
+}
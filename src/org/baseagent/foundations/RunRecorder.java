@@ -0,0 +1,496 @@
+package org.baseagent.foundations;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+import org.baseagent.grid.GridAgent;
+import org.baseagent.grid.GridLayer;
+import org.baseagent.sim.Simulation;
+
+/**
+ * Records a run as it steps, so that it can be watched again or analyzed with a RunReplayer instead
+ * of being run again. Each step appends only what changed: cells of the watched layers, agents that
+ * moved to another cell, rows that entered a state in a watched TimedStateMachine, and warps. Every
+ * so many steps a keyframe holds the whole state, so that a replayer can seek without reading the log
+ * from the start.
+ *
+ * Records collect in a chunk which, once large enough, is handed to a writer thread that deflates
+ * it and appends it to the log. Only a few chunks may wait for the writer, so memory stays bounded
+ * however long the run; if the disk falls behind, stepping waits. The log is append only, and a
+ * replayer reads every complete chunk of a log that was cut short.
+ *
+ * Set everything up before the first step, add the RunRecorder to the Simulation after everything it
+ * watches, and {@link #close} it once stepping stops. Layer values must be null, Strings, Booleans,
+ * Integers, Longs or Doubles.
+ */
+public class RunRecorder extends GridAgent {
+	private static final int CHUNK_BYTES = 1 << 18;
+	private static final int CHUNKS_WAITING = 4;
+	private static final Chunk END = new Chunk(null, 0, 0, false);
+
+	private final Path file;
+	private final int width;
+	private final int height;
+	private final List<Layer> layers = new ArrayList<>();
+	private final List<GridAgent> agents = new ArrayList<>();
+	private final Map<GridAgent, Integer> agentIndex = new IdentityHashMap<>();
+	private final List<Machine> machines = new ArrayList<>();
+	private final Map<Integer, String> warps = new HashMap<>();
+	private long keyframeInterval = 1000;
+
+	private int[] agentX;
+	private int[] agentY;
+	private int[] moved = new int[16];
+	private int[] pendingWarpAgents = new int[4];
+	private final List<String> pendingWarpNames = new ArrayList<>();
+
+	private final RunLog.Output chunk = new RunLog.Output();
+	private long chunkFirst;
+	private long chunkLast;
+	private boolean chunkKeyframe;
+	private long lastKeyframe;
+	private boolean started;
+
+	private FileChannel channel;
+	private Thread writer;
+	private final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(CHUNKS_WAITING);
+	private volatile IOException failure;
+	private volatile long bytesWritten;
+
+	/** A watched layer, with the values it held at the last step */
+	private static class Layer {
+		final GridLayer layer;
+		final CellChanges changes;
+		final Object[] shadow;
+		final Map<Object, Integer> codes = new HashMap<>();
+		int[] changed = new int[16];
+
+		Layer(GridLayer layer, CellChanges changes, int cells) {
+			this.layer = layer;
+			this.changes = changes;
+			this.shadow = new Object[cells];
+		}
+	}
+
+	/** A watched state machine: everyone's state, and who entered a state since the last step */
+	private static class Machine {
+		byte[] states = new byte[16];
+		int[] pendingRows = new int[16];
+		byte[] pendingStates = new byte[16];
+		int rows;
+		int pending;
+
+		void entered(int row, int state) {
+			if (row >= states.length) states = Arrays.copyOf(states, Math.max(row + 1, states.length * 2));
+			states[row] = (byte)state;
+			rows = Math.max(rows, row + 1);
+			if (pending == pendingRows.length) {
+				pendingRows = Arrays.copyOf(pendingRows, pending * 2);
+				pendingStates = Arrays.copyOf(pendingStates, pending * 2);
+			}
+			pendingRows[pending] = row;
+			pendingStates[pending] = (byte)state;
+			pending++;
+		}
+	}
+
+	private static class Chunk {
+		final byte[] bytes;
+		final long firstStep;
+		final long lastStep;
+		final boolean keyframe;
+
+		Chunk(byte[] bytes, long firstStep, long lastStep, boolean keyframe) {
+			this.bytes = bytes;
+			this.firstStep = firstStep;
+			this.lastStep = lastStep;
+			this.keyframe = keyframe;
+		}
+	}
+
+	/** Records a width x height world to file, which is replaced */
+	public RunRecorder(Path file, int width, int height) {
+		this.file = file;
+		this.width = width;
+		this.height = height;
+	}
+
+	/** A layer whose cells are compared with the last step's, all of them, on every step */
+	public void watch(GridLayer layer) {
+		watch(layer, null);
+	}
+
+	/**
+	 * A layer whose cells are compared with the last step's only where the model marked them in
+	 * changes. The recorder takes the changes, so nothing else may.
+	 */
+	public void watch(GridLayer layer, CellChanges changes) {
+		layers.add(new Layer(layer, changes, width * height));
+	}
+
+	/** An agent whose moves from cell to cell are recorded */
+	public void addAgent(GridAgent agent) {
+		agentIndex.put(agent, agents.size());
+		agents.add(agent);
+	}
+
+	/** A state machine whose transitions are recorded; rows it has already entered are taken as they stand */
+	public <S extends Enum<S>> void watch(TimedStateMachine<S> stateMachine) {
+		Machine machine = new Machine();
+		for (int row=0; row < stateMachine.size(); row++) {
+			machine.entered(row, stateMachine.getState(row).ordinal());
+		}
+		machine.pending = 0;
+		stateMachine.addStateListener((row, from, to, now) -> machine.entered(row, to));
+		machines.add(machine);
+	}
+
+	/** Records that an added agent warped to another grid, by name, such as "HOSPITAL_GRID" */
+	public void recordWarp(GridAgent agent, String gridName) {
+		Integer index = agentIndex.get(agent);
+		if (index == null) throw new IllegalArgumentException("Agent was not added to the recorder");
+		int count = pendingWarpNames.size();
+		if (count == pendingWarpAgents.length) pendingWarpAgents = Arrays.copyOf(pendingWarpAgents, count * 2);
+		pendingWarpAgents[count] = index;
+		pendingWarpNames.add(gridName);
+	}
+
+	/** Steps between keyframes, 1000 by default; a keyframe costs a pass over every cell */
+	public void setKeyframeInterval(long keyframeInterval) {
+		this.keyframeInterval = Math.max(1, keyframeInterval);
+	}
+
+	/** Compressed bytes appended to the log so far */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	@Override
+	public void step(Simulation simulation) {
+		if (failure != null) throw new UncheckedIOException(failure);
+		long now = simulation.getStepTime();
+		try {
+			if (!started) {
+				start();
+				writeKeyframe(now);
+				return;
+			}
+			if (chunk.size == 0) chunkFirst = now;
+			chunkLast = now;
+			chunk.putByte(RunLog.STEP);
+			chunk.putVarlong(now);
+			recordCells();
+			recordMoves();
+			recordStates();
+			recordWarps();
+
+			if (now - lastKeyframe >= keyframeInterval) {
+				flushChunk();
+				writeKeyframe(now);
+			} else if (chunk.size >= CHUNK_BYTES) {
+				flushChunk();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** Appends what is still buffered, waits for the writer and closes the log */
+	public void close() throws IOException {
+		if (!started) return;
+		try {
+			flushChunk();
+			queue.put(END);
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			channel.close();
+		}
+		if (failure != null) throw failure;
+	}
+
+	private void start() {
+		started = true;
+		for (Layer layer : layers) {
+			for (int y=0; y < height; y++) {
+				for (int x=0; x < width; x++) {
+					layer.shadow[y * width + x] = layer.layer.get(x, y);
+				}
+			}
+			// Everything is in the shadow now, so the changes marked so far are spent
+			if (layer.changes != null) layer.changes.take();
+		}
+		agentX = new int[agents.size()];
+		agentY = new int[agents.size()];
+		for (int i=0; i < agents.size(); i++) {
+			agentX[i] = agents.get(i).getCellX();
+			agentY[i] = agents.get(i).getCellY();
+		}
+		for (Machine machine : machines) {
+			machine.pending = 0;
+		}
+		pendingWarpNames.clear();
+
+		RunLog.Output header = new RunLog.Output();
+		header.putLong(((long)RunLog.MAGIC << 32) | RunLog.VERSION);
+		header.putVarint(width);
+		header.putVarint(height);
+		header.putVarint(layers.size());
+		for (Layer layer : layers) {
+			header.putString(layer.layer.getLayerName());
+		}
+		header.putVarint(agents.size());
+		header.putVarint(machines.size());
+		try {
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			ByteBuffer buffer = ByteBuffer.wrap(header.bytes, 0, header.size);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		bytesWritten = header.size;
+		writer = new Thread(this::writeChunks, "run-recorder");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	private void recordCells() {
+		for (int l=0; l < layers.size(); l++) {
+			Layer layer = layers.get(l);
+			CellSet marked = (layer.changes != null) ? layer.changes.take() : null;
+			int count = 0;
+			if (marked == null) {
+				for (int y=0; y < height; y++) {
+					for (int x=0; x < width; x++) {
+						count = compare(layer, l, y * width + x, x, y, count);
+					}
+				}
+			} else {
+				for (int i=0; i < marked.size(); i++) {
+					int index = marked.getIndex(i);
+					count = compare(layer, l, index, index % width, index / width, count);
+				}
+			}
+			if (count == 0) continue;
+
+			chunk.putByte(RunLog.CELLS);
+			chunk.putVarint(l);
+			chunk.putVarint(count);
+			int last = 0;
+			for (int i=0; i < count; i++) {
+				int index = layer.changed[i];
+				chunk.putSignedVarint(index - last);
+				chunk.putVarint(layer.codes.get(layer.shadow[index]));
+				last = index;
+			}
+		}
+	}
+
+	// Notes the cell if it changed, defining its value first if the layer never held it before
+	private int compare(Layer layer, int l, int index, int x, int y, int count) {
+		Object value = layer.layer.get(x, y);
+		Object old = layer.shadow[index];
+		if (Objects.equals(value, old)) return count;
+		layer.shadow[index] = value;
+		codeOf(layer, l, value, chunk);
+		if (count == layer.changed.length) layer.changed = Arrays.copyOf(layer.changed, count * 2);
+		layer.changed[count] = index;
+		return count + 1;
+	}
+
+	private int codeOf(Layer layer, int l, Object value, RunLog.Output out) {
+		Integer code = layer.codes.get(value);
+		if (code == null) {
+			code = layer.codes.size();
+			layer.codes.put(value, code);
+			out.putByte(RunLog.DEFINE);
+			out.putVarint(l);
+			out.putValue(value);
+		}
+		return code;
+	}
+
+	private void recordMoves() {
+		int count = 0;
+		for (int i=0; i < agentX.length; i++) {
+			GridAgent agent = agents.get(i);
+			int x = agent.getCellX();
+			int y = agent.getCellY();
+			if ((x == agentX[i]) && (y == agentY[i])) continue;
+			agentX[i] = x;
+			agentY[i] = y;
+			if (count == moved.length) moved = Arrays.copyOf(moved, count * 2);
+			moved[count++] = i;
+		}
+		if (count == 0) return;
+
+		chunk.putByte(RunLog.MOVES);
+		chunk.putVarint(count);
+		int last = 0;
+		for (int i=0; i < count; i++) {
+			int agent = moved[i];
+			chunk.putVarint(agent - last);
+			chunk.putSignedVarint(agentX[agent]);
+			chunk.putSignedVarint(agentY[agent]);
+			last = agent;
+		}
+	}
+
+	private void recordStates() {
+		for (int m=0; m < machines.size(); m++) {
+			Machine machine = machines.get(m);
+			if (machine.pending == 0) continue;
+			chunk.putByte(RunLog.STATES);
+			chunk.putVarint(m);
+			chunk.putVarint(machine.pending);
+			for (int i=0; i < machine.pending; i++) {
+				chunk.putVarint(machine.pendingRows[i]);
+				chunk.putByte(machine.pendingStates[i]);
+			}
+			machine.pending = 0;
+		}
+	}
+
+	private void recordWarps() {
+		for (int i=0; i < pendingWarpNames.size(); i++) {
+			warps.put(pendingWarpAgents[i], pendingWarpNames.get(i));
+			chunk.putByte(RunLog.WARP);
+			chunk.putVarint(pendingWarpAgents[i]);
+			chunk.putString(pendingWarpNames.get(i));
+		}
+		pendingWarpNames.clear();
+	}
+
+	// Starts a chunk with the whole state at step now; the steps after it follow in the same chunk
+	private void writeKeyframe(long now) throws InterruptedException {
+		chunkKeyframe = true;
+		chunkFirst = now;
+		chunkLast = now;
+		lastKeyframe = now;
+		chunk.putByte(RunLog.KEYFRAME);
+		chunk.putVarlong(now);
+		for (int l=0; l < layers.size(); l++) {
+			Layer layer = layers.get(l);
+			RunLog.Output runs = new RunLog.Output();
+			int runCount = 0;
+			int lastCode = -1;
+			int run = 0;
+			for (Object value : layer.shadow) {
+				Integer code = layer.codes.get(value);
+				if (code == null) {
+					code = layer.codes.size();
+					layer.codes.put(value, code);
+				}
+				if (code != lastCode) {
+					if (run > 0) {
+						runs.putVarint(lastCode);
+						runs.putVarint(run);
+						runCount++;
+					}
+					lastCode = code;
+					run = 0;
+				}
+				run++;
+			}
+			if (run > 0) {
+				runs.putVarint(lastCode);
+				runs.putVarint(run);
+				runCount++;
+			}
+			// Written in code order, so that values defined after this keyframe carry on the numbering
+			Object[] dictionary = new Object[layer.codes.size()];
+			for (Map.Entry<Object, Integer> entry : layer.codes.entrySet()) {
+				dictionary[entry.getValue()] = entry.getKey();
+			}
+			chunk.putVarint(dictionary.length);
+			for (Object value : dictionary) {
+				chunk.putValue(value);
+			}
+			chunk.putVarint(runCount);
+			chunk.putBytes(runs.bytes, runs.size);
+		}
+		for (int i=0; i < agentX.length; i++) {
+			chunk.putSignedVarint(agentX[i]);
+			chunk.putSignedVarint(agentY[i]);
+		}
+		for (Machine machine : machines) {
+			chunk.putVarint(machine.rows);
+			for (int row=0; row < machine.rows; row++) {
+				chunk.putByte(machine.states[row]);
+			}
+		}
+		chunk.putVarint(warps.size());
+		for (Map.Entry<Integer, String> warp : warps.entrySet()) {
+			chunk.putVarint(warp.getKey());
+			chunk.putString(warp.getValue());
+		}
+		if (chunk.size >= CHUNK_BYTES) flushChunk();
+	}
+
+	private void flushChunk() throws InterruptedException {
+		if (chunk.size == 0) return;
+		queue.put(new Chunk(Arrays.copyOf(chunk.bytes, chunk.size), chunkFirst, chunkLast, chunkKeyframe));
+		chunk.size = 0;
+		chunkKeyframe = false;
+	}
+
+	// On the writer thread: deflates each chunk and appends it after its header. After a failure chunks
+	// are still taken, and dropped, so that stepping never waits on a writer that has stopped.
+	private void writeChunks() {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		byte[] compressed = new byte[CHUNK_BYTES];
+		ByteBuffer header = ByteBuffer.allocate(RunLog.CHUNK_HEADER_BYTES);
+		try {
+			while (true) {
+				Chunk next = queue.take();
+				if (next == END) return;
+				if (failure != null) continue;
+
+				deflater.reset();
+				deflater.setInput(next.bytes);
+				deflater.finish();
+				int length = 0;
+				while (!deflater.finished()) {
+					if (length == compressed.length) compressed = Arrays.copyOf(compressed, length * 2);
+					length += deflater.deflate(compressed, length, compressed.length - length);
+				}
+				header.clear();
+				header.putInt(length).putInt(next.bytes.length).putLong(next.firstStep).putLong(next.lastStep).put((byte)(next.keyframe ? 1 : 0));
+				header.flip();
+				try {
+					while (header.hasRemaining()) {
+						channel.write(header);
+					}
+					ByteBuffer body = ByteBuffer.wrap(compressed, 0, length);
+					while (body.hasRemaining()) {
+						channel.write(body);
+					}
+					bytesWritten += RunLog.CHUNK_HEADER_BYTES + length;
+				} catch (IOException e) {
+					failure = e;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			deflater.end();
+		}
+	}
+}
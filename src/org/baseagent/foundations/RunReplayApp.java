@@ -0,0 +1,164 @@
+package org.baseagent.foundations;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.baseagent.grid.Grid;
+import org.baseagent.grid.GridAgent;
+import org.baseagent.sim.Simulation;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.geometry.Insets;
+import javafx.scene.Scene;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ScrollPane;
+import javafx.scene.control.Slider;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.paint.Color;
+import javafx.stage.Stage;
+
+/**
+ * Plays back a log written by a RunRecorder, such as one from HeadlessRunner --record, without running
+ * the model. The first recorded layer is drawn by a DirtyGridCanvas and the recorded agents on top of it;
+ * the slider seeks to any recorded step, and Play steps through the log a few steps per frame.
+ *
+ * Usage: RunReplayApp &lt;log&gt; [steps per frame]
+ */
+public class RunReplayApp extends Application {
+	private RunReplayer replayer;
+	private boolean playing;
+	// Set while the slider follows playback, so that moving it does not seek
+	private boolean following;
+
+	/** JavaFX Application launch */
+	public static void main(String[] args) {
+		launch(args);
+	}
+
+	/** JavaFX Application start method */
+	@Override
+	public void start(Stage primaryStage) throws IOException {
+		List<String> args = getParameters().getRaw();
+		if (args.isEmpty()) {
+			System.err.println("Usage: RunReplayApp <log> [steps per frame]");
+			Platform.exit();
+			return;
+		}
+		replayer = new RunReplayer(Paths.get(args.get(0)));
+		int stepsPerFrame = (args.size() > 1) ? Integer.parseInt(args.get(1)) : 1;
+		int width = replayer.getWidth();
+		int height = replayer.getHeight();
+
+		// The replayer keeps a Grid of the same size, and agents placed on it, in step with the log.
+		// The Simulation only hosts them, and is never started.
+		Simulation simulation = new Simulation();
+		Grid grid = new Grid(width, height);
+		simulation.setUniverse(grid);
+		CellChanges changes = new CellChanges(width, height);
+		if (replayer.getLayerCount() > 0) replayer.bindLayer(0, grid.getGridLayer(Grid.DEFAULT_GRID_LAYER), changes);
+
+		double cellSize = Math.max(1, 800 / Math.max(width, height));
+		DirtyGridCanvas gridCanvas = new DirtyGridCanvas(grid.getGridLayer(Grid.DEFAULT_GRID_LAYER), changes, cellSize, cellSize);
+		createRenderers(gridCanvas);
+		for (int i=0; i < replayer.getAgentCount(); i++) {
+			GridAgent agent = new GridAgent();
+			simulation.add(agent);
+			replayer.bindAgent(i, agent);
+			gridCanvas.addAgent(agent, Color.ORANGE);
+		}
+
+		Label stepLabel = new Label();
+		Slider slider = new Slider(replayer.getFirstStep(), replayer.getLastStep(), replayer.getFirstStep());
+		HBox.setHgrow(slider, Priority.ALWAYS);
+		slider.valueProperty().addListener((observable, before, after) -> {
+			if (!following) seek(after.longValue());
+			stepLabel.setText("step " + replayer.getStep());
+		});
+		stepLabel.setText("step " + replayer.getStep());
+
+		Button play = new Button("Play");
+		AnimationTimer player = new AnimationTimer() {
+			@Override
+			public void handle(long now) {
+				boolean more = true;
+				for (int i=0; (i < stepsPerFrame) && more; i++) {
+					more = next();
+				}
+				following = true;
+				slider.setValue(replayer.getStep());
+				following = false;
+				if (!more) play.fire();
+			}
+		};
+		play.setOnAction(event -> {
+			playing = !playing;
+			play.setText(playing ? "Pause" : "Play");
+			// Playing again from the end starts over
+			if (playing && (replayer.getStep() >= replayer.getLastStep())) slider.setValue(replayer.getFirstStep());
+			if (playing) player.start(); else player.stop();
+		});
+
+		HBox controls = new HBox(10, play, slider, stepLabel);
+		controls.setPadding(new Insets(10));
+
+		// The code below is JavaFX code for displaying the replay - which is mostly showing the DirtyGridCanvas
+		BorderPane borderPane = new BorderPane();
+		borderPane.setCenter(new ScrollPane(gridCanvas));
+		borderPane.setBottom(controls);
+
+		primaryStage.setTitle("Replay - " + args.get(0));
+		primaryStage.setScene(new Scene(borderPane, 1000, 1000));
+		primaryStage.setX(350);
+		primaryStage.setY(100);
+		primaryStage.setOnCloseRequest(event -> {
+			player.stop();
+			gridCanvas.stop();
+			try {
+				replayer.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+		primaryStage.show();
+
+		gridCanvas.start();
+	}
+
+	private void createRenderers(DirtyGridCanvas gridCanvas) {
+		gridCanvas.setCellPainter(new DirtyGridCanvas.CellPainter() {
+			@Override
+			public void paint(GraphicsContext gc, Object value, double xInPixels, double yInPixels, double widthInPixels, double heightInPixels) {
+				// Empty and "0" cells are black, "1" is white, and any other value gets a color of its own
+				Color color = Color.BLACK;
+				if ("1".equals(value)) color = Color.WHITE;
+				else if ((value != null) && !"0".equals(value)) color = Color.hsb(Math.floorMod(value.hashCode(), 360), 0.6, 0.9);
+				gc.setFill(color);
+				gc.fillRect(xInPixels, yInPixels, widthInPixels, heightInPixels);
+			}
+		});
+	}
+
+	private boolean next() {
+		try {
+			return replayer.next();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void seek(long step) {
+		try {
+			replayer.seek(step);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
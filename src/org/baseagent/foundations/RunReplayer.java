@@ -0,0 +1,380 @@
+package org.baseagent.foundations;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.baseagent.grid.GridAgent;
+import org.baseagent.grid.GridLayer;
+
+/**
+ * Plays back a log written by a RunRecorder, step by step or by seeking to any recorded step. Opening
+ * a log reads only the chunk headers; a seek starts from the nearest keyframe at or before the step
+ * and applies the changes after it, and {@link #next} applies one step's changes. Either way the cost
+ * is in the changes read, not in stepping the model.
+ *
+ * The replayer holds the cells of every recorded layer, the agents' cells, the states of the recorded
+ * state machines and the agents' last warps. To show a replay with the usual canvases, bind a layer
+ * of a Grid of the same size, with the CellChanges a DirtyGridCanvas draws from, and bind GridAgents
+ * placed on that Grid; they are then updated as the replay moves. Not thread safe.
+ */
+public class RunReplayer implements Closeable {
+	private final FileChannel channel;
+	private final int width;
+	private final int height;
+	private final String[] layerNames;
+	private final int agentCount;
+
+	private long[] offsets = new long[64];
+	private int[] compressedLengths = new int[64];
+	private int[] rawLengths = new int[64];
+	private long[] firstSteps = new long[64];
+	private long[] lastSteps = new long[64];
+	private boolean[] keyframes = new boolean[64];
+	private int chunks;
+
+	private final Object[][] cells;
+	private final List<List<Object>> dictionaries = new ArrayList<>();
+	private final int[] agentX;
+	private final int[] agentY;
+	private final String[] warps;
+	private final byte[][] states;
+	private final int[] stateRows;
+
+	private final GridLayer[] boundLayers;
+	private final CellChanges[] boundChanges;
+	private final GridAgent[] boundAgents;
+
+	private final Inflater inflater = new Inflater();
+	private final RunLog.Input in = new RunLog.Input();
+	private byte[] compressed = new byte[0];
+	private int chunk = -1;
+	private long step;
+
+	public RunReplayer(Path file) throws IOException {
+		this.channel = FileChannel.open(file, StandardOpenOption.READ);
+		long size = channel.size();
+		ByteBuffer headerBuffer = ByteBuffer.allocate((int)Math.min(size, 1 << 16));
+		readFully(headerBuffer, 0);
+
+		RunLog.Input header = new RunLog.Input();
+		header.bytes = headerBuffer.array();
+		header.limit = headerBuffer.limit();
+		if (header.getLong() != (((long)RunLog.MAGIC << 32) | RunLog.VERSION)) throw new IOException("Not a version " + RunLog.VERSION + " run log: " + file);
+		this.width = header.getVarint();
+		this.height = header.getVarint();
+		this.layerNames = new String[header.getVarint()];
+		for (int i=0; i < layerNames.length; i++) {
+			layerNames[i] = header.getString();
+		}
+		this.agentCount = header.getVarint();
+		int machineCount = header.getVarint();
+
+		// Index the complete chunks; a log cut short ends at the last one
+		ByteBuffer chunkHeader = ByteBuffer.allocate(RunLog.CHUNK_HEADER_BYTES);
+		for (long position=header.position; position + RunLog.CHUNK_HEADER_BYTES <= size; ) {
+			chunkHeader.clear();
+			readFully(chunkHeader, position);
+			int compressedLength = chunkHeader.getInt();
+			if (position + RunLog.CHUNK_HEADER_BYTES + compressedLength > size) break;
+			if (chunks == offsets.length) grow();
+			offsets[chunks] = position + RunLog.CHUNK_HEADER_BYTES;
+			compressedLengths[chunks] = compressedLength;
+			rawLengths[chunks] = chunkHeader.getInt();
+			firstSteps[chunks] = chunkHeader.getLong();
+			lastSteps[chunks] = chunkHeader.getLong();
+			keyframes[chunks] = chunkHeader.get() != 0;
+			chunks++;
+			position += RunLog.CHUNK_HEADER_BYTES + compressedLength;
+		}
+		if ((chunks == 0) || !keyframes[0]) throw new IOException("Run log holds no keyframe: " + file);
+
+		this.cells = new Object[layerNames.length][width * height];
+		for (int i=0; i < layerNames.length; i++) {
+			dictionaries.add(new ArrayList<>());
+		}
+		this.agentX = new int[agentCount];
+		this.agentY = new int[agentCount];
+		this.warps = new String[agentCount];
+		this.states = new byte[machineCount][];
+		this.stateRows = new int[machineCount];
+		this.boundLayers = new GridLayer[layerNames.length];
+		this.boundChanges = new CellChanges[layerNames.length];
+		this.boundAgents = new GridAgent[agentCount];
+		seek(firstSteps[0]);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getLayerCount() {
+		return layerNames.length;
+	}
+
+	public String getLayerName(int layer) {
+		return layerNames[layer];
+	}
+
+	public int getAgentCount() {
+		return agentCount;
+	}
+
+	/** The first and last steps recorded */
+	public long getFirstStep() {
+		return firstSteps[0];
+	}
+
+	public long getLastStep() {
+		return lastSteps[chunks - 1];
+	}
+
+	/** The step the replay is at */
+	public long getStep() {
+		return step;
+	}
+
+	public Object get(int layer, int x, int y) {
+		return cells[layer][y * width + x];
+	}
+
+	public int getAgentX(int agent) {
+		return agentX[agent];
+	}
+
+	public int getAgentY(int agent) {
+		return agentY[agent];
+	}
+
+	/** The grid an agent last warped to, or null if it never warped */
+	public String getWarp(int agent) {
+		return warps[agent];
+	}
+
+	/** The ordinal of the state a row of a recorded state machine is in */
+	public int getState(int machine, int row) {
+		return (row < stateRows[machine]) ? states[machine][row] : 0;
+	}
+
+	/** Keeps a layer of the same size in step with a recorded layer, marking each cell it sets in changes, if any */
+	public void bindLayer(int layer, GridLayer target, CellChanges changes) {
+		boundLayers[layer] = target;
+		boundChanges[layer] = changes;
+		for (int y=0; y < height; y++) {
+			for (int x=0; x < width; x++) {
+				target.set(x, y, cells[layer][y * width + x]);
+			}
+		}
+		if (changes != null) changes.markAll();
+	}
+
+	/** Places agent wherever a recorded agent is, as the replay moves */
+	public void bindAgent(int agent, GridAgent target) {
+		boundAgents[agent] = target;
+		target.placeAt(agentX[agent], agentY[agent]);
+	}
+
+	/** Applies the next recorded step; false at the end of the log */
+	public boolean next() throws IOException {
+		while (!in.hasRemaining()) {
+			if (chunk + 1 >= chunks) return false;
+			load(chunk + 1);
+			// Replaying from the step before, the state is already the keyframe's
+			if (in.bytes[in.position] == RunLog.KEYFRAME) readKeyframe(false);
+		}
+		applyStep();
+		return true;
+	}
+
+	/** Moves to the last recorded step at or before the given one, or to the first step recorded */
+	public void seek(long target) throws IOException {
+		int from = 0;
+		for (int c=0; c < chunks; c++) {
+			if (keyframes[c] && (firstSteps[c] <= target)) from = c;
+		}
+		load(from);
+		readKeyframe(true);
+		while (true) {
+			if (!in.hasRemaining()) {
+				if ((chunk + 1 >= chunks) || (firstSteps[chunk + 1] > target)) return;
+				load(chunk + 1);
+				continue;
+			}
+			// Peek at the next step's number without consuming it
+			int mark = in.position;
+			in.getByte();
+			long nextStep = in.getVarlong();
+			in.position = mark;
+			if (nextStep > target) return;
+			applyStep();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		inflater.end();
+		channel.close();
+	}
+
+	private void load(int c) throws IOException {
+		if (compressed.length < compressedLengths[c]) compressed = new byte[compressedLengths[c]];
+		readFully(ByteBuffer.wrap(compressed, 0, compressedLengths[c]), offsets[c]);
+		if ((in.bytes == null) || (in.bytes.length < rawLengths[c])) in.bytes = new byte[rawLengths[c]];
+		inflater.reset();
+		inflater.setInput(compressed, 0, compressedLengths[c]);
+		try {
+			int length = 0;
+			while (length < rawLengths[c]) {
+				int inflated = inflater.inflate(in.bytes, length, rawLengths[c] - length);
+				if ((inflated == 0) && (inflater.finished() || inflater.needsInput())) throw new IOException("Run log chunk " + c + " is truncated");
+				length += inflated;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Run log chunk " + c + " is corrupt", e);
+		}
+		in.position = 0;
+		in.limit = rawLengths[c];
+		chunk = c;
+	}
+
+	private void applyStep() {
+		in.getByte();
+		step = in.getVarlong();
+		while (in.hasRemaining() && (in.bytes[in.position] != RunLog.STEP)) {
+			int tag = in.getByte();
+			switch (tag) {
+			case RunLog.DEFINE:
+				int definedIn = in.getVarint();
+				dictionaries.get(definedIn).add(in.getValue());
+				break;
+			case RunLog.CELLS:
+				int layer = in.getVarint();
+				int count = in.getVarint();
+				List<Object> dictionary = dictionaries.get(layer);
+				int index = 0;
+				for (int i=0; i < count; i++) {
+					index += in.getSignedVarint();
+					Object value = dictionary.get(in.getVarint());
+					cells[layer][index] = value;
+					if (boundLayers[layer] != null) {
+						boundLayers[layer].set(index % width, index / width, value);
+						if (boundChanges[layer] != null) boundChanges[layer].mark(index % width, index / width);
+					}
+				}
+				break;
+			case RunLog.MOVES:
+				int moves = in.getVarint();
+				int agent = 0;
+				for (int i=0; i < moves; i++) {
+					agent += in.getVarint();
+					agentX[agent] = in.getSignedVarint();
+					agentY[agent] = in.getSignedVarint();
+					if (boundAgents[agent] != null) boundAgents[agent].placeAt(agentX[agent], agentY[agent]);
+				}
+				break;
+			case RunLog.STATES:
+				int machine = in.getVarint();
+				int entries = in.getVarint();
+				for (int i=0; i < entries; i++) {
+					setState(machine, in.getVarint(), (byte)in.getByte());
+				}
+				break;
+			case RunLog.WARP:
+				int warped = in.getVarint();
+				warps[warped] = in.getString();
+				break;
+			default:
+				throw new IllegalStateException("Unknown record " + tag + " in run log chunk " + chunk);
+			}
+		}
+	}
+
+	// Reads the keyframe at the start of the loaded chunk, and makes it the state if apply is set
+	private void readKeyframe(boolean apply) {
+		in.getByte();
+		long keyframeStep = in.getVarlong();
+		for (int l=0; l < layerNames.length; l++) {
+			List<Object> dictionary = dictionaries.get(l);
+			dictionary.clear();
+			int size = in.getVarint();
+			for (int i=0; i < size; i++) {
+				dictionary.add(in.getValue());
+			}
+			int runs = in.getVarint();
+			int index = 0;
+			for (int r=0; r < runs; r++) {
+				Object value = dictionary.get(in.getVarint());
+				int length = in.getVarint();
+				if (apply) Arrays.fill(cells[l], index, index + length, value);
+				index += length;
+			}
+			if (apply && (boundLayers[l] != null)) bindLayer(l, boundLayers[l], boundChanges[l]);
+		}
+		for (int a=0; a < agentCount; a++) {
+			int x = in.getSignedVarint();
+			int y = in.getSignedVarint();
+			if (apply) {
+				agentX[a] = x;
+				agentY[a] = y;
+				if (boundAgents[a] != null) boundAgents[a].placeAt(x, y);
+			}
+		}
+		for (int m=0; m < states.length; m++) {
+			int rows = in.getVarint();
+			if (apply) stateRows[m] = 0;
+			for (int row=0; row < rows; row++) {
+				byte state = (byte)in.getByte();
+				if (apply) setState(m, row, state);
+			}
+		}
+		if (apply) Arrays.fill(warps, null);
+		int warpCount = in.getVarint();
+		for (int i=0; i < warpCount; i++) {
+			int agent = in.getVarint();
+			String grid = in.getString();
+			if (apply) warps[agent] = grid;
+		}
+		if (apply) step = keyframeStep;
+	}
+
+	private void setState(int machine, int row, byte state) {
+		byte[] machineStates = states[machine];
+		if ((machineStates == null) || (row >= machineStates.length)) {
+			machineStates = (machineStates == null) ? new byte[Math.max(16, row + 1)] : Arrays.copyOf(machineStates, Math.max(row + 1, machineStates.length * 2));
+			states[machine] = machineStates;
+		}
+		machineStates[row] = state;
+		stateRows[machine] = Math.max(stateRows[machine], row + 1);
+	}
+
+	private void grow() {
+		int capacity = chunks * 2;
+		offsets = Arrays.copyOf(offsets, capacity);
+		compressedLengths = Arrays.copyOf(compressedLengths, capacity);
+		rawLengths = Arrays.copyOf(rawLengths, capacity);
+		firstSteps = Arrays.copyOf(firstSteps, capacity);
+		lastSteps = Arrays.copyOf(lastSteps, capacity);
+		keyframes = Arrays.copyOf(keyframes, capacity);
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) break;
+			position += read;
+		}
+		buffer.flip();
+	}
+}
@@ -0,0 +1,140 @@
+package org.baseagent.foundations;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.baseagent.grid.Grid;
+import org.baseagent.sim.Simulation;
+
+/**
+ * A Scenario builds one of the foundations models into a Simulation without touching JavaFX,
+ * so the same model can be shown in a window or run headless. A Scenario keeps references to
+ * what it built, so create a new one for every run.
+ */
+public abstract class Scenario {
+	private final String name;
+	private final int width;
+	private final int height;
+	private final long steps;
+	private Long seed;
+	private final Map<String, Object> properties = new LinkedHashMap<>();
+
+	private Simulation simulation;
+	private Grid grid;
+
+	protected Scenario(String name, int width, int height, long steps) {
+		this.name = name;
+		this.width = width;
+		this.height = height;
+		this.steps = steps;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/** The step at which the Simulation built by this Scenario ends */
+	public long getSteps() {
+		return steps;
+	}
+
+	/** Seeds the RandomStreams of the Simulation built next; without a seed, each build draws its own */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/** Sets a simulation property of the Simulation built next, in place of the model's default for it */
+	public void setProperty(String name, Object value) {
+		properties.put(name, value);
+	}
+
+	/**
+	 * The seed set with setSeed, or else the one the last Simulation built drew for its RandomStreams;
+	 * null if there is neither, as for a model that uses no random numbers
+	 */
+	public Long getSeed() {
+		if (seed != null) return seed;
+		Object drawn = (simulation == null) ? null : simulation.getProperties().get(RandomStreams.SEED);
+		return (drawn == null) ? null : ((Number)drawn).longValue();
+	}
+
+	public Simulation getSimulation() {
+		return simulation;
+	}
+
+	public Grid getGrid() {
+		return grid;
+	}
+
+	/** Creates the Simulation and everything in it. The Simulation is built but not started. */
+	public Simulation build() {
+		this.simulation = new Simulation();
+		simulation.endWhen(sim -> sim.getStepTime() == steps);
+		if (seed != null) simulation.getProperties().put(RandomStreams.SEED, seed);
+		simulation.getProperties().putAll(properties);
+		this.grid = createWorld(simulation);
+		return simulation;
+	}
+
+	/** Creates the Universe for the given Simulation, adds the agents and patches, and returns the Universe */
+	protected abstract Grid createWorld(Simulation simulation);
+
+	/** The TimedStateMachines of the model last built, for a RunRecorder to follow; none by default */
+	public List<TimedStateMachine<?>> getStateMachines() {
+		return Collections.emptyList();
+	}
+
+	/**
+	 * A RunRecorder that writes the run of the model last built to file, for the caller to add to its
+	 * Simulation after everything else and close once stepping stops. By default it records the
+	 * universe's default layer and the model's state machines; null for a model it cannot record.
+	 */
+	public RunRecorder createRecorder(Path file) {
+		RunRecorder recorder = new RunRecorder(file, width, height);
+		recorder.watch(grid.getGridLayer(Grid.DEFAULT_GRID_LAYER));
+		for (TimedStateMachine<?> machine : getStateMachines()) {
+			recorder.watch(machine);
+		}
+		return recorder;
+	}
+
+	/**
+	 * A Checkpoint of everything a resumed run of the model last built needs, for the caller to add to
+	 * its Simulation after everything else; null, the default, for a model that cannot be checkpointed
+	 */
+	public Checkpoint createCheckpoint() {
+		return null;
+	}
+
+	/** The names of the values {@link #observe} reports; none by default */
+	public String[] getObservableNames() {
+		return new String[0];
+	}
+
+	/** Writes the current value of each observable into values, in the order of their names */
+	public void observe(double[] values) {
+	}
+
+	/** A one-line description of the current state of the world; by default, how many cells hold each value */
+	public String summarize() {
+		Map<String, Integer> counts = new TreeMap<>();
+		for (int y=0; y < height; y++) {
+			for (int x=0; x < width; x++) {
+				counts.merge(String.valueOf(grid.get(x, y)), 1, Integer::sum);
+			}
+		}
+		return "cells " + counts;
+	}
+}
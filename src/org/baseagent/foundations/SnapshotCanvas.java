@@ -0,0 +1,115 @@
+package org.baseagent.foundations;
+
+import javafx.animation.AnimationTimer;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+/**
+ * Draws the newest GridSnapshot from a SnapshotPublisher on every JavaFX pulse, so the display runs
+ * at its own frame rate while the simulation steps unthrottled on its own thread. A pulse with no
+ * new snapshot draws nothing. The simulation's steps per second and the frames per second drawn are
+ * measured separately, and shown in the corner when enabled.
+ */
+public class SnapshotCanvas extends Canvas {
+	private final SnapshotPublisher publisher;
+	private final double cellWidth;
+	private final double cellHeight;
+	private DirtyGridCanvas.CellPainter painter = (gc, value, x, y, w, h) -> {};
+	private Color agentColor = Color.RED;
+	private boolean showRates;
+
+	private long drawnSequence = -1;
+	private long frames;
+	private long rateStart;
+	private long rateSteps;
+	private long rateFrames;
+	private double stepsPerSecond;
+	private double framesPerSecond;
+
+	private final AnimationTimer timer = new AnimationTimer() {
+		@Override
+		public void handle(long now) {
+			measure(now);
+			redraw();
+		}
+	};
+
+	public SnapshotCanvas(SnapshotPublisher publisher, int width, int height, double cellWidth, double cellHeight) {
+		super(width * cellWidth, height * cellHeight);
+		this.publisher = publisher;
+		this.cellWidth = cellWidth;
+		this.cellHeight = cellHeight;
+	}
+
+	public void setCellPainter(DirtyGridCanvas.CellPainter painter) {
+		this.painter = painter;
+		this.drawnSequence = -1;
+	}
+
+	public void setAgentColor(Color agentColor) {
+		this.agentColor = agentColor;
+	}
+
+	/** Shows steps per second and frames per second in the top left corner */
+	public void setShowRates(boolean showRates) {
+		this.showRates = showRates;
+	}
+
+	public void start() {
+		timer.start();
+	}
+
+	public void stop() {
+		timer.stop();
+	}
+
+	/** Simulation steps per second over the last second measured */
+	public double getStepsPerSecond() {
+		return stepsPerSecond;
+	}
+
+	/** Frames drawn per second over the last second measured */
+	public double getFramesPerSecond() {
+		return framesPerSecond;
+	}
+
+	/** Draws the newest snapshot, if it has not been drawn yet; call on the JavaFX thread */
+	public void redraw() {
+		GridSnapshot snapshot = publisher.take();
+		if (snapshot.sequence == drawnSequence) return;
+		drawnSequence = snapshot.sequence;
+		frames++;
+
+		GraphicsContext gc = getGraphicsContext2D();
+		for (int y=0; y < snapshot.getHeight(); y++) {
+			for (int x=0; x < snapshot.getWidth(); x++) {
+				painter.paint(gc, snapshot.get(x, y), x * cellWidth, y * cellHeight, cellWidth, cellHeight);
+			}
+		}
+		gc.setFill(agentColor);
+		for (int i=0; i < snapshot.getAgentCount(); i++) {
+			gc.fillRect(snapshot.getAgentX(i) * cellWidth, snapshot.getAgentY(i) * cellHeight, cellWidth, cellHeight);
+		}
+		if (showRates) {
+			gc.setFill(Color.BLACK);
+			gc.fillText(String.format("step %d   %.0f steps/s   %.0f frames/s", snapshot.getStepTime(), stepsPerSecond, framesPerSecond), 4, 14);
+		}
+	}
+
+	private void measure(long now) {
+		if (rateStart == 0) {
+			rateStart = now;
+			rateSteps = publisher.getSteps();
+			rateFrames = frames;
+			return;
+		}
+		double seconds = (now - rateStart) / 1e9;
+		if (seconds < 1.0) return;
+		stepsPerSecond = (publisher.getSteps() - rateSteps) / seconds;
+		framesPerSecond = (frames - rateFrames) / seconds;
+		rateStart = now;
+		rateSteps = publisher.getSteps();
+		rateFrames = frames;
+	}
+}
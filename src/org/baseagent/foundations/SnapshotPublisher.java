@@ -0,0 +1,102 @@
+package org.baseagent.foundations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.baseagent.grid.GridAgent;
+import org.baseagent.grid.GridLayer;
+import org.baseagent.sim.Simulation;
+
+/**
+ * Hands the state of a running simulation to a display on another thread without either side
+ * waiting for the other. At the end of a step the publisher copies a grid layer and the watched
+ * agents' cells into a GridSnapshot; the display takes the newest snapshot whenever it draws.
+ *
+ * The snapshots are triple buffered: the simulation writes into its own, swaps it with the one
+ * ready for the display, and the display swaps that with the one it last drew, each with a single
+ * atomic exchange. Captures are coalesced: a new one is only taken once the display has taken the
+ * last, so however slow the display, the simulation copies at most one frame per frame drawn and
+ * otherwise steps at full speed.
+ *
+ * Add the publisher to the Simulation after everything it watches, so it sees each step complete.
+ */
+public class SnapshotPublisher extends GridAgent {
+	private final int width;
+	private final int height;
+	private final List<GridAgent> agents = new ArrayList<>();
+	private GridLayer layer;
+
+	private GridSnapshot back;
+	private final AtomicReference<GridSnapshot> ready;
+	private GridSnapshot front;
+	private volatile boolean wanted = true;
+	private long published;
+
+	private volatile long steps;
+	private volatile long captures;
+
+	public SnapshotPublisher(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.back = new GridSnapshot(width, height);
+		this.ready = new AtomicReference<>(new GridSnapshot(width, height));
+		this.front = new GridSnapshot(width, height);
+	}
+
+	/** The layer copied into each snapshot */
+	public void watch(GridLayer layer) {
+		this.layer = layer;
+	}
+
+	/** An agent whose cell is copied into each snapshot; call before the simulation starts */
+	public void addAgent(GridAgent agent) {
+		agents.add(agent);
+	}
+
+	@Override
+	public void step(Simulation simulation) {
+		steps++;
+		if (!wanted) return;
+		wanted = false;
+
+		back.setStepTime(simulation.getStepTime());
+		if (layer != null) {
+			Object[] cells = back.getCells();
+			for (int y=0; y < height; y++) {
+				for (int x=0; x < width; x++) {
+					cells[y * width + x] = layer.get(x, y);
+				}
+			}
+		}
+		back.clearAgents();
+		for (GridAgent agent : agents) {
+			back.addAgent(agent.getCellX(), agent.getCellY());
+		}
+		back.sequence = ++published;
+		back = ready.getAndSet(back);
+		captures++;
+	}
+
+	/**
+	 * The newest snapshot, to be read on the display thread until the next call. If nothing newer
+	 * has been published, this is the same snapshot as last time.
+	 */
+	public GridSnapshot take() {
+		if (ready.get().sequence > front.sequence) {
+			front = ready.getAndSet(front);
+			wanted = true;
+		}
+		return front;
+	}
+
+	/** Steps the simulation has taken since the publisher was added */
+	public long getSteps() {
+		return steps;
+	}
+
+	/** Snapshots published so far; at most one per snapshot taken by the display */
+	public long getCaptures() {
+		return captures;
+	}
+}
@@ -0,0 +1,235 @@
+package org.baseagent.foundations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntFunction;
+
+import org.baseagent.grid.GridAgent;
+import org.baseagent.sim.Simulation;
+
+/**
+ * A state machine for a whole population, one row per agent, whose transitions are declared as
+ * delays instead of predicates polled every step. On entering a state, each transition out of it
+ * draws its delay and the soonest one is put on a TimerWheel; nothing more happens for that row
+ * until the timer fires. A chance per step is drawn once as a geometric delay, so an agent waiting
+ * in a state costs nothing, and a step costs time in the number of transitions that happen.
+ *
+ * Transitions take at least one step. When two come due on the same step, the one declared first
+ * wins. Rows can also be moved by events outside the machine with {@link #enter}.
+ *
+ * {@link #snapshot} copies out every row's state and the transition it waits on, with the step that
+ * fires it, and {@link #restore} puts them back, so that a Checkpoint can resume the machine. The
+ * machine keeps time by the simulation's step time until a restore, and from then on by its own
+ * clock, which carries on from the step the snapshot was taken on; read it with {@link #getTime}.
+ *
+ * Add the TimedStateMachine to the Simulation; its step fires the timers due at the step time.
+ */
+public class TimedStateMachine<S extends Enum<S>> extends GridAgent {
+	/** A delay never fires */
+	public static final long NEVER = Long.MAX_VALUE;
+
+	/** How many steps a row waits before taking a transition; {@link #NEVER} if it will not */
+	public interface Delay {
+		long steps(int row, long now);
+	}
+
+	/** Something done to a row on a transition or on entering a state */
+	public interface Action {
+		void apply(int row, long now);
+	}
+
+	/** Told whenever a row enters a state, by ordinal, with the one it left; from is -1 for a row past every row entered before */
+	public interface StateListener {
+		void entered(int row, int from, int to, long now);
+	}
+
+	/** The rows of a machine as they stood at the end of a step */
+	public static class Snapshot {
+		final long next;
+		final byte[] states;
+		final int[] transitions;
+		final long[] due;
+
+		Snapshot(long next, byte[] states, int[] transitions, long[] due) {
+			this.next = next;
+			this.states = states;
+			this.transitions = transitions;
+			this.due = due;
+		}
+
+		public int size() {
+			return states.length;
+		}
+	}
+
+	private class Transition {
+		final S to;
+		final Delay delay;
+		final Action action;
+
+		Transition(S to, Delay delay, Action action) {
+			this.to = to;
+			this.delay = delay;
+			this.action = action;
+		}
+	}
+
+	private final S[] states;
+	private final List<List<Transition>> transitionsFrom = new ArrayList<>();
+	private final Action[] onEnter;
+	private final TimerWheel timers = new TimerWheel(1024);
+	private final List<StateListener> listeners = new ArrayList<>();
+
+	private byte[] stateOf = new byte[16];
+	private Object[] pending = new Object[16];
+	private int rows;
+	private long clockOffset;
+	private long resumeAt = -1;
+
+	public TimedStateMachine(Class<S> stateType) {
+		this.states = stateType.getEnumConstants();
+		if (states.length > Byte.MAX_VALUE) throw new IllegalArgumentException("Too many states in " + stateType.getName());
+		for (int i=0; i < states.length; i++) {
+			transitionsFrom.add(new ArrayList<>());
+		}
+		this.onEnter = new Action[states.length];
+	}
+
+	public void addTransition(S from, S to, Delay delay) {
+		addTransition(from, to, delay, null);
+	}
+
+	public void addTransition(S from, S to, Delay delay, Action action) {
+		transitionsFrom.get(from.ordinal()).add(new Transition(to, delay, action));
+	}
+
+	/** An action run whenever a row enters the state, however it got there */
+	public void onEnter(S state, Action action) {
+		onEnter[state.ordinal()] = action;
+	}
+
+	public void addStateListener(StateListener listener) {
+		listeners.add(listener);
+	}
+
+	/** A fixed delay */
+	public static Delay after(long steps) {
+		return (row, now) -> steps;
+	}
+
+	/**
+	 * The step at which a transition with this chance per step first succeeds, drawn all at once from
+	 * the row's random stream
+	 */
+	public static Delay chancePerStep(double chance, IntFunction<RandomStreams.Stream> randomOf) {
+		if (chance <= 0.0) return (row, now) -> NEVER;
+		if (chance >= 1.0) return (row, now) -> 1L;
+		double logFail = Math.log1p(-chance);
+		return (row, now) -> {
+			double steps = Math.ceil(Math.log(1.0 - randomOf.apply(row).nextDouble()) / logFail);
+			return (steps >= NEVER) ? NEVER : Math.max(1L, (long)steps);
+		};
+	}
+
+	/** Puts a row in a state at step now, runs its entry action and schedules its soonest transition */
+	public void enter(int row, S state, long now) {
+		setState(row, state.ordinal(), now);
+		if (onEnter[state.ordinal()] != null) onEnter[state.ordinal()].apply(row, now);
+
+		Transition soonest = null;
+		long soonestDelay = NEVER;
+		for (Transition transition : transitionsFrom.get(state.ordinal())) {
+			long delay = Math.max(1L, transition.delay.steps(row, now));
+			if ((delay < soonestDelay) && (delay <= NEVER - now)) {
+				soonest = transition;
+				soonestDelay = delay;
+			}
+		}
+		pending[row] = soonest;
+		if (soonest != null) timers.schedule(row, now + soonestDelay); else timers.cancel(row);
+	}
+
+	/** One more than the highest row entered so far */
+	public int size() {
+		return rows;
+	}
+
+	public S getState(int row) {
+		return states[stateOf[row]];
+	}
+
+	/** The step it is by the machine's clock: the simulation's step time until a restore, and after one, the snapshot's step plus the steps since */
+	public long getTime(Simulation simulation) {
+		if (resumeAt >= 0) {
+			// The first step after a restore is the one after the snapshot's, whatever the simulation calls it
+			clockOffset = resumeAt - simulation.getStepTime();
+			resumeAt = -1;
+		}
+		return simulation.getStepTime() + clockOffset;
+	}
+
+	/** Copies out every row's state, and the transition it waits on with the step that fires it */
+	public Snapshot snapshot() {
+		int[] transitions = new int[rows];
+		long[] due = new long[rows];
+		for (int row=0; row < rows; row++) {
+			transitions[row] = transitionsFrom.get(stateOf[row]).indexOf(pending[row]);
+			due[row] = (transitions[row] < 0) ? NEVER : timers.getDue(row);
+		}
+		return new Snapshot(timers.getNext(), Arrays.copyOf(stateOf, rows), transitions, due);
+	}
+
+	/**
+	 * Puts every row of the snapshot back as it was, without running entry actions or drawing delays;
+	 * the listeners are told of each row's state as if the row had entered it. The machine must have
+	 * the same states and transitions as the one the snapshot was taken of, and no more rows.
+	 */
+	public void restore(Snapshot snapshot) {
+		int count = snapshot.size();
+		if (count < rows) throw new IllegalArgumentException("The snapshot holds " + count + " rows, fewer than the " + rows + " entered");
+		for (int row=0; row < count; row++) {
+			int state = snapshot.states[row];
+			if ((state < 0) || (state >= states.length) || (snapshot.transitions[row] >= transitionsFrom.get(state).size())) {
+				throw new IllegalArgumentException("Row " + row + " of the snapshot is in a state or transition this machine does not have");
+			}
+		}
+
+		timers.clear(snapshot.next);
+		for (int row=0; row < count; row++) {
+			int state = snapshot.states[row];
+			setState(row, state, snapshot.next - 1);
+			int transition = snapshot.transitions[row];
+			pending[row] = (transition < 0) ? null : transitionsFrom.get(state).get(transition);
+			if (transition >= 0) timers.schedule(row, snapshot.due[row]);
+		}
+		resumeAt = snapshot.next;
+	}
+
+	@Override
+	public void step(Simulation simulation) {
+		timers.advanceTo(getTime(simulation), this::fire);
+	}
+
+	private void setState(int row, int state, long now) {
+		if (row >= stateOf.length) {
+			int capacity = Math.max(row + 1, stateOf.length * 2);
+			stateOf = Arrays.copyOf(stateOf, capacity);
+			pending = Arrays.copyOf(pending, capacity);
+		}
+		int from = (row < rows) ? stateOf[row] : -1;
+		stateOf[row] = (byte)state;
+		rows = Math.max(rows, row + 1);
+		for (int i=0; i < listeners.size(); i++) {
+			listeners.get(i).entered(row, from, state, now);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void fire(int row, long now) {
+		Transition transition = (Transition)pending[row];
+		pending[row] = null;
+		if (transition.action != null) transition.action.apply(row, now);
+		enter(row, transition.to, now);
+	}
+}
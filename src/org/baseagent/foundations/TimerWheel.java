@@ -0,0 +1,106 @@
+package org.baseagent.foundations;
+
+import java.util.Arrays;
+
+/**
+ * A hashed timer wheel keyed by simulation step. Each row (an agent's row in a KnowledgeTable, say)
+ * has at most one pending timer; scheduling again replaces it and cancelling drops it. A timer sits
+ * in the slot for its step modulo the wheel size, so advancing one step only looks at that slot:
+ * the timers due then, plus the few scheduled more than a full turn of the wheel ahead.
+ */
+public class TimerWheel {
+	/** Called for each row whose timer comes due */
+	public interface Listener {
+		void fire(int row, long step);
+	}
+
+	private static final long NONE = Long.MIN_VALUE;
+
+	private final int mask;
+	private final int[][] slotRows;
+	private final long[][] slotSteps;
+	private final int[] slotSizes;
+
+	private long[] dueAt = new long[16];
+	private long next;
+
+	/** A wheel of at least the given number of slots, rounded up to a power of two */
+	public TimerWheel(int slots) {
+		int size = Integer.highestOneBit(Math.max(1, slots - 1)) << 1;
+		this.mask = size - 1;
+		this.slotRows = new int[size][4];
+		this.slotSteps = new long[size][4];
+		this.slotSizes = new int[size];
+		Arrays.fill(dueAt, NONE);
+	}
+
+	/** Sets the row's timer to fire at step, replacing any it had; steps already passed fire on the next advance */
+	public void schedule(int row, long step) {
+		if (row >= dueAt.length) {
+			int oldLength = dueAt.length;
+			dueAt = Arrays.copyOf(dueAt, Math.max(row + 1, oldLength * 2));
+			Arrays.fill(dueAt, oldLength, dueAt.length, NONE);
+		}
+		step = Math.max(step, next);
+		dueAt[row] = step;
+
+		int slot = (int)(step & mask);
+		int size = slotSizes[slot];
+		if (size == slotRows[slot].length) {
+			slotRows[slot] = Arrays.copyOf(slotRows[slot], size * 2);
+			slotSteps[slot] = Arrays.copyOf(slotSteps[slot], size * 2);
+		}
+		slotRows[slot][size] = row;
+		slotSteps[slot][size] = step;
+		slotSizes[slot] = size + 1;
+	}
+
+	/** Drops the row's pending timer, if any; its entry is discarded lazily when its slot comes round */
+	public void cancel(int row) {
+		if (row < dueAt.length) dueAt[row] = NONE;
+	}
+
+	public boolean isScheduled(int row) {
+		return (row < dueAt.length) && (dueAt[row] != NONE);
+	}
+
+	/** The step at which the row's timer fires; only meaningful while it is scheduled */
+	public long getDue(int row) {
+		return dueAt[row];
+	}
+
+	/** The first step the next advance will fire timers for */
+	public long getNext() {
+		return next;
+	}
+
+	/** Drops every timer and starts the wheel over, so that the next advance begins at step */
+	public void clear(long step) {
+		Arrays.fill(dueAt, NONE);
+		Arrays.fill(slotSizes, 0);
+		next = step;
+	}
+
+	/** Fires, in step order, every timer due up to and including step */
+	public void advanceTo(long step, Listener listener) {
+		for (; next <= step; next++) {
+			int slot = (int)(next & mask);
+			int kept = 0;
+			// The listener may schedule more timers into this slot, so the size is re-read each time round
+			for (int i=0; i < slotSizes[slot]; i++) {
+				int row = slotRows[slot][i];
+				long due = slotSteps[slot][i];
+				if (dueAt[row] != due) continue;
+				if (due > next) {
+					slotRows[slot][kept] = row;
+					slotSteps[slot][kept] = due;
+					kept++;
+					continue;
+				}
+				dueAt[row] = NONE;
+				listener.fire(row, next);
+			}
+			slotSizes[slot] = kept;
+		}
+	}
+}
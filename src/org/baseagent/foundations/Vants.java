@@ -7,14 +7,11 @@ import org.baseagent.Agent;
 import org.baseagent.behaviors.Behavior;
 import org.baseagent.grid.Grid;
 import org.baseagent.grid.GridAgent;
-import org.baseagent.grid.GridLayer;
-import org.baseagent.grid.ui.GridCanvas;
-import org.baseagent.grid.ui.GridCanvasContext;
-import org.baseagent.grid.ui.GridCellRenderer;
 import org.baseagent.sim.Simulation;
 
 import javafx.application.Application;
 import javafx.scene.Scene;
+import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.ScrollPane;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.paint.Color;
@@ -27,30 +24,59 @@ public class Vants extends Application {
 		launch(args);
 	}
 	
+	/** Builds the Vants model without any JavaFX; see {@link HeadlessRunner} */
+	public static Scenario scenario() {
+		return new VantScenario(null);
+	}
+	
+	/** The Vants model, with the vant it made */
+	public static class VantScenario extends Scenario {
+		private final CellChanges changes;
+		private GridAgent vant;
+		
+		/** The vant marks each cell it flips in changes, if there are any */
+		public VantScenario(CellChanges changes) {
+			super("vants", 300, 300, 300000);
+			this.changes = changes;
+		}
+		
+		public GridAgent getVant() {
+			return vant;
+		}
+		
+		@Override
+		protected Grid createWorld(Simulation simulation) {
+			// A Grid is the field that contains things.
+			// While a single Simulation may have multiple Grid objects, a Simulation has
+			// only one Universe, which is the primary space in which the simulation
+			// takes place. 
+			Grid grid = new Grid(getWidth(), getHeight());
+			grid.getGridLayer(Grid.DEFAULT_GRID_LAYER).fill("0");
+			simulation.setUniverse(grid);
+			
+			vant = createExample(simulation, changes);
+			return grid;
+		}
+	}
+	
 	/** JavaFX Application start method */
 	@Override
 	public void start(Stage primaryStage) throws IOException {
 		
 		// A Simulation object is the core of a BaseAgent simulation.
 		// Everything that will be simulated is added to the simulation.
-		// The following settings indicate the end condition for the simulation,
-		// and the delay between simulation steps, which helps make the visual display
-		// proceed slowly enough for the human observer to notice what is happening.
-		Simulation simulation = new Simulation();
-		simulation.endWhen(sim -> sim.getStepTime() == 300000);
+		// The Scenario sets the end condition for the simulation; a delay between simulation steps
+		// helps make the visual display proceed slowly enough for the human observer to notice what is happening.
+		// The vant records the cells it flips, so that the canvas only redraws those
+		CellChanges changes = new CellChanges(300, 300);
+		VantScenario scenario = new VantScenario(changes);
+		Simulation simulation = scenario.build();
 //		simulation.setDelayAfterEachStep(1);
 		
-		// A Grid is the field that contains things.
-		// While a single Simulation may have multiple Grid objects, a Simulation has
-		// only one Universe, which is the primary space in which the simulation
-		// takes place. 
-		Grid grid = new Grid(300, 300);
-		grid.getGridLayer(Grid.DEFAULT_GRID_LAYER).fill("0");
-		simulation.setUniverse(grid);
-		
-		GridCanvas gridCanvas = new GridCanvas(grid, 2, 2);
+		DirtyGridCanvas gridCanvas = new DirtyGridCanvas(scenario.getGrid().getGridLayer(Grid.DEFAULT_GRID_LAYER), changes, 2, 2);
+		gridCanvas.addAgent(scenario.getVant(), Color.RED);
 		
-		createExample(simulation, gridCanvas);
+		createRenderers(gridCanvas);
 		
 		// The code below is JavaFX code for displaying the simulation - which is mostly showing the GridCanvas
 		BorderPane borderPane = new BorderPane();
@@ -65,22 +91,25 @@ public class Vants extends Application {
 		primaryStage.show();
 		
 		// Start the simulation!
+		gridCanvas.start();
 		simulation.start();
 	}
 
-	private void createExample(Simulation simulation, GridCanvas gridCanvas) {
-		gridCanvas.addGridLayerRenderer(Grid.DEFAULT_GRID_LAYER, new GridCellRenderer() {
+	private void createRenderers(DirtyGridCanvas gridCanvas) {
+		gridCanvas.setCellPainter(new DirtyGridCanvas.CellPainter() {
 			@Override
-			public void drawCell(GridCanvasContext gcc, GridLayer layer, Object value, double xInPixels, double yInPixels, double widthInPixels, double heightInPixels) {
+			public void paint(GraphicsContext gc, Object value, double xInPixels, double yInPixels, double widthInPixels, double heightInPixels) {
 				Color color = Color.BLACK;
 				if (value.equals("1")) color = Color.WHITE;
-				gcc.getGraphicsContext().setFill(color);
-				gcc.getGraphicsContext().fillRect(xInPixels, yInPixels, widthInPixels, heightInPixels);
+				gc.setFill(color);
+				gc.fillRect(xInPixels, yInPixels, widthInPixels, heightInPixels);
 			}
 		});
 //		gridCanvas.whenCellIs("1").color(Color.WHITE); // DMK - default layer, default property key
 //		gridCanvas.whenCellIs("0").color(Color.BLACK); // DMK - Stackable draw-ers, color().shape().etc
-		
+	}
+	
+	private static GridAgent createExample(Simulation simulation, CellChanges changes) {
 		// Vant agent
 		GridAgent vant = new GridAgent();
 		vant.addBehavior(new Behavior() {
@@ -95,11 +124,13 @@ public class Vants extends Application {
 					vant.setCell("1");
 					vant.turnRight();
 				}
+				if (changes != null) changes.mark(vant.getCellX(), vant.getCellY());
 				vant.moveForward();
 			}
 		});
 		vant.setColor(Color.RED);
 		simulation.add(vant);
 		vant.placeAt(150, 150);
+		return vant;
 	}
 }